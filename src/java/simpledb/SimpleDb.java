@@ -1,12 +1,15 @@
 package simpledb;
+import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.util.Iterator;
 
 public class SimpleDb {
     public static void main (String[] args)
@@ -37,14 +40,12 @@ public class SimpleDb {
                         }
                         int index = 0;
                         for (String s : typeStringAr) {
-                            if (s.equalsIgnoreCase("int"))
-                                ts[index++] = Type.INT_TYPE;
-                            else if (s.equalsIgnoreCase("string"))
-                                ts[index++] = Type.STRING_TYPE;
-                            else {
+                            Type t = Type.forName(s.trim());
+                            if (t == null) {
                                 System.err.println("Unknown type " + s);
                                 return;
                             }
+                            ts[index++] = t;
                         }
                         if (args.length == 5)
                             fieldSeparator = args[4].charAt(0);
@@ -94,6 +95,41 @@ public class SimpleDb {
                     e.printStackTrace();
                 }
 
+                break;
+            case "verify":
+                // check every page of every table in a catalog against its checksum
+                if (args.length < 2 || args.length > 3) {
+                    System.err.println("Usage: verify <catalog file> [threads]");
+                    return;
+                }
+                Database.getCatalog().loadSchema(args[1]);
+                int threads = args.length == 3 ? Integer.parseInt(args[2])
+                        : Runtime.getRuntime().availableProcessors();
+                boolean corrupt = false;
+                Iterator<Integer> tableIds = Database.getCatalog().tableIdIterator();
+                while (tableIds.hasNext()) {
+                    DbFile file = Database.getCatalog().getDatabaseFile(tableIds.next());
+                    PageChecksums.Report report;
+                    try {
+                        if (file instanceof HeapFile) {
+                            report = ((HeapFile) file).verify(threads);
+                        } else if (file instanceof BTreeFile) {
+                            report = ((BTreeFile) file).verify(threads);
+                        } else {
+                            continue;
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    System.out.println(report);
+                    for (String reason : report.corrupt.values()) {
+                        System.out.println("  " + reason);
+                    }
+                    corrupt |= !report.corrupt.isEmpty();
+                }
+                if (corrupt) {
+                    System.exit(1);
+                }
                 break;
             default:
                 System.err.println("Unknown command: " + args[0]);
@@ -1,8 +1,10 @@
 package simpledb.common;
 
 
+import simpledb.storage.ColumnarHeapFile;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.SlottedHeapFile;
 import simpledb.storage.TupleDesc;
 
 import java.io.BufferedReader;
@@ -59,7 +61,10 @@ public class Catalog {
         // some code goes here
         Table table = new Table(file,name, pkeyField);
         nameToId.put(name, file.getId());
-        tables.put(file.getId(), table);
+        Table old = tables.put(file.getId(), table);
+        if(old != null && old.dbFile != file){
+            closeFile(old.dbFile);
+        }
     }
 
     public void addTable(DbFile file, String name) {
@@ -143,12 +148,27 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here
+        for(Table table : tables.values()){
+            closeFile(table.dbFile);
+        }
         tables.clear();;
         nameToId.clear();
     }
+
+    private void closeFile(DbFile file) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line describes a table as "name (field type [pk], ...)", optionally
+     * followed by "slotted" to store the table as a {@link SlottedHeapFile},
+     * or by "columnar" to store it as a {@link ColumnarHeapFile}, and by
+     * "compressed" to store its pages compressed.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -169,14 +189,12 @@ public class Catalog {
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
-                    if (els2[1].trim().equalsIgnoreCase("int"))
-                        types.add(Type.INT_TYPE);
-                    else if (els2[1].trim().equalsIgnoreCase("string"))
-                        types.add(Type.STRING_TYPE);
-                    else {
+                    Type type = Type.forName(els2[1].trim());
+                    if (type == null) {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
+                    types.add(type);
                     if (els2.length == 3) {
                         if (els2[2].trim().equals("pk"))
                             primaryKey = els2[0].trim();
@@ -189,7 +207,34 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                // 表结构后面可以跟 "slotted"（变长记录）或 "columnar"（按列存放）的页面格式，
+                // 以及 "compressed"（页面压缩存放）
+                String layout = "";
+                boolean compressed = false;
+                for (String option : line.substring(line.indexOf(")") + 1).trim().split("\\s+")) {
+                    if (option.equalsIgnoreCase("compressed"))
+                        compressed = true;
+                    else if (layout.isEmpty())
+                        layout = option;
+                    else {
+                        System.out.println("Unknown table layout " + option);
+                        System.exit(0);
+                        return;
+                    }
+                }
+                File tabFile = new File(baseFolder+"/"+name + ".dat");
+                HeapFile tabHf;
+                if (layout.isEmpty())
+                    tabHf = new HeapFile(tabFile, t, compressed);
+                else if (layout.equalsIgnoreCase("slotted"))
+                    tabHf = new SlottedHeapFile(tabFile, t, compressed);
+                else if (layout.equalsIgnoreCase("columnar"))
+                    tabHf = new ColumnarHeapFile(tabFile, t, compressed);
+                else {
+                    System.out.println("Unknown table layout " + layout);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -1,11 +1,15 @@
 package simpledb.common;
 
+import simpledb.storage.DateField;
+import simpledb.storage.DoubleField;
 import simpledb.storage.StringField;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
+import simpledb.storage.LongField;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -28,6 +32,24 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                return new IntField(buf.getInt(offset));
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
+
+        @Override
+        public Field parse(String s) throws ParseException {
+            try {
+                return new IntField(Integer.parseInt(s.trim()));
+            } catch (NumberFormatException e) {
+                throw new ParseException("not an int: " + s, 0);
+            }
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -46,10 +68,149 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                int strLen = buf.getInt(offset);
+                if (strLen < 0 || strLen > STRING_LEN) {
+                    throw new ParseException("couldn't parse", offset);
+                }
+                byte[] bs = new byte[strLen];
+                if (buf.hasArray()) {
+                    System.arraycopy(buf.array(), buf.arrayOffset() + offset + 4, bs, 0, strLen);
+                } else {
+                    for (int i = 0; i < strLen; i++) {
+                        bs[i] = buf.get(offset + 4 + i);
+                    }
+                }
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
+
+        @Override
+        public Field parse(String s) {
+            return new StringField(s, STRING_LEN);
+        }
+    }, LONG_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new LongField(dis.readLong());
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                return new LongField(buf.getLong(offset));
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
+
+        @Override
+        public Field parse(String s) throws ParseException {
+            try {
+                return new LongField(Long.parseLong(s.trim()));
+            } catch (NumberFormatException e) {
+                throw new ParseException("not a long: " + s, 0);
+            }
+        }
+    }, DOUBLE_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new DoubleField(dis.readDouble());
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                return new DoubleField(buf.getDouble(offset));
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
+
+        @Override
+        public Field parse(String s) throws ParseException {
+            try {
+                return new DoubleField(Double.parseDouble(s.trim()));
+            } catch (NumberFormatException e) {
+                throw new ParseException("not a double: " + s, 0);
+            }
+        }
+    }, DATE_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new DateField(dis.readLong());
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                return new DateField(buf.getLong(offset));
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
+
+        @Override
+        public Field parse(String s) throws ParseException {
+            return DateField.parse(s.trim());
+        }
     };
     
     public static final int STRING_LEN = 128;
 
+  /**
+   * @return the type named name in schemas ("int", "string", "long",
+   *   "double" or "date", in any case), or null if there is no such type.
+   */
+    public static Type forName(String name) {
+        switch (name.trim().toLowerCase()) {
+            case "int":
+                return INT_TYPE;
+            case "string":
+                return STRING_TYPE;
+            case "long":
+                return LONG_TYPE;
+            case "double":
+                return DOUBLE_TYPE;
+            case "date":
+                return DATE_TYPE;
+            default:
+                return null;
+        }
+    }
+
   /**
    * @return the number of bytes required to store a field of this type.
    */
@@ -64,4 +225,44 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified buffer, starting at its position. The position
+   *   is advanced past the field.
+   * @param buf The buffer to read from
+   * @throws ParseException if the data in the buffer is not of the
+   *   appropriate type.
+   */
+    public Field parse(ByteBuffer buf) throws ParseException {
+        int start = buf.position();
+        Field f = parse(buf, start);
+        try {
+            buf.position(start + getLen());
+        } catch (IllegalArgumentException e) {
+            throw new ParseException("couldn't parse", start);
+        }
+        return f;
+    }
+
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified buffer at an absolute offset. The position of
+   *   the buffer is not changed.
+   * @param buf The buffer to read from
+   * @param offset The index in buf of the first byte of the field
+   * @throws ParseException if the data in the buffer is not of the
+   *   appropriate type.
+   */
+    public abstract Field parse(ByteBuffer buf, int offset) throws ParseException;
+
+  /**
+   * @return a Field object of the same type as this object holding the value
+   *   written as text in s, as found in files converted by
+   *   {@link simpledb.storage.HeapFileEncoder} and in SQL constants. Dates are
+   *   written as yyyy-MM-dd or yyyy-MM-dd HH:mm:ss[.SSS], in UTC.
+   * @param s The text to parse
+   * @throws ParseException if s is not a value of this type.
+   */
+    public abstract Field parse(String s) throws ParseException;
+
 }
@@ -11,29 +11,36 @@ import java.util.NoSuchElementException;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * min). It computes one or more aggregates, grouped by zero or more columns,
+ * in a single pass over its child.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** The number of groups held in memory unless asked otherwise */
+    public static final int GROUP_MEMORY = 1 << 20;
+
     private OpIterator child;
-    private int afield;
-    private int gfield;
-    private Aggregator.Op aop;
+    private int[] afields;
+    private int[] gfields;
+    private Aggregator.Op[] aops;
     private TupleDesc childTd;
+    private final int memoryGroups;
 
     private OpIterator resultOpIerator;
 
     private Aggregator aggOpIteratro;
 
+    private TupleBatch resultBatch;
+
     /**
      * Constructor.
      * <p>
      * Implementation hint: depending on the type of afield, you will want to
      * construct an {@link IntegerAggregator} or {@link StringAggregator} to help
-     * you with your implementation of readNext().
+     * you with your implementation of readNext(). LONG, DOUBLE and DATE fields
+     * are aggregated by a {@link NumericAggregator}.
      *
      * @param child  The OpIterator that is feeding us tuples.
      * @param afield The column over which we are computing an aggregate.
@@ -43,16 +50,72 @@ public class Aggregate extends Operator {
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
         // some code goes here
+        this(child, new int[]{afield},
+                gfield == Aggregator.NO_GROUPING ? new int[0] : new int[]{gfield},
+                new Aggregator.Op[]{aop});
+    }
+
+    /**
+     * Constructor for several aggregates over a composite group key. The
+     * output tuples hold the group-by columns, in the order given, followed
+     * by aggregate k of column afields[k] for each k.
+     * <p>
+     * When every aggregate is over an INT column, or is a COUNT, they are all
+     * computed by one {@link IntegerAggregator}. Otherwise there must be a
+     * single aggregate and at most one group-by column.
+     *
+     * @param child   The OpIterator that is feeding us tuples.
+     * @param afields The columns over which we are computing aggregates.
+     * @param gfields The columns over which we are grouping the result; empty
+     *                if there is no grouping
+     * @param aops    The aggregation operator of each aggregate column
+     * @throws IllegalArgumentException if the aggregates cannot be computed
+     *                                  together
+     */
+    public Aggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        this(child, afields, gfields, aops, GROUP_MEMORY);
+    }
+
+    /**
+     * Constructor with a memory budget. Aggregates computed by an
+     * {@link IntegerAggregator} spill the groups past the budget to disk;
+     * the others keep every group in memory.
+     *
+     * @param memoryGroups The most groups to hold in memory
+     */
+    public Aggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops,
+                     int memoryGroups) {
+        if (afields.length != aops.length || afields.length == 0) {
+            throw new IllegalArgumentException("need one operator for each of at least one aggregate column");
+        }
         this.child = child;
-        this.afield =afield;
-        this.gfield = gfield;
-        this.aop = aop;
+        this.memoryGroups = memoryGroups;
+        this.afields = afields.clone();
+        this.gfields = gfields.clone();
+        this.aops = aops.clone();
         childTd = child.getTupleDesc();
-        Type gFieldType = gfield == Aggregator.NO_GROUPING ? null : childTd.getFieldType(gfield);
-        if(childTd.getFieldType(afield).equals(Type.INT_TYPE)){
-            aggOpIteratro = new IntegerAggregator(gfield,gFieldType, afield, aop);
-        }else{
-            aggOpIteratro = new StringAggregator(gfield, gFieldType, afield, aop);
+        Type[] gFieldTypes = new Type[gfields.length];
+        for (int i = 0; i < gfields.length; i++) {
+            gFieldTypes[i] = childTd.getFieldType(gfields[i]);
+        }
+        boolean allInt = true;
+        for (int k = 0; k < afields.length; k++) {
+            allInt &= aops[k] == Aggregator.Op.COUNT || childTd.getFieldType(afields[k]) == Type.INT_TYPE;
+        }
+        if (allInt) {
+            aggOpIteratro = new IntegerAggregator(gfields, gFieldTypes, afields, aops, memoryGroups);
+        } else if (afields.length > 1 || gfields.length > 1) {
+            throw new IllegalArgumentException("only aggregates over INT columns and COUNT can be "
+                    + "computed together or grouped by several columns");
+        } else {
+            int gfield = groupField();
+            Type gFieldType = gfield == Aggregator.NO_GROUPING ? null : gFieldTypes[0];
+            Type aFieldType = childTd.getFieldType(afields[0]);
+            if (!aFieldType.equals(Type.STRING_TYPE)) {
+                aggOpIteratro = new NumericAggregator(gfield, gFieldType, afields[0], aFieldType, aops[0]);
+            } else {
+                aggOpIteratro = new StringAggregator(gfield, gFieldType, afields[0], aops[0]);
+            }
         }
     }
 
@@ -63,7 +126,15 @@ public class Aggregate extends Operator {
      */
     public int groupField() {
         // some code goes here
-        return gfield;
+        return gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+    }
+
+    /**
+     * @return the indexes of the group-by fields in the <b>INPUT</b> tuples,
+     * in the order they come in the output tuples
+     */
+    public int[] groupFields() {
+        return gfields.clone();
     }
 
     /**
@@ -73,10 +144,10 @@ public class Aggregate extends Operator {
      */
     public String groupFieldName() {
         // some code goes here
-        if(gfield == Aggregator.NO_GROUPING){
+        if(gfields.length == 0){
             return null;
         }
-        return child.getTupleDesc().getFieldName(gfield);
+        return child.getTupleDesc().getFieldName(gfields[0]);
     }
 
     /**
@@ -84,7 +155,14 @@ public class Aggregate extends Operator {
      */
     public int aggregateField() {
         // some code goes here
-        return afield;
+        return afields[0];
+    }
+
+    /**
+     * @return the indexes of the aggregate fields in the <b>INPUT</b> tuples
+     */
+    public int[] aggregateFields() {
+        return afields.clone();
     }
 
     /**
@@ -93,7 +171,7 @@ public class Aggregate extends Operator {
      */
     public String aggregateFieldName() {
         // some code goes here
-        return child.getTupleDesc().getFieldName(afield);
+        return child.getTupleDesc().getFieldName(afields[0]);
     }
 
     /**
@@ -101,7 +179,32 @@ public class Aggregate extends Operator {
      */
     public Aggregator.Op aggregateOp() {
         // some code goes here
-        return aop;
+        return aops[0];
+    }
+
+    /**
+     * @return the operator of each aggregate field
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
+    }
+
+    /**
+     * @return the most groups the aggregation holds in memory
+     */
+    public int getMemoryGroups() {
+        return memoryGroups;
+    }
+
+    /**
+     * @return the number of bytes written to temporary files by the
+     * aggregation, since the aggregate was constructed
+     */
+    public long getSpilledBytes() {
+        if (aggOpIteratro instanceof IntegerAggregator) {
+            return ((IntegerAggregator) aggOpIteratro).getSpilledBytes();
+        }
+        return 0;
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -112,13 +215,23 @@ public class Aggregate extends Operator {
             TransactionAbortedException {
         // some code goes here
         super.open();
+        resultOpIerator = aggregate();
+        resultOpIerator.open();
+    }
+
+    /**
+     * Aggregate every tuple of the child.
+     *
+     * @return an iterator over the results, not yet open
+     */
+    protected OpIterator aggregate() throws DbException, TransactionAbortedException {
         child.open();
-        while(child.hasNext()){
-            Tuple t = child.next();
-            aggOpIteratro.mergeTupleIntoGroup(t);
+        // 按 batch 读取子节点，子节点是 SeqScan/Filter/Project 时整条流水线都不逐行处理
+        TupleBatch batch;
+        while((batch = child.nextBatch()) != null){
+            aggOpIteratro.mergeBatchIntoGroup(batch);
         }
-        resultOpIerator = aggOpIteratro.iterator();
-        resultOpIerator.open();
+        return aggOpIteratro.iterator();
     }
 
     /**
@@ -136,6 +249,16 @@ public class Aggregate extends Operator {
         return null;
     }
 
+    /**
+     * Returns the aggregate results as a batch.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if(resultBatch == null){
+            resultBatch = new TupleBatch(getTupleDesc());
+        }
+        return TupleBatch.fill(resultOpIerator, resultBatch);
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
         child.rewind();
@@ -146,7 +269,8 @@ public class Aggregate extends Operator {
      * Returns the TupleDesc of this Aggregate. If there is no group by field,
      * this will have one field - the aggregate column. If there is a group by
      * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * the aggregate value column. With several group by fields or aggregates,
+     * the group by fields come first, then the aggregate columns.
      * <p>
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -155,13 +279,19 @@ public class Aggregate extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        TupleDesc td = gfield == Aggregator.NO_GROUPING ?
-                new TupleDesc(new Type[]{childTd.getFieldType(afield)},
-                        new String[]{"aggName" + "(" + afield + ")(" + childTd.getFieldName(afield) + ")"}):
-                new TupleDesc(new Type[]{childTd.getFieldType(gfield), childTd.getFieldType(afield)},
-                        new String[]{childTd.getFieldName(gfield),"aggName" + "(" + afield + ")(" + childTd.getFieldName(afield) + ")"});
-
-        return td;
+        Type[] types = new Type[gfields.length + afields.length];
+        String[] names = new String[types.length];
+        int f = 0;
+        for (int gfield : gfields) {
+            types[f] = childTd.getFieldType(gfield);
+            names[f++] = childTd.getFieldName(gfield);
+        }
+        for (int k = 0; k < afields.length; k++) {
+            // COUNT 的结果总是 int，其他聚合和被聚合的列同类型
+            types[f] = aops[k] == Aggregator.Op.COUNT ? Type.INT_TYPE : childTd.getFieldType(afields[k]);
+            names[f++] = "aggName" + "(" + afields[k] + ")(" + childTd.getFieldName(afields[k]) + ")";
+        }
+        return new TupleDesc(types, names);
     }
 
     public void close() {
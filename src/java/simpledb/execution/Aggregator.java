@@ -79,6 +79,19 @@ public interface Aggregator extends Serializable {
      */
     void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge the selected tuples of batch into the aggregate, as
+     * mergeTupleIntoGroup does for each of them.
+     *
+     * @param batch a batch of tuples containing an aggregate field and a
+     *              group-by field
+     */
+    default void mergeBatchIntoGroup(TupleBatch batch) {
+        for (int i = 0; i < batch.getTupleCount(); i++) {
+            mergeTupleIntoGroup(batch.getTuple(i));
+        }
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      * @see TupleIterator for a possible helper
@@ -0,0 +1,79 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BatchAdapter returns the tuples of its child one at a time, reading them
+ * from the child a batch at a time with {@link OpIterator#nextBatch()}: the
+ * adapter from batches to rows. Putting it above a pipeline of SeqScan,
+ * Filter and Project runs the whole pipeline on batches for a consumer of
+ * rows.
+ */
+public class BatchAdapter extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+
+    private transient TupleBatch batch;
+    private transient int pos;
+
+    public BatchAdapter(OpIterator child) {
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+        batch = null;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (batch == null || pos == batch.getTupleCount()) {
+            batch = child.nextBatch();
+            pos = 0;
+            if (batch == null) {
+                return null;
+            }
+        }
+        return batch.getTuple(pos++);
+    }
+
+    /** Returns the batches of the child as they are. */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        return child.nextBatch();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        if (this.child != children[0]) {
+            this.child = children[0];
+        }
+    }
+}
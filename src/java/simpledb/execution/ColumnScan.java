@@ -0,0 +1,107 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.NoSuchElementException;
+
+/**
+ * ColumnScan is a sequential scan that returns only some of the columns of
+ * a table, as if it were a {@link SeqScan} followed by a {@link Project}.
+ * <p>
+ * On a {@link ColumnarHeapFile} only the referenced columns are read from
+ * each page; on any other table the whole tuples are read and the columns
+ * picked from them.
+ */
+public class ColumnScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final int[] columns;
+    private final TupleDesc td;
+
+    private DbFileIterator dfIterator;
+    private boolean projected;
+
+    /**
+     * Creates a scan over the given columns of the specified table as a part
+     * of the specified transaction.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan.
+     * @param tableAlias the alias of this table, used to prefix the field
+     *                   names as in {@link SeqScan#getTupleDesc()}
+     * @param columns    the indexes of the columns to return, in order
+     */
+    public ColumnScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.columns = columns.clone();
+        TupleDesc all = new SeqScan(tid, tableid, tableAlias).getTupleDesc();
+        this.td = ColumnarHeapFile.projectTupleDesc(all, this.columns);
+    }
+
+    public ColumnScan(TransactionId tid, int tableid, int[] columns) {
+        this(tid, tableid, Database.getCatalog().getTableName(tableid), columns);
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        ScanRing ring = SeqScan.newScanRing(file);
+        projected = file instanceof ColumnarHeapFile;
+        dfIterator = projected ? ((ColumnarHeapFile) file).iterator(tid, ring, columns)
+                : file.iterator(tid, ring);
+        dfIterator.open();
+    }
+
+    /**
+     * Returns the TupleDesc of the scanned columns, with field names prefixed
+     * by the table alias.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        return dfIterator.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        Tuple t = dfIterator.next();
+        if (projected) {
+            // 文件返回的 tuple 是新建的，只需要换上带表别名的 TupleDesc
+            t.resetTupleDesc(td);
+            return t;
+        }
+        Tuple out = new Tuple(td);
+        for (int i = 0; i < columns.length; i++) {
+            out.setField(i, t.getField(columns[i]));
+        }
+        out.setRecordId(t.getRecordId());
+        return out;
+    }
+
+    public void close() {
+        dfIterator.close();
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        dfIterator.rewind();
+    }
+}
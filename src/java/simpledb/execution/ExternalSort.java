@@ -0,0 +1,335 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.*;
+import java.util.function.ToLongFunction;
+
+/**
+ * ExternalSort sorts any number of tuples while holding at most a given
+ * number of them in memory.
+ * <p>
+ * Tuples are collected in memory until they go over the budget. If they
+ * never do, they are sorted in memory. Otherwise sorted runs are written to
+ * {@link SpillFile}s by replacement selection: the tuples in memory form a
+ * heap, the smallest is written to the current run and replaced by the
+ * next tuple added, which joins the current run if it is not smaller than
+ * the last one written, and the next run otherwise. On random input runs
+ * are about twice the budget long. The runs are then merged with a loser
+ * tree, {@link #MAX_FAN_IN} at a time; the last merge is read as the output.
+ * <p>
+ * The sort is stable: tuples that compare equal come out in the order they
+ * were added.
+ * <p>
+ * Each tuple is kept with a long key computed once, when it is added, and
+ * compared by key before the comparator is called: for a sort on an INT
+ * field the key decides every comparison, and the heap and the sort of the
+ * buffer compare longs instead of following pointers to fields.
+ */
+class ExternalSort {
+
+    /** The most runs merged at once */
+    static final int MAX_FAN_IN = 64;
+
+    private final TupleDesc td;
+    private final Comparator<Tuple> cmp;
+    private final ToLongFunction<Tuple> key;
+    private final int memoryTuples;
+
+    /** 还没有溢出时，元组按加入的顺序放在这里 */
+    private List<Entry> buffer = new ArrayList<>();
+    /** 溢出后的置换选择堆 */
+    private PriorityQueue<Entry> heap;
+    private long seq;
+    private int run;
+    private Entry last;
+    private SpillFile current;
+    private final List<SpillFile> runs = new ArrayList<>();
+    private long spilledBytes;
+
+    private boolean sorted;
+    private int pos;
+    private LoserTree merge;
+
+    /**
+     * @param td the TupleDesc of the tuples sorted
+     * @param cmp the order to sort them in
+     * @param key a key of each tuple such that key(a) &lt; key(b) implies that
+     *            a comes before b; a constant if there is none
+     * @param memoryTuples the most tuples to hold in memory
+     */
+    ExternalSort(TupleDesc td, Comparator<Tuple> cmp, ToLongFunction<Tuple> key, int memoryTuples) {
+        if (memoryTuples < 1) {
+            throw new IllegalArgumentException("memory budget must be at least one tuple");
+        }
+        this.td = td;
+        this.cmp = cmp;
+        this.key = key;
+        this.memoryTuples = memoryTuples;
+    }
+
+    /** Add t to the tuples to sort. */
+    void add(Tuple t) throws DbException {
+        if (sorted) {
+            throw new IllegalStateException("tuples added after sort");
+        }
+        if (heap == null) {
+            buffer.add(new Entry(t, 0, seq++));
+            if (buffer.size() > memoryTuples) {
+                startRuns();
+            }
+            return;
+        }
+        write(heap.poll());
+        // 堆里的元组会留很久，不复制的话每个读过的页面都留在内存里
+        Entry e = new Entry(t.copy(), run, seq++);
+        if (e.compareTo(last) < 0) {
+            // 比刚写出的小的元组只能进入下一个 run
+            e.run = run + 1;
+        }
+        heap.add(e);
+    }
+
+    /**
+     * Turn the buffer, one tuple over the budget, into the heap of
+     * replacement selection and write out its smallest tuple.
+     */
+    private void startRuns() throws DbException {
+        heap = new PriorityQueue<>(buffer);
+        buffer = null;
+        write(heap.poll());
+    }
+
+    private void write(Entry e) throws DbException {
+        if (current == null || e.run != run) {
+            finishRun();
+            run = e.run;
+            current = new SpillFile(td);
+        }
+        current.add(e.tuple);
+        last = e;
+    }
+
+    private void finishRun() throws DbException {
+        if (current != null) {
+            current.finish();
+            spilledBytes += current.bytes();
+            runs.add(current);
+            current = null;
+        }
+    }
+
+    /**
+     * No more tuples will be added: sort them, spilling and merging runs as
+     * needed, and get ready to return them.
+     */
+    void sort() throws DbException {
+        sorted = true;
+        if (heap == null) {
+            Collections.sort(buffer);
+            pos = 0;
+            return;
+        }
+        while (!heap.isEmpty()) {
+            write(heap.poll());
+        }
+        heap = null;
+        finishRun();
+        // 先合并到最多 MAX_FAN_IN 个 run，相邻的 run 合并到原来的位置以保持稳定
+        while (runs.size() > MAX_FAN_IN) {
+            List<SpillFile> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+                List<SpillFile> group = runs.subList(i, Math.min(runs.size(), i + MAX_FAN_IN));
+                if (group.size() == 1) {
+                    merged.add(group.get(0));
+                    continue;
+                }
+                SpillFile out = new SpillFile(td);
+                LoserTree tree = new LoserTree(group);
+                while (tree.hasNext()) {
+                    out.add(tree.next());
+                }
+                tree.close();
+                out.finish();
+                spilledBytes += out.bytes();
+                for (SpillFile f : group) {
+                    f.delete();
+                }
+                merged.add(out);
+            }
+            runs.clear();
+            runs.addAll(merged);
+        }
+        merge = new LoserTree(runs);
+    }
+
+    boolean hasNext() {
+        return merge != null ? merge.hasNext() : pos < buffer.size();
+    }
+
+    Tuple next() throws DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return merge != null ? merge.next() : buffer.get(pos++).tuple;
+    }
+
+    /** Return the sorted tuples again from the first. */
+    void rewind() throws DbException {
+        if (merge != null) {
+            merge.close();
+            merge = new LoserTree(runs);
+        } else {
+            pos = 0;
+        }
+    }
+
+    /** @return the number of sorted runs written to disk */
+    int getRuns() {
+        return runs.size();
+    }
+
+    /** @return the number of bytes written to disk, by run generation and merges */
+    long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    /** Delete the runs and drop the tuples. */
+    void close() {
+        if (merge != null) {
+            merge.close();
+            merge = null;
+        }
+        if (current != null) {
+            current.delete();
+            current = null;
+        }
+        for (SpillFile f : runs) {
+            f.delete();
+        }
+        runs.clear();
+        buffer = null;
+        heap = null;
+    }
+
+    /** A tuple in memory, ordered by run, then by key, cmp and as added */
+    private class Entry implements Comparable<Entry> {
+        final Tuple tuple;
+        final long key;
+        final long seq;
+        int run;
+
+        Entry(Tuple tuple, int run, long seq) {
+            this.tuple = tuple;
+            this.key = ExternalSort.this.key.applyAsLong(tuple);
+            this.run = run;
+            this.seq = seq;
+        }
+
+        public int compareTo(Entry o) {
+            if (run != o.run) {
+                return run < o.run ? -1 : 1;
+            }
+            if (key != o.key) {
+                return key < o.key ? -1 : 1;
+            }
+            int c = cmp.compare(tuple, o.tuple);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+    }
+
+    /**
+     * Merges sorted runs. Each internal node of the tree keeps the run that
+     * lost the match played there, so replacing the winner takes one match
+     * per level, against the losers on its path to the root. Equal tuples
+     * are won by the run that comes first.
+     */
+    private class LoserTree {
+        private final SpillFile.Reader[] readers;
+        /** 每个 run 的当前元组和它的 key，读完后元组为 null */
+        private final Tuple[] heads;
+        private final long[] keys;
+        /** tree[1..k-1] 是败者，tree[0] 是胜者；叶子 k..2k-1 是各个 run */
+        private final int[] tree;
+        private final int k;
+
+        LoserTree(List<SpillFile> runs) throws DbException {
+            k = runs.size();
+            readers = new SpillFile.Reader[k];
+            heads = new Tuple[k];
+            keys = new long[k];
+            tree = new int[Math.max(k, 1)];
+            for (int i = 0; i < k; i++) {
+                readers[i] = runs.get(i).open();
+                advance(i);
+            }
+            tree[0] = k == 0 ? -1 : play(1);
+        }
+
+        /** Play the matches of the subtree at node; return its winner. */
+        private int play(int node) {
+            if (node >= k) {
+                return node - k;
+            }
+            int a = play(2 * node);
+            int b = play(2 * node + 1);
+            if (beats(a, b)) {
+                tree[node] = b;
+                return a;
+            }
+            tree[node] = a;
+            return b;
+        }
+
+        private boolean beats(int a, int b) {
+            if (heads[a] == null) {
+                return false;
+            }
+            if (heads[b] == null) {
+                return true;
+            }
+            if (keys[a] != keys[b]) {
+                return keys[a] < keys[b];
+            }
+            int c = cmp.compare(heads[a], heads[b]);
+            return c < 0 || (c == 0 && a < b);
+        }
+
+        boolean hasNext() {
+            return k > 0 && heads[tree[0]] != null;
+        }
+
+        Tuple next() throws DbException {
+            int w = tree[0];
+            Tuple t = heads[w];
+            advance(w);
+            for (int node = (w + k) / 2; node > 0; node /= 2) {
+                if (beats(tree[node], w)) {
+                    int loser = w;
+                    w = tree[node];
+                    tree[node] = loser;
+                }
+            }
+            tree[0] = w;
+            return t;
+        }
+
+        /** Read the next tuple of run i. */
+        private void advance(int i) throws DbException {
+            heads[i] = readers[i].hasNext() ? readers[i].next() : null;
+            if (heads[i] != null) {
+                keys[i] = key.applyAsLong(heads[i]);
+            }
+        }
+
+        void close() {
+            for (SpillFile.Reader r : readers) {
+                if (r != null) {
+                    r.close();
+                }
+            }
+        }
+    }
+}
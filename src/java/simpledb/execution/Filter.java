@@ -87,6 +87,20 @@ public class Filter extends Operator {
         }
     }
 
+    /**
+     * Returns the next batch of the child with its selection narrowed to the
+     * tuples that pass the predicate, skipping batches with none.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            if (p.filter(batch) > 0) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
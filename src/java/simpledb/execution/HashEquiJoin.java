@@ -2,27 +2,77 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The HashEquiJoin operator joins its children on equality of one field of
+ * each with a hybrid hash join.
+ * <p>
+ * The tuples of child1 (the build side) are put in a hash table on their
+ * join field. If they all fit in the memory budget, child2 (the probe side)
+ * is read once and every tuple looked up in the table. Otherwise both
+ * children are partitioned on a hash of their join field into temporary
+ * files ({@link SpillFile}), keeping the first build partition in memory
+ * as long as it fits, so that the probe tuples of that partition are joined
+ * as they are read. Each pair of spilled partitions is then joined the same
+ * way, with a different hash function, and is partitioned again if its
+ * build side still does not fit. A partition that does not get smaller when
+ * partitioned again (many tuples with the same join value) is joined a
+ * memory-sized chunk of its build side at a time, reading its probe side
+ * once per chunk.
+ * <p>
+ * When the build side has to be partitioned once, each tuple of both
+ * children is read from its child, written once and read once more.
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The number of build tuples held in memory unless asked otherwise */
+    public final static int MAP_SIZE = 20000;
+
+    /** The most partitions a pass writes */
+    static final int MAX_FANOUT = 64;
+    /** The most times a partition is partitioned again */
+    static final int MAX_LEVEL = 4;
+
     private final JoinPredicate pred;
     private OpIterator child1, child2;
     private final TupleDesc comboTD;
-    transient private Tuple t1 = null;
-    transient private Tuple t2 = null;
+    private final int memoryTuples;
+
+    /** 当前这一遍的输入：最外层是两个子节点，之后是溢出的分区 */
+    private transient Input build;
+    private transient Input probe;
+    /** 当前这一遍的哈希函数和分区数 */
+    private transient int level;
+    private transient int fanout;
+    /** build 端在内存中的元组，按连接字段分组 */
+    private transient Map<Field, List<Tuple>> map;
+    private transient int inMemory;
+    /** 当前这一遍写出的分区，没有溢出时为 null */
+    private transient SpillFile[] buildParts, probeParts;
+    /** 0 号分区是否也写到了文件里 */
+    private transient boolean residentSpilled;
+    /** 当前这一遍是否按块做嵌套循环 */
+    private transient boolean chunked;
+    /** 当前这一遍读的分区，最外层为 null */
+    private transient Partition current;
+    /** 还没有连接的分区 */
+    private transient Deque<Partition> pending;
+
+    private transient Tuple t2;
+    private transient Iterator<Tuple> listIt;
+    private transient long spilledBytes;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
-     * 
+     *
      * @param p
      *            The predicate to use to join the children
      * @param child1
@@ -31,9 +81,23 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, MAP_SIZE);
+    }
+
+    /**
+     * Constructor with a memory budget.
+     *
+     * @param memoryTuples
+     *            The most tuples of child1 to hold in memory at a time
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int memoryTuples) {
+        if (memoryTuples < 1) {
+            throw new IllegalArgumentException("memory budget must be at least one tuple");
+        }
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memoryTuples = memoryTuples;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -44,7 +108,7 @@ public class HashEquiJoin extends Operator {
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
-    
+
     public String getJoinField1Name()
     {
 	return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
@@ -54,48 +118,257 @@ public class HashEquiJoin extends Operator {
     {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
-    
-    final Map<Object, List<Tuple>> map = new HashMap<>();
-    public final static int MAP_SIZE = 20000;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
-        }
-        return cnt > 0;
+    /** @return the most tuples of child1 held in memory at a time */
+    public int getMemoryTuples() {
+        return memoryTuples;
+    }
 
+    /**
+     * @return the number of bytes written to temporary files since the
+     * join was last opened or rewound
+     */
+    public long getSpilledBytes() {
+        return spilledBytes;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
         super.open();
+        start();
     }
 
     public void close() {
         super.close();
+        discard();
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
-        this.map.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        discard();
         child1.rewind();
         child2.rewind();
+        start();
+    }
+
+    /** Build from child1 and get ready to probe with child2. */
+    private void start() throws DbException, TransactionAbortedException {
+        pending = new ArrayDeque<>();
+        spilledBytes = 0;
+        current = null;
+        chunked = false;
+        level = 0;
+        fanout = MAX_FANOUT;
+        buildFrom(Input.of(child1));
+        probe = Input.of(child2);
+    }
+
+    /** Drop the hash table and delete every spill file. */
+    private void discard() {
+        closeInputs();
+        map = null;
+        listIt = null;
+        t2 = null;
+        deleteParts();
+        if (current != null) {
+            current.delete();
+            current = null;
+        }
+        if (pending != null) {
+            for (Partition p : pending) {
+                p.delete();
+            }
+            pending.clear();
+        }
+    }
+
+    private void closeInputs() {
+        if (build != null) {
+            build.close();
+            build = null;
+        }
+        if (probe != null) {
+            probe.close();
+            probe = null;
+        }
+    }
+
+    private void deleteParts() {
+        for (SpillFile[] parts : new SpillFile[][]{buildParts, probeParts}) {
+            if (parts != null) {
+                for (SpillFile f : parts) {
+                    if (f != null) {
+                        f.delete();
+                    }
+                }
+            }
+        }
+        buildParts = null;
+        probeParts = null;
+    }
+
+    /**
+     * Return the partition of a join value in the current pass; each level
+     * mixes the hash code with a different seed so that a partition splits
+     * again when partitioned again.
+     */
+    private int partition(Field key) {
+        int h = key.hashCode() ^ (level * 0x9E3779B9);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, fanout);
+    }
+
+    private SpillFile part(SpillFile[] parts, int p, TupleDesc td) throws DbException {
+        if (parts[p] == null) {
+            parts[p] = new SpillFile(td);
+        }
+        return parts[p];
+    }
+
+    /**
+     * Read the build side of this pass, keeping in memory what fits and
+     * partitioning the rest.
+     */
+    private void buildFrom(Input in) throws DbException, TransactionAbortedException {
+        build = in;
+        map = new HashMap<>();
+        inMemory = 0;
+        residentSpilled = false;
+        while (in.hasNext()) {
+            Tuple t = in.next();
+            Field key = t.getField(pred.getField1());
+            int p = buildParts == null ? 0 : partition(key);
+            if (p == 0 && !residentSpilled) {
+                map.computeIfAbsent(key, k -> new ArrayList<>()).add(t);
+                if (++inMemory > memoryTuples) {
+                    spill();
+                }
+            } else {
+                part(buildParts, p, child1.getTupleDesc()).add(t);
+            }
+        }
+        in.close();
+        build = null;
+        if (buildParts != null) {
+            for (SpillFile f : buildParts) {
+                if (f != null) {
+                    f.finish();
+                    spilledBytes += f.bytes();
+                }
+            }
+        }
+    }
+
+    /**
+     * The build tuples in memory went over the budget: write out all but
+     * those of partition 0, and those too if partition 0 alone is over it.
+     */
+    private void spill() throws DbException {
+        if (buildParts == null) {
+            buildParts = new SpillFile[fanout];
+            probeParts = new SpillFile[fanout];
+            Iterator<Map.Entry<Field, List<Tuple>>> it = map.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Field, List<Tuple>> e = it.next();
+                int p = partition(e.getKey());
+                if (p != 0) {
+                    SpillFile f = part(buildParts, p, child1.getTupleDesc());
+                    for (Tuple t : e.getValue()) {
+                        f.add(t);
+                    }
+                    inMemory -= e.getValue().size();
+                    it.remove();
+                }
+            }
+        }
+        if (inMemory > memoryTuples) {
+            SpillFile f = part(buildParts, 0, child1.getTupleDesc());
+            for (List<Tuple> l : map.values()) {
+                for (Tuple t : l) {
+                    f.add(t);
+                }
+            }
+            map.clear();
+            inMemory = 0;
+            residentSpilled = true;
+        }
+    }
+
+    /**
+     * Load the next chunk of the build side of a partition that is joined
+     * by chunks.
+     *
+     * @return false if there are no more
+     */
+    private boolean loadChunk() throws DbException, TransactionAbortedException {
+        map = new HashMap<>();
+        int cnt = 0;
+        while (cnt < memoryTuples && build.hasNext()) {
+            Tuple t = build.next();
+            map.computeIfAbsent(t.getField(pred.getField1()), k -> new ArrayList<>()).add(t);
+            cnt++;
+        }
+        return cnt > 0;
     }
 
-    transient Iterator<Tuple> listIt = null;
+    /**
+     * The probe side of this pass is done: queue its partitions and start
+     * the next pass.
+     *
+     * @return false if there is no next pass
+     */
+    private boolean nextPass() throws DbException, TransactionAbortedException {
+        if (chunked) {
+            probe.close();
+            probe = null;
+            if (loadChunk()) {
+                probe = Input.of(current.probe.open());
+                return true;
+            }
+        }
+        closeInputs();
+        if (buildParts != null) {
+            for (int p = 0; p < fanout; p++) {
+                if (buildParts[p] != null && probeParts[p] != null) {
+                    probeParts[p].finish();
+                    spilledBytes += probeParts[p].bytes();
+                    pending.push(new Partition(buildParts[p], probeParts[p], level + 1,
+                            current == null ? Long.MAX_VALUE : current.build.size()));
+                    buildParts[p] = null;
+                    probeParts[p] = null;
+                }
+            }
+            deleteParts();
+        }
+        if (current != null) {
+            current.delete();
+        }
+        map = null;
+        current = pending.poll();
+        if (current == null) {
+            return false;
+        }
+
+        level = current.level;
+        long size = current.build.size();
+        chunked = size > memoryTuples && (level > MAX_LEVEL || size >= current.parentSize);
+        if (chunked) {
+            build = Input.of(current.build.open());
+            loadChunk();
+        } else {
+            fanout = (int) Math.min(MAX_FANOUT, Math.max(2, 2 * size / memoryTuples + 1));
+            buildFrom(Input.of(current.build.open()));
+        }
+        probe = Input.of(current.probe.open());
+        return true;
+    }
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
@@ -111,12 +384,12 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
+     *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
     private Tuple processList() {
-        t1 = listIt.next();
+        Tuple t1 = listIt.next();
 
         int td1n = t1.getTupleDesc().numFields();
         int td2n = t2.getTupleDesc().numFields();
@@ -132,32 +405,34 @@ public class HashEquiJoin extends Operator {
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
+        while (true) {
+            if (listIt != null && listIt.hasNext()) {
+                return processList();
+            }
+            listIt = null;
+            if (probe != null && probe.hasNext()) {
+                t2 = probe.next();
+                Field key = t2.getField(pred.getField2());
+                if (buildParts != null && !chunked) {
+                    int p = partition(key);
+                    if (p != 0 || residentSpilled) {
+                        // build 端这个分区为空时不用写出
+                        if (buildParts[p] != null) {
+                            part(probeParts, p, child2.getTupleDesc()).add(t2);
+                        }
+                        continue;
+                    }
+                }
+                List<Tuple> l = map.get(key);
+                if (l != null) {
+                    listIt = l.iterator();
+                }
                 continue;
-            listIt = l.iterator();
-
-            return processList();
-
-        }
-
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+            }
+            if (!nextPass()) {
+                return null;
+            }
         }
-
-        return null;
     }
 
     @Override
@@ -170,5 +445,65 @@ public class HashEquiJoin extends Operator {
         this.child1 = children[0];
         this.child2 = children[1];
     }
-    
+
+    /** A pair of spilled partitions still to be joined */
+    private static class Partition {
+        final SpillFile build, probe;
+        final int level;
+        /** 上一层分区 build 端的大小，用来判断再分区是否有用 */
+        final long parentSize;
+
+        Partition(SpillFile build, SpillFile probe, int level, long parentSize) {
+            this.build = build;
+            this.probe = probe;
+            this.level = level;
+            this.parentSize = parentSize;
+        }
+
+        void delete() {
+            build.delete();
+            probe.delete();
+        }
+    }
+
+    /** The tuples one side of a pass reads, from a child or a spill file */
+    private interface Input {
+        boolean hasNext() throws DbException, TransactionAbortedException;
+
+        Tuple next() throws DbException, TransactionAbortedException;
+
+        void close();
+
+        static Input of(OpIterator child) {
+            return new Input() {
+                public boolean hasNext() throws DbException, TransactionAbortedException {
+                    return child.hasNext();
+                }
+
+                public Tuple next() throws DbException, TransactionAbortedException {
+                    return child.next();
+                }
+
+                public void close() {
+                    // 子节点由 close 关闭，rewind 需要它保持打开
+                }
+            };
+        }
+
+        static Input of(SpillFile.Reader reader) {
+            return new Input() {
+                public boolean hasNext() {
+                    return reader.hasNext();
+                }
+
+                public Tuple next() throws DbException {
+                    return reader.next();
+                }
+
+                public void close() {
+                    reader.close();
+                }
+            };
+        }
+    }
 }
@@ -0,0 +1,168 @@
+package simpledb.execution;
+
+import java.util.Arrays;
+
+/**
+ * IntAggregateState keeps the running state of several aggregates over int
+ * values for each of a growing number of numbered groups. The state has a
+ * fixed size per group, whatever the number of values merged: a long for
+ * MIN, MAX, SUM and COUNT and a sum and a count for AVG. The states of all
+ * groups are kept in one long array, group after group.
+ * <p>
+ * The state of a group can be read out word by word and combined into the
+ * state of the same group elsewhere, so that partial aggregates computed
+ * apart, such as spilled to disk, can be merged.
+ */
+class IntAggregateState {
+
+    private final Aggregator.Op[] ops;
+    /** 每个聚合的状态在一个组里的起始位置 */
+    private final int[] offsets;
+    /** 每个组占用的 long 个数 */
+    private final int stride;
+    private long[] state;
+    private int groups;
+
+    /**
+     * @param ops the aggregates to compute, each one of MIN, MAX, SUM, AVG
+     *            and COUNT
+     * @throws IllegalArgumentException if an op is not one of these
+     */
+    IntAggregateState(Aggregator.Op[] ops) {
+        this.ops = ops.clone();
+        this.offsets = new int[ops.length];
+        int words = 0;
+        for (int k = 0; k < ops.length; k++) {
+            offsets[k] = words;
+            switch (ops[k]) {
+                case MIN:
+                case MAX:
+                case SUM:
+                case COUNT:
+                    words += 1;
+                    break;
+                case AVG:
+                    words += 2;
+                    break;
+                default:
+                    throw new IllegalArgumentException(ops[k] + " is not supported");
+            }
+        }
+        this.stride = words;
+        this.state = new long[Math.max(stride, 1) * 16];
+    }
+
+    /** @return the number of groups */
+    int size() {
+        return groups;
+    }
+
+    /** Add a group that has seen no values; return its number. */
+    int addGroup() {
+        int g = groups++;
+        int base = g * stride;
+        if (base + stride > state.length) {
+            state = Arrays.copyOf(state, state.length * 2);
+        }
+        // clear 之后这里可能还有之前的组的状态
+        Arrays.fill(state, base, base + stride, 0);
+        for (int k = 0; k < ops.length; k++) {
+            switch (ops[k]) {
+                case MIN:
+                    state[base + offsets[k]] = Long.MAX_VALUE;
+                    break;
+                case MAX:
+                    state[base + offsets[k]] = Long.MIN_VALUE;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return g;
+    }
+
+    /** Merge value into aggregate k of group g. */
+    void merge(int g, int k, int value) {
+        merge(g * stride + offsets[k], ops[k], value);
+    }
+
+    private void merge(int i, Aggregator.Op op, int value) {
+        switch (op) {
+            case MIN:
+                if (value < state[i]) {
+                    state[i] = value;
+                }
+                break;
+            case MAX:
+                if (value > state[i]) {
+                    state[i] = value;
+                }
+                break;
+            case SUM:
+                state[i] += value;
+                break;
+            case COUNT:
+                state[i]++;
+                break;
+            default:
+                state[i] += value;
+                state[i + 1]++;
+                break;
+        }
+    }
+
+    /** @return the number of longs of state of each group */
+    int words() {
+        return stride;
+    }
+
+    /** @return long i of the state of group g */
+    long word(int g, int i) {
+        return state[g * stride + i];
+    }
+
+    /**
+     * Merge into group g the state of another group with the same
+     * aggregates, given as its {@link #words()} longs.
+     */
+    void combine(int g, long[] words) {
+        int base = g * stride;
+        for (int k = 0; k < ops.length; k++) {
+            int i = base + offsets[k];
+            long w = words[offsets[k]];
+            switch (ops[k]) {
+                case MIN:
+                    state[i] = Math.min(state[i], w);
+                    break;
+                case MAX:
+                    state[i] = Math.max(state[i], w);
+                    break;
+                case AVG:
+                    state[i] += w;
+                    state[i + 1] += words[offsets[k] + 1];
+                    break;
+                default:
+                    state[i] += w;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @return the value of aggregate k of group g, which has seen at least
+     *         one value: AVG rounds towards zero, and the sum of values is
+     *         truncated to an int
+     */
+    int result(int g, int k) {
+        int i = g * stride + offsets[k];
+        if (ops[k] == Aggregator.Op.AVG) {
+            return (int) (state[i] / state[i + 1]);
+        }
+        return (int) state[i];
+    }
+
+    /** Drop every group. */
+    void clear() {
+        groups = 0;
+    }
+}
@@ -1,32 +1,78 @@
 package simpledb.execution;
 
+import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.*;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Each group keeps a fixed-size running state in an
+ * {@link IntAggregateState}, so merging a value takes constant time and
+ * memory whatever the aggregate, AVG included. Groups on one or two INT
+ * fields are found in a {@link LongGroupMap}, and merging a batch with such
+ * group fields and INT aggregate fields allocates nothing. Several
+ * aggregates, grouped by several fields, can be computed in one pass over
+ * the tuples; COUNT may be over a field of any type.
+ * <p>
+ * At most a given number of groups are held in memory. When there are more,
+ * the state of every group in memory is written to temporary files
+ * ({@link SpillFile}), partitioned on a hash of its group value, and the
+ * groups are dropped; the tuples that follow start new groups. The iterator
+ * then aggregates each partition in turn, merging the states of the same
+ * group written at different times, and partitions it again, with a
+ * different hash function, if it still has too many groups. A partition
+ * that does not get smaller when partitioned again (many group values with
+ * the same hash code) or that has been partitioned too many times is sorted
+ * on its group value instead ({@link ExternalSort}), and the states of each
+ * group, now next to each other, are merged one group at a time.
  */
 public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
-    private int gbfield;
-    private Type gbfieldtype;
+    private int[] gbfields;
+    private Type[] gbfieldtypes;
 
-    private int afield;
-    private Op what;
+    private int[] afields;
+    private Op[] whats;
 
-    private HashMap<Field, Integer> groupValue;
+    /** 一个或两个 INT 分组字段时，分组值合成一个 long 找组号 */
+    private LongGroupMap longGroups;
+    /** 其他分组字段的组号：一个字段时 key 是 Field，多个时是 List<Field> */
+    private HashMap<Object, Integer> fieldGroups;
+    /** 按组号排列的分组值 */
+    private ArrayList<Object> fieldKeys;
 
-    private HashMap<Field, List<Integer>> groupToAvg;
+    private IntAggregateState state;
 
+    /** mergeBatchIntoGroup 反复使用的聚合列，COUNT 的为 null */
+    private int[][] columns;
 
     private TupleDesc td;
 
+    /** The most partitions a spill writes */
+    static final int MAX_FANOUT = 64;
+    /** The most times the groups are partitioned before they are sorted */
+    static final int MAX_LEVEL = 4;
+
+    private final int memoryGroups;
+    /** 溢出的部分状态：分组字段，然后是每组状态的每个 long */
+    private TupleDesc partialTd;
+    /** 部分状态里分组字段的位置 */
+    private int[] partialGbfields;
+    /** 读回部分状态时反复使用 */
+    private long[] words;
+    /** 这一层分区的哈希函数和分区数 */
+    private int level;
+    private int fanout = MAX_FANOUT;
+    /** 溢出写出的分区，没有溢出时为 null */
+    private transient SpillFile[] parts;
+    private long spilledBytes;
+
     /**
      * Aggregate constructor
      * 
@@ -44,16 +90,127 @@ public class IntegerAggregator implements Aggregator {
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
         // some code goes here
+        this(gbfield, gbfieldtype, new int[]{afield}, new Op[]{what});
+    }
+
+    /**
+     * Constructor for several aggregates computed in one pass: the result
+     * tuples hold the group value, if any, followed by aggregate k of field
+     * afields[k] for each k.
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field, or null if there is no
+     *            grouping
+     * @param afields
+     *            the 0-based indexes of the aggregate fields in the tuple
+     * @param whats
+     *            the aggregation operator of each aggregate field; one of
+     *            MIN, MAX, SUM, AVG and COUNT
+     * @throws IllegalArgumentException if an operator is not supported
+     */
+    public IntegerAggregator(int gbfield, Type gbfieldtype, int[] afields, Op[] whats) {
+        this(gbfield == NO_GROUPING ? new int[0] : new int[]{gbfield},
+                gbfield == NO_GROUPING ? new Type[0] : new Type[]{gbfieldtype}, afields, whats);
+    }
+
+    /**
+     * Constructor for several aggregates grouped by several fields: the
+     * result tuples hold the values of the group-by fields, in the order
+     * given, followed by aggregate k of field afields[k] for each k.
+     *
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuple;
+     *            empty if there is no grouping
+     * @param gbfieldtypes
+     *            the type of each group-by field
+     * @param afields
+     *            the 0-based indexes of the aggregate fields in the tuple,
+     *            which must be INT fields unless aggregated by COUNT
+     * @param whats
+     *            the aggregation operator of each aggregate field; one of
+     *            MIN, MAX, SUM, AVG and COUNT
+     * @throws IllegalArgumentException if an operator is not supported
+     */
+    public IntegerAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields, Op[] whats) {
+        this(gbfields, gbfieldtypes, afields, whats, Aggregate.GROUP_MEMORY);
+    }
+
+    /**
+     * Constructor with a memory budget: groups past the budget are spilled
+     * to disk as described above.
+     *
+     * @param memoryGroups
+     *            the most groups to hold in memory
+     * @throws IllegalArgumentException if an operator is not supported
+     */
+    public IntegerAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields, Op[] whats,
+            int memoryGroups) {
+        if (memoryGroups < 1) {
+            throw new IllegalArgumentException("memory budget must be at least one group");
+        }
+        this.memoryGroups = memoryGroups;
+        if (afields.length != whats.length || afields.length == 0) {
+            throw new IllegalArgumentException("need one operator for each of at least one aggregate field");
+        }
+        if (gbfields.length != gbfieldtypes.length) {
+            throw new IllegalArgumentException("need one type for each group-by field");
+        }
+        this.gbfields = gbfields.clone();
+        this.gbfieldtypes = gbfieldtypes.clone();
+        this.afields = afields.clone();
+        this.whats = whats.clone();
+        state = new IntAggregateState(whats);
+        boolean intGroups = gbfields.length > 0 && gbfields.length <= 2;
+        for (Type t : gbfieldtypes) {
+            intGroups &= t == Type.INT_TYPE;
+        }
+        if (intGroups) {
+            longGroups = new LongGroupMap();
+        } else if (gbfields.length > 0) {
+            fieldGroups = new HashMap<>();
+            fieldKeys = new ArrayList<>();
+        }
+        // 没有分组时只有一个组，第一个元组到来时才建立
+        columns = new int[afields.length][];
+
+        Type[] types = new Type[gbfields.length + afields.length];
+        String[] names = new String[types.length];
+        int f = 0;
+        for (int i = 0; i < gbfields.length; i++) {
+            types[f] = gbfieldtypes[i];
+            names[f++] = gbfields.length == 1 ? "groupValue" : "groupValue" + i;
+        }
+        for (int k = 0; k < afields.length; k++) {
+            types[f] = Type.INT_TYPE;
+            names[f++] = afields.length == 1 ? "aggregateValue" : "aggregateValue" + k;
+        }
+        td = new TupleDesc(types, names);
 
-        this.gbfield = gbfield;
-        this.gbfieldtype = gbfieldtype;
-        this.afield = afield;
-        this.what = what;
-        groupValue = new HashMap<>();
-        groupToAvg = new HashMap<>();
-        td = gbfield != NO_GROUPING ? new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE},
-                new String[]{"groupValue","aggregateValue"}) :
-                new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"aggregateValue"});
+        Type[] partialTypes = new Type[gbfields.length + state.words()];
+        partialGbfields = new int[gbfields.length];
+        for (int i = 0; i < gbfields.length; i++) {
+            partialTypes[i] = gbfieldtypes[i];
+            partialGbfields[i] = i;
+        }
+        Arrays.fill(partialTypes, gbfields.length, partialTypes.length, Type.LONG_TYPE);
+        partialTd = new TupleDesc(partialTypes);
+        words = new long[state.words()];
+    }
+
+    /** @return the most groups held in memory */
+    public int getMemoryGroups() {
+        return memoryGroups;
+    }
+
+    /**
+     * @return the number of bytes written to temporary files, by spills
+     * while merging and by the iterator
+     */
+    public long getSpilledBytes() {
+        return spilledBytes;
     }
 
     /**
@@ -65,70 +222,528 @@ public class IntegerAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        Field groupField = gbfield == NO_GROUPING ? null : tup.getField(gbfield);
-        IntField aggregateFeild = (IntField) tup.getField(afield);
-        int value = aggregateFeild.getValue();
-        if(groupField != null && !groupField.getType().equals(gbfieldtype)){
-            throw new UnsupportedOperationException();
-        }
-        switch (what){
-            case MIN :
-                groupValue.put(groupField, Math.min(groupValue.getOrDefault(groupField, value), value));
-                break;
-            case MAX:
-                groupValue.put(groupField, Math.max(groupValue.getOrDefault(groupField, value), value));
-                break;
-            case SUM:
-                groupValue.put(groupField, groupValue.getOrDefault(groupField, 0) + value);
-                break;
-            case COUNT:
-                groupValue.put(groupField, groupValue.getOrDefault(groupField, 0) + 1);
-                break;
-            case AVG:
-                List<Integer> temp = null;
-                if(groupToAvg.containsKey(groupField)){
-                    temp = groupToAvg.get(groupField);
-                }else{
-                    temp = new ArrayList();
+        TupleDesc tupTd = tup.getTupleDesc();
+        for (int i = 0; i < gbfields.length; i++) {
+            if (!tupTd.getFieldType(gbfields[i]).equals(gbfieldtypes[i])) {
+                throw new UnsupportedOperationException();
+            }
+        }
+        int g = group(tup, gbfields);
+        for (int k = 0; k < afields.length; k++) {
+            state.merge(g, k, whats[k] == Op.COUNT ? 0 : tup.getInt(afields[k]));
+        }
+        checkMemory();
+    }
+
+    /** Merge a partial state read back from a spill into its group. */
+    private void mergePartial(Tuple partial) {
+        int g = group(partial, partialGbfields);
+        for (int i = 0; i < words.length; i++) {
+            words[i] = ((LongField) partial.getField(partialGbfields.length + i)).getValue();
+        }
+        state.combine(g, words);
+        checkMemory();
+    }
+
+    /**
+     * Merge into this aggregator the groups of another one that computes the
+     * same aggregates over the same group-by field types, such as one that
+     * aggregated another part of the same input. The other aggregator is left
+     * with no groups, and its spilled partitions are read back and deleted.
+     *
+     * @throws IllegalArgumentException if other computes different aggregates
+     */
+    public void merge(IntegerAggregator other) throws DbException {
+        if (!Arrays.equals(whats, other.whats) || !Arrays.equals(gbfieldtypes, other.gbfieldtypes)) {
+            throw new IllegalArgumentException("aggregators compute different aggregates");
+        }
+        if (other.parts != null) {
+            // 溢出过的话连同内存里的组一起读回来
+            for (SpillFile f : other.finishSpill()) {
+                try (SpillFile.Reader r = f.open()) {
+                    while (r.hasNext()) {
+                        mergePartial(r.next());
+                    }
                 }
-//                List<Integer> temp= groupToAvg.getOrDefault(groupField, new ArrayList<>());
-                temp.add(value);
-                int sum = 0;
-                for(int num : temp){
-                    sum += num;
+                f.delete();
+            }
+            spilledBytes += other.spilledBytes;
+            return;
+        }
+        for (int og = 0; og < other.state.size(); og++) {
+            int g;
+            if (gbfields.length == 0) {
+                g = noGroup();
+            } else if (longGroups != null) {
+                g = longGroup(other.longGroups.key(og));
+            } else {
+                g = fieldGroup(other.fieldKeys.get(og));
+            }
+            for (int i = 0; i < words.length; i++) {
+                words[i] = other.state.word(og, i);
+            }
+            state.combine(g, words);
+            checkMemory();
+        }
+        other.state.clear();
+        if (other.longGroups != null) {
+            other.longGroups.clear();
+        } else if (other.fieldGroups != null) {
+            other.fieldGroups.clear();
+            other.fieldKeys.clear();
+        }
+    }
+
+    /** Return the group of the values of fields in t, adding it if it is new. */
+    private int group(Tuple t, int[] fields) {
+        if (fields.length == 0) {
+            return noGroup();
+        } else if (longGroups != null) {
+            return longGroup(fields.length == 1 ? t.getInt(fields[0])
+                    : pack(t.getInt(fields[0]), t.getInt(fields[1])));
+        } else if (fields.length == 1) {
+            return fieldGroup(t.getField(fields[0]));
+        }
+        Field[] key = new Field[fields.length];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = t.getField(fields[i]);
+        }
+        return fieldGroup(Arrays.asList(key));
+    }
+
+    /**
+     * Merge the selected tuples of batch into the aggregate, reading the
+     * aggregate fields, and INT group-by fields, from their int vectors.
+     */
+    public void mergeBatchIntoGroup(TupleBatch batch) {
+        for (int k = 0; k < afields.length; k++) {
+            if (whats[k] == Op.COUNT) {
+                columns[k] = null;
+            } else if (batch.isInt(afields[k])) {
+                columns[k] = batch.ints(afields[k]);
+            } else {
+                throw new UnsupportedOperationException();
+            }
+        }
+        for (int i = 0; i < gbfields.length; i++) {
+            if (!batch.getTupleDesc().getFieldType(gbfields[i]).equals(gbfieldtypes[i])) {
+                throw new UnsupportedOperationException();
+            }
+        }
+        int[] keys0 = longGroups != null ? batch.ints(gbfields[0]) : null;
+        int[] keys1 = longGroups != null && gbfields.length == 2 ? batch.ints(gbfields[1]) : null;
+        int n = batch.getTupleCount();
+        for (int i = 0; i < n; i++) {
+            int r = batch.row(i);
+            int g;
+            if (gbfields.length == 0) {
+                g = noGroup();
+            } else if (keys1 != null) {
+                g = longGroup(pack(keys0[r], keys1[r]));
+            } else if (keys0 != null) {
+                g = longGroup(keys0[r]);
+            } else if (gbfields.length == 1) {
+                g = fieldGroup(batch.getField(r, gbfields[0]));
+            } else {
+                Field[] key = new Field[gbfields.length];
+                for (int j = 0; j < key.length; j++) {
+                    key[j] = batch.getField(r, gbfields[j]);
                 }
-                groupValue.put(groupField, sum / temp.size());
-                groupToAvg.put(groupField, temp);
-                break;
+                g = fieldGroup(Arrays.asList(key));
+            }
+            for (int k = 0; k < columns.length; k++) {
+                state.merge(g, k, columns[k] == null ? 0 : columns[k][r]);
+            }
+            checkMemory();
+        }
+    }
+
+    private int noGroup() {
+        return state.size() == 0 ? state.addGroup() : 0;
+    }
+
+    private static long pack(int a, int b) {
+        return ((long) a << 32) | (b & 0xFFFFFFFFL);
+    }
+
+    /** Return the group of a packed INT group value, adding it if it is new. */
+    private int longGroup(long key) {
+        int n = longGroups.size();
+        int g = longGroups.group(key);
+        if (g == n) {
+            state.addGroup();
+        }
+        return g;
+    }
+
+    private int fieldGroup(Object key) {
+        Integer g = fieldGroups.get(key);
+        if (g == null) {
+            g = state.addGroup();
+            fieldGroups.put(key, g);
+            fieldKeys.add(key);
+        }
+        return g;
+    }
+
+    private void checkMemory() {
+        if (state.size() > memoryGroups) {
+            try {
+                spill();
+            } catch (DbException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Write the state of every group in memory to the partition of its
+     * group value, and drop the groups.
+     */
+    private void spill() throws DbException {
+        if (parts == null) {
+            parts = new SpillFile[fanout];
+        }
+        for (int g = 0; g < state.size(); g++) {
+            int p = partition(g);
+            if (parts[p] == null) {
+                parts[p] = new SpillFile(partialTd);
+            }
+            parts[p].add(partial(g));
+        }
+        state.clear();
+        if (longGroups != null) {
+            longGroups.clear();
+        } else {
+            fieldGroups.clear();
+            fieldKeys.clear();
         }
     }
 
+    /**
+     * Return the partition of group g at this level; each level mixes the
+     * group value with a different seed so that a partition splits again
+     * when partitioned again.
+     */
+    private int partition(int g) {
+        int h;
+        if (longGroups != null) {
+            // 和 LongGroupMap 的哈希不相关，否则一个分区的 key 会挤在表的一小段里
+            long k = longGroups.key(g) ^ (level * 0x9E3779B97F4A7C15L);
+            k ^= k >>> 33;
+            k *= 0xFF51AFD7ED558CCDL;
+            k ^= k >>> 33;
+            k *= 0xC4CEB9FE1A85EC53L;
+            k ^= k >>> 33;
+            h = (int) (k ^ (k >>> 32));
+        } else {
+            h = fieldKeys.get(g).hashCode() ^ (level * 0x9E3779B9);
+            h ^= h >>> 16;
+            h *= 0x85EBCA6B;
+            h ^= h >>> 13;
+            h *= 0xC2B2AE35;
+            h ^= h >>> 16;
+        }
+        return Math.floorMod(h, fanout);
+    }
+
+    /** Set the group-by fields of group g in t; return the next field. */
+    private int setGroupFields(Tuple t, int g) {
+        int f = 0;
+        if (longGroups != null) {
+            long key = longGroups.key(g);
+            if (gbfields.length == 1) {
+                t.setField(f++, new IntField((int) key));
+            } else {
+                t.setField(f++, new IntField((int) (key >> 32)));
+                t.setField(f++, new IntField((int) key));
+            }
+        } else if (gbfields.length == 1) {
+            t.setField(f++, (Field) fieldKeys.get(g));
+        } else if (gbfields.length > 1) {
+            @SuppressWarnings("unchecked")
+            List<Field> key = (List<Field>) fieldKeys.get(g);
+            for (Field field : key) {
+                t.setField(f++, field);
+            }
+        }
+        return f;
+    }
+
+    /** @return the partial state of group g, as spilled */
+    private Tuple partial(int g) {
+        Tuple t = new Tuple(partialTd);
+        int f = setGroupFields(t, g);
+        for (int i = 0; i < state.words(); i++) {
+            t.setField(f++, new LongField(state.word(g, i)));
+        }
+        return t;
+    }
+
+    /** @return the result tuple of group g */
+    private Tuple result(int g) {
+        Tuple tuple = new Tuple(td);
+        int f = setGroupFields(tuple, g);
+        for (int k = 0; k < afields.length; k++) {
+            tuple.setField(f++, new IntField(state.result(g, k)));
+        }
+        return tuple;
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      * 
      * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
      *         if using group, or a single (aggregateVal) if no grouping. The
      *         aggregateVal is determined by the type of aggregate specified in
-     *         the constructor.
+     *         the constructor. With several group-by fields or aggregates,
+     *         their values come in the order of the constructor. The
+     *         result tuples are made as they are read. If groups were
+     *         spilled, the iterator takes over the spilled partitions,
+     *         aggregates them as it is read and deletes them when it is
+     *         closed; this aggregator starts again with no groups.
      */
     public OpIterator iterator() {
         // some code goes here
-        ArrayList<Tuple> tuples = new ArrayList<>();
-        if(gbfield == NO_GROUPING){
-            for(Field key : groupValue.keySet()){
-                Tuple tuple = new Tuple(td);
-                tuple.setField(0, new IntField(groupValue.get(key)));
-                tuples.add(tuple);
-            }
-        }else{
-            for(Field key : groupValue.keySet()){
-                Tuple tuple = new Tuple(td);
-                tuple.setField(0, key);
-                tuple.setField(1, new IntField(groupValue.get(key)));
-                tuples.add(tuple);
-            }
-        }
-        return new TupleIterator(td, tuples);
+        List<SpillFile> spilled = Collections.emptyList();
+        if (parts != null) {
+            try {
+                spilled = finishSpill();
+            } catch (DbException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return new GroupIterator(spilled);
+    }
+
+    /**
+     * Spill the groups left in memory and finish the partitions.
+     *
+     * @return the partitions written, with none left to this aggregator
+     */
+    private List<SpillFile> finishSpill() throws DbException {
+        if (state.size() > 0) {
+            spill();
+        }
+        List<SpillFile> files = new ArrayList<>();
+        for (SpillFile f : parts) {
+            if (f != null) {
+                f.finish();
+                spilledBytes += f.bytes();
+                files.add(f);
+            }
+        }
+        parts = null;
+        return files;
+    }
+
+    /** @return an empty aggregator like this one, partitioning at level */
+    private IntegerAggregator partitionAggregator(int level, long size) {
+        IntegerAggregator agg = new IntegerAggregator(gbfields, gbfieldtypes, afields, whats, memoryGroups);
+        agg.level = level;
+        agg.fanout = (int) Math.min(MAX_FANOUT, Math.max(2, 2 * size / memoryGroups + 1));
+        return agg;
+    }
+
+    /** A spilled partition still to be aggregated */
+    private static class Partition {
+        final SpillFile file;
+        final int level;
+        /** 上一层分区的大小，用来判断再分区是否有用 */
+        final long parentSize;
+
+        Partition(SpillFile file, int level, long parentSize) {
+            this.file = file;
+            this.level = level;
+            this.parentSize = parentSize;
+        }
+    }
+
+    /**
+     * Returns the groups in memory, then those of the spilled partitions,
+     * aggregating one partition at a time in memory, or by sorting it.
+     */
+    private class GroupIterator implements OpIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        /** 第一层分区，rewind 时从头再来，close 时才删除 */
+        private final List<SpillFile> top;
+        private Deque<Partition> pending;
+        private boolean open;
+
+        /** 当前在内存中聚合好的分区和下一个要返回的组 */
+        private IntegerAggregator current;
+        private int pos;
+
+        /** 当前排序的分区，和排序后读出但还没合并的第一个部分状态 */
+        private ExternalSort sort;
+        private Tuple head;
+        private IntAggregateState one;
+
+        GroupIterator(List<SpillFile> top) {
+            this.top = top;
+        }
+
+        public void open() {
+            open = true;
+            start();
+        }
+
+        private void start() {
+            // 溢出过的话内存里已经没有组了
+            current = IntegerAggregator.this;
+            pos = 0;
+            pending = new ArrayDeque<>();
+            for (SpillFile f : top) {
+                pending.add(new Partition(f, level + 1, Long.MAX_VALUE));
+            }
+        }
+
+        public boolean hasNext() throws DbException {
+            if (!open) {
+                throw new IllegalStateException("iterator is closed");
+            }
+            while (true) {
+                if (current != null && pos < current.state.size()) {
+                    return true;
+                }
+                current = null;
+                if (head != null) {
+                    return true;
+                }
+                if (sort != null) {
+                    sort.close();
+                    sort = null;
+                }
+                Partition p = pending.poll();
+                if (p == null) {
+                    return false;
+                }
+                aggregate(p);
+            }
+        }
+
+        public Tuple next() throws DbException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (current != null) {
+                return current.result(pos++);
+            }
+            return nextSorted();
+        }
+
+        /**
+         * Aggregate partition p in memory, or queue its own partitions if it
+         * still has too many groups, or start sorting it.
+         */
+        private void aggregate(Partition p) throws DbException {
+            long size = p.file.size();
+            if (size > memoryGroups && (p.level > MAX_LEVEL || size >= p.parentSize)) {
+                sort = new ExternalSort(partialTd, this::compareGroups,
+                        longGroups != null ? t -> t.getInt(0) : t -> 0, memoryGroups);
+                try (SpillFile.Reader r = p.file.open()) {
+                    while (r.hasNext()) {
+                        sort.add(r.next());
+                    }
+                }
+                sort.sort();
+                spilledBytes += sort.getSpilledBytes();
+                head = sort.hasNext() ? sort.next() : null;
+                one = new IntAggregateState(whats);
+            } else {
+                IntegerAggregator agg = partitionAggregator(p.level, size);
+                try (SpillFile.Reader r = p.file.open()) {
+                    while (r.hasNext()) {
+                        agg.mergePartial(r.next());
+                    }
+                }
+                if (agg.parts != null) {
+                    for (SpillFile f : agg.finishSpill()) {
+                        pending.push(new Partition(f, p.level + 1, size));
+                    }
+                    spilledBytes += agg.spilledBytes;
+                } else {
+                    current = agg;
+                    pos = 0;
+                }
+            }
+            if (!top.contains(p.file)) {
+                p.file.delete();
+            }
+        }
+
+        /** Merge the partial states of the next group of the sorted partition. */
+        private Tuple nextSorted() throws DbException {
+            Tuple first = head;
+            one.clear();
+            one.addGroup();
+            do {
+                for (int i = 0; i < words.length; i++) {
+                    words[i] = ((LongField) head.getField(gbfields.length + i)).getValue();
+                }
+                one.combine(0, words);
+                head = sort.hasNext() ? sort.next() : null;
+            } while (head != null && compareGroups(first, head) == 0);
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < gbfields.length; i++) {
+                t.setField(i, first.getField(i));
+            }
+            for (int k = 0; k < afields.length; k++) {
+                t.setField(gbfields.length + k, new IntField(one.result(0, k)));
+            }
+            return t;
+        }
+
+        private int compareGroups(Tuple a, Tuple b) {
+            for (int i = 0; i < gbfields.length; i++) {
+                Field fa = a.getField(i);
+                Field fb = b.getField(i);
+                if (!fa.equals(fb)) {
+                    return fa.compare(Predicate.Op.LESS_THAN, fb) ? -1 : 1;
+                }
+            }
+            return 0;
+        }
+
+        public void rewind() throws DbException {
+            if (!open) {
+                throw new IllegalStateException("iterator is closed");
+            }
+            discard();
+            start();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            open = false;
+            discard();
+            for (SpillFile f : top) {
+                f.delete();
+            }
+        }
+
+        /** Drop the partition being returned and the partitions below the top. */
+        private void discard() {
+            current = null;
+            head = null;
+            if (sort != null) {
+                sort.close();
+                sort = null;
+            }
+            if (pending != null) {
+                for (Partition p : pending) {
+                    if (!top.contains(p.file)) {
+                        p.file.delete();
+                    }
+                }
+                pending.clear();
+            }
+        }
     }
 
 }
@@ -0,0 +1,89 @@
+package simpledb.execution;
+
+import java.util.Arrays;
+
+/**
+ * LongGroupMap numbers the distinct long keys it is given 0, 1, 2, ... in
+ * the order it first sees them. Keys are kept in an open-addressing hash
+ * table of primitive arrays with linear probing, so looking up a key
+ * allocates nothing. A group value of one or two INT fields fits in a key.
+ */
+class LongGroupMap {
+
+    private static final int EMPTY = -1;
+
+    /** 哈希表：每个位置是一个组号，EMPTY 表示空 */
+    private int[] table;
+    private int mask;
+    /** 按组号排列的 key */
+    private long[] keys;
+    private int size;
+
+    LongGroupMap() {
+        table = new int[16];
+        Arrays.fill(table, EMPTY);
+        mask = table.length - 1;
+        keys = new long[8];
+    }
+
+    /** @return the number of distinct keys seen */
+    int size() {
+        return size;
+    }
+
+    /** @return the key of group g */
+    long key(int g) {
+        return keys[g];
+    }
+
+    /** Forget every key, keeping the memory of the table. */
+    void clear() {
+        Arrays.fill(table, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Return the group of key, numbering it size() if it has not been seen
+     * before.
+     */
+    int group(long key) {
+        int pos = hash(key) & mask;
+        int g;
+        while ((g = table[pos]) != EMPTY) {
+            if (keys[g] == key) {
+                return g;
+            }
+            pos = (pos + 1) & mask;
+        }
+        g = size++;
+        if (g == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        }
+        keys[g] = key;
+        table[pos] = g;
+        // 装载因子不超过 1/2，线性探测的链保持很短
+        if (size * 2 > table.length) {
+            grow();
+        }
+        return g;
+    }
+
+    private void grow() {
+        table = new int[table.length * 2];
+        Arrays.fill(table, EMPTY);
+        mask = table.length - 1;
+        for (int g = 0; g < size; g++) {
+            int pos = hash(keys[g]) & mask;
+            while (table[pos] != EMPTY) {
+                pos = (pos + 1) & mask;
+            }
+            table[pos] = g;
+        }
+    }
+
+    /** Spread the bits of key over the low end. */
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,152 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Knows how to compute some aggregate over a set of LongFields, DoubleFields
+ * or DateFields.
+ * <p>
+ * MIN, MAX, SUM and AVG produce a field of the aggregated type (AVG of
+ * LongFields rounds towards zero, like {@link IntegerAggregator}); COUNT
+ * produces an IntField. SUM and AVG are not defined for dates.
+ */
+public class NumericAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int gbfield;
+    private final Type gbfieldtype;
+    private final int afield;
+    private final Type afieldtype;
+    private final Op what;
+
+    /** 每个分组的累计值 */
+    private final LinkedHashMap<Field, Group> groups;
+
+    private final TupleDesc td;
+
+    private static class Group {
+        int count;
+        long lsum;
+        double dsum;
+        Field min;
+        Field max;
+    }
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield     the 0-based index of the group-by field in the tuple, or
+     *                    NO_GROUPING if there is no grouping
+     * @param gbfieldtype the type of the group by field (e.g., Type.INT_TYPE), or null
+     *                    if there is no grouping
+     * @param afield      the 0-based index of the aggregate field in the tuple
+     * @param afieldtype  the type of the aggregate field: LONG_TYPE, DOUBLE_TYPE or DATE_TYPE
+     * @param what        the aggregation operator
+     * @throws IllegalArgumentException if afieldtype is not one of the types
+     *                                  above, or what is SUM or AVG over dates
+     */
+    public NumericAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype, Op what) {
+        if (afieldtype != Type.LONG_TYPE && afieldtype != Type.DOUBLE_TYPE && afieldtype != Type.DATE_TYPE) {
+            throw new IllegalArgumentException("cannot aggregate over " + afieldtype);
+        }
+        if (afieldtype == Type.DATE_TYPE && (what == Op.SUM || what == Op.AVG)) {
+            throw new IllegalArgumentException(what + " is not defined for dates");
+        }
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
+        this.afield = afield;
+        this.afieldtype = afieldtype;
+        this.what = what;
+        this.groups = new LinkedHashMap<>();
+        Type resultType = what == Op.COUNT ? Type.INT_TYPE : afieldtype;
+        td = gbfield != NO_GROUPING ? new TupleDesc(new Type[]{gbfieldtype, resultType},
+                new String[]{"groupValue", "aggregateValue"}) :
+                new TupleDesc(new Type[]{resultType}, new String[]{"aggregateValue"});
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup the Tuple containing an aggregate field and a group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        Field groupField = gbfield == NO_GROUPING ? null : tup.getField(gbfield);
+        if (groupField != null && !groupField.getType().equals(gbfieldtype)) {
+            throw new UnsupportedOperationException();
+        }
+        Field value = tup.getField(afield);
+        Group g = groups.computeIfAbsent(groupField, k -> new Group());
+        g.count++;
+        switch (what) {
+            case MIN:
+                if (g.min == null || value.compare(Predicate.Op.LESS_THAN, g.min)) {
+                    g.min = value;
+                }
+                break;
+            case MAX:
+                if (g.max == null || value.compare(Predicate.Op.GREATER_THAN, g.max)) {
+                    g.max = value;
+                }
+                break;
+            case SUM:
+            case AVG:
+                if (afieldtype == Type.DOUBLE_TYPE) {
+                    g.dsum += ((DoubleField) value).getValue();
+                } else {
+                    g.lsum += ((LongField) value).getValue();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private Field result(Group g) {
+        switch (what) {
+            case MIN:
+                return g.min;
+            case MAX:
+                return g.max;
+            case COUNT:
+                return new IntField(g.count);
+            case SUM:
+                return afieldtype == Type.DOUBLE_TYPE ? new DoubleField(g.dsum) : new LongField(g.lsum);
+            case AVG:
+                return afieldtype == Type.DOUBLE_TYPE ? new DoubleField(g.dsum / g.count)
+                        : new LongField(g.lsum / g.count);
+            default:
+                throw new UnsupportedOperationException(what + " is not supported");
+        }
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
+     *         if using group, or a single (aggregateVal) if no grouping. The
+     *         aggregateVal is determined by the type of aggregate specified in
+     *         the constructor.
+     */
+    public OpIterator iterator() {
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        for (Map.Entry<Field, Group> e : groups.entrySet()) {
+            Tuple tuple = new Tuple(td);
+            if (gbfield == NO_GROUPING) {
+                tuple.setField(0, result(e.getValue()));
+            } else {
+                tuple.setField(0, e.getKey());
+                tuple.setField(1, result(e.getValue()));
+            }
+            tuples.add(tuple);
+        }
+        return new TupleIterator(td, tuples);
+    }
+
+}
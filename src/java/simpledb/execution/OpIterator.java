@@ -39,6 +39,24 @@ public interface OpIterator extends Serializable{
    */
   Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException;
 
+  /**
+   * Returns the next tuples from the operator as a batch, for consumers that
+   * process a batch at a time. The batch holds at least one selected tuple
+   * and may be reused by the next call to nextBatch, rewind or close.
+   * A consumer uses either next() or nextBatch() between open and rewind
+   * or close, not both.
+   * <p>
+   * The default implementation collects tuples from next(). Operators that
+   * can work on batches directly (SeqScan, Filter, Project, Aggregate)
+   * override it.
+   *
+   * @return the next batch, or null if there are no more tuples.
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  default TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+    return TupleBatch.fill(this, new TupleBatch(getTupleDesc()));
+  }
+
   /**
    * Resets the iterator to the start.
    * @throws DbException when rewind is unsupported.
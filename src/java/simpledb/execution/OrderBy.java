@@ -2,25 +2,46 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.common.Type;
 import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
+import java.util.function.ToLongFunction;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY, optionally
+ * returning only the first tuples of the ordering (ORDER BY ... LIMIT).
+ * <p>
+ * It holds at most a given number of tuples of its child in memory: larger
+ * inputs are sorted with an external merge sort ({@link ExternalSort}).
+ * With a limit no larger than the memory budget it keeps only the limit
+ * best tuples seen so far, in a heap, and never writes to disk. Tuples that
+ * compare equal are returned in the order of the child.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The limit that returns every tuple */
+    public static final int NO_LIMIT = -1;
+    /** The number of tuples held in memory unless asked otherwise */
+    public static final int SORT_MEMORY = 1 << 20;
+
     private OpIterator child;
     private final TupleDesc td;
-    private final List<Tuple> childTups = new ArrayList<>();
     private final int orderByField;
     private final String orderByFieldName;
-    private Iterator<Tuple> it;
     private final boolean asc;
+    private final int limit;
+    private final int memoryTuples;
+
+    /** 内存中排好序的结果（top-k），或者外部排序 */
+    private transient List<Tuple> childTups;
+    private transient Iterator<Tuple> it;
+    private transient ExternalSort sort;
+    private transient int returned;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -33,11 +54,32 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(orderbyField, asc, child, NO_LIMIT, SORT_MEMORY);
+    }
+
+    /**
+     * Creates a new OrderBy node returning the first limit tuples of the
+     * ordering, holding at most memoryTuples tuples in memory.
+     *
+     * @param limit
+     *            the most tuples to return, or NO_LIMIT
+     * @param memoryTuples
+     *            the most tuples of the child to hold in memory
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, int limit, int memoryTuples) {
+        if (limit < 0 && limit != NO_LIMIT) {
+            throw new IllegalArgumentException("negative limit " + limit);
+        }
+        if (memoryTuples < 1) {
+            throw new IllegalArgumentException("memory budget must be at least one tuple");
+        }
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.limit = limit;
+        this.memoryTuples = memoryTuples;
     }
     
     public boolean isASC()
@@ -54,6 +96,19 @@ public class OrderBy extends Operator {
     {
 	return this.orderByFieldName;
     }
+
+    /** @return the most tuples returned, or NO_LIMIT */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the number of bytes written to temporary files by the last
+     * open
+     */
+    public long getSpilledBytes() {
+        return sort == null ? 0 : sort.getSpilledBytes();
+    }
     
     public TupleDesc getTupleDesc() {
         return td;
@@ -62,21 +117,78 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        TupleComparator cmp = new TupleComparator(orderByField, asc);
+        if (limit != NO_LIMIT && limit <= memoryTuples) {
+            childTups = topK(cmp);
+            it = childTups.iterator();
+        } else {
+            // INT 列的值本身就是排序的 key，降序时取反
+            final int f = orderByField;
+            ToLongFunction<Tuple> key = td.getFieldType(f) != Type.INT_TYPE ? t -> 0
+                    : asc ? t -> t.getInt(f) : t -> ~t.getInt(f);
+            sort = new ExternalSort(td, cmp, key, memoryTuples);
+            while (child.hasNext())
+                sort.add(child.next());
+            sort.sort();
+        }
+        returned = 0;
         super.open();
     }
 
+    /**
+     * Return the first limit tuples of the child in order, keeping the limit
+     * best seen so far in a heap whose root is the worst of them.
+     */
+    private List<Tuple> topK(Comparator<Tuple> cmp) throws DbException, TransactionAbortedException {
+        List<Tuple> top = new ArrayList<>();
+        if (limit == 0) {
+            return top;
+        }
+        // 相等的元组按读到的顺序排，后到的排在后面
+        Comparator<Ranked> byRank = (a, b) -> {
+            int c = cmp.compare(a.tuple, b.tuple);
+            return c != 0 ? c : Long.compare(a.seq, b.seq);
+        };
+        PriorityQueue<Ranked> heap = new PriorityQueue<>(limit, byRank.reversed());
+        long seq = 0;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (heap.size() == limit) {
+                // t 比堆里的都晚到，和堆顶相等时排在后面
+                if (cmp.compare(t, heap.peek().tuple) >= 0) {
+                    continue;
+                }
+                heap.poll();
+            }
+            // 堆里的元组会留很久，复制一份以免留住它所在的整个页面
+            heap.add(new Ranked(t.copy(), seq++));
+        }
+        List<Ranked> ranked = new ArrayList<>(heap);
+        ranked.sort(byRank);
+        for (Ranked r : ranked) {
+            top.add(r.tuple);
+        }
+        return top;
+    }
+
     public void close() {
         super.close();
+        child.close();
         it = null;
+        childTups = null;
+        if (sort != null) {
+            sort.close();
+            sort = null;
+        }
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException {
+        if (sort != null) {
+            sort.rewind();
+        } else {
+            it = childTups.iterator();
+        }
+        returned = 0;
     }
 
     /**
@@ -86,11 +198,20 @@ public class OrderBy extends Operator {
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
+    protected Tuple fetchNext() throws NoSuchElementException, DbException {
+        if (limit != NO_LIMIT && returned == limit) {
             return null;
+        }
+        Tuple t = null;
+        if (sort != null) {
+            if (sort.hasNext())
+                t = sort.next();
+        } else if (it != null && it.hasNext()) {
+            t = it.next();
+        }
+        if (t != null)
+            returned++;
+        return t;
     }
 
     @Override
@@ -103,6 +224,17 @@ public class OrderBy extends Operator {
         this.child = children[0];
     }
 
+    /** A tuple and its position in the child */
+    private static class Ranked {
+        final Tuple tuple;
+        final long seq;
+
+        Ranked(Tuple tuple, long seq) {
+            this.tuple = tuple;
+            this.seq = seq;
+        }
+    }
+
 }
 
 class TupleComparator implements Comparator<Tuple> {
@@ -115,6 +247,11 @@ class TupleComparator implements Comparator<Tuple> {
     }
 
     public int compare(Tuple o1, Tuple o2) {
+        if (o1.getTupleDesc().getFieldType(field) == Type.INT_TYPE) {
+            // 整数列直接比较，不创建 Field
+            int c = Integer.compare(o1.getInt(field), o2.getInt(field));
+            return asc ? c : -c;
+        }
         Field t1 = (o1).getField(field);
         Field t2 = (o2).getField(field);
         if (t1.compare(Predicate.Op.EQUALS, t2))
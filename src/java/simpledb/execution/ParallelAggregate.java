@@ -0,0 +1,225 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ParallelAggregate computes the same aggregates as {@link Aggregate} with
+ * several worker threads. Each worker scans its own range of contiguous pages
+ * of the heap file, through its own copy of the filters above the scan and
+ * under the same transaction, and pre-aggregates the tuples it reads into an
+ * {@link IntegerAggregator} of its own. The partial states of the workers (a
+ * sum and a count for AVG) are then merged into one aggregator, whose groups
+ * are returned.
+ * <p>
+ * The child must be a {@link SeqScan} of a {@link HeapFile} under any number
+ * of {@link Filter}s, and every aggregate must be over an INT column or be a
+ * COUNT; see {@link #canParallelize}. The memory budget is shared by the
+ * workers, each of which spills its groups past its share.
+ */
+public class ParallelAggregate extends Aggregate {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The fewest tuples of the table worth another worker */
+    public static final int MIN_TUPLES_PER_WORKER = 50_000;
+
+    private final int workers;
+    private final SeqScan scan;
+    /** 扫描之上的过滤条件，从下往上 */
+    private final List<Predicate> predicates = new ArrayList<>();
+
+    private OpIterator result;
+
+    /**
+     * Constructor.
+     *
+     * @param child        a SeqScan of a heap file, under zero or more Filters
+     * @param afields      the columns over which we are computing aggregates
+     * @param gfields      the columns over which we are grouping the result;
+     *                     empty if there is no grouping
+     * @param aops         the aggregation operator of each aggregate column
+     * @param memoryGroups the most groups to hold in memory, over all workers
+     * @param workers      the number of threads to scan and aggregate with
+     * @throws IllegalArgumentException if the child or the aggregates cannot
+     *                                  be computed in parallel
+     */
+    public ParallelAggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops,
+                             int memoryGroups, int workers) {
+        super(child, afields, gfields, aops, memoryGroups);
+        if (!canParallelize(child, afields, aops)) {
+            throw new IllegalArgumentException("only INT aggregates and COUNT over filtered heap file "
+                    + "scans can be computed in parallel");
+        }
+        if (workers < 1) {
+            throw new IllegalArgumentException("need at least one worker");
+        }
+        this.workers = workers;
+        OpIterator node = child;
+        while (node instanceof Filter) {
+            predicates.add(0, ((Filter) node).getPredicate());
+            node = ((Filter) node).getChildren()[0];
+        }
+        this.scan = (SeqScan) node;
+    }
+
+    /**
+     * @return whether aggregates aops over columns afields of child can be
+     * computed by a ParallelAggregate: whether child is a SeqScan of a heap
+     * file under zero or more Filters, and every aggregate is over an INT
+     * column or is a COUNT
+     */
+    public static boolean canParallelize(OpIterator child, int[] afields, Aggregator.Op[] aops) {
+        TupleDesc td = child.getTupleDesc();
+        for (int k = 0; k < afields.length; k++) {
+            if (aops[k] != Aggregator.Op.COUNT && td.getFieldType(afields[k]) != Type.INT_TYPE) {
+                return false;
+            }
+        }
+        OpIterator node = child;
+        while (node instanceof Filter) {
+            node = ((Filter) node).getChildren()[0];
+        }
+        if (!(node instanceof SeqScan)) {
+            return false;
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(((SeqScan) node).getTableId());
+        return file instanceof HeapFile;
+    }
+
+    /**
+     * @return the number of threads the aggregation runs on
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @return a copy of the child that reads pages firstPage to endPage - 1
+     * only
+     */
+    private OpIterator pipeline(int firstPage, int endPage) {
+        OpIterator node = new SeqScan(scan.getTransactionId(), scan.getTableId(), scan.getAlias(),
+                firstPage, endPage);
+        for (Predicate p : predicates) {
+            node = new Filter(p, node);
+        }
+        return node;
+    }
+
+    /** @return an aggregator with no groups, holding memoryGroups at most */
+    private IntegerAggregator newAggregator(int memoryGroups) {
+        TupleDesc td = getChildren()[0].getTupleDesc();
+        int[] gfields = groupFields();
+        Type[] gFieldTypes = new Type[gfields.length];
+        for (int i = 0; i < gfields.length; i++) {
+            gFieldTypes[i] = td.getFieldType(gfields[i]);
+        }
+        return new IntegerAggregator(gfields, gFieldTypes, aggregateFields(), aggregateOps(), memoryGroups);
+    }
+
+    /**
+     * Scan and aggregate one range of pages, unless cancelled; return the
+     * partial groups.
+     */
+    private IntegerAggregator aggregateRange(OpIterator pipeline, int memoryGroups, AtomicBoolean cancelled)
+            throws DbException, TransactionAbortedException {
+        IntegerAggregator agg = newAggregator(memoryGroups);
+        pipeline.open();
+        try {
+            TupleBatch batch;
+            while (!cancelled.get() && (batch = pipeline.nextBatch()) != null) {
+                agg.mergeBatchIntoGroup(batch);
+            }
+        } finally {
+            pipeline.close();
+        }
+        return agg;
+    }
+
+    /**
+     * Scan and aggregate the ranges of pages of the workers in parallel, and
+     * merge their groups as they finish.
+     */
+    protected OpIterator aggregate() throws DbException, TransactionAbortedException {
+        int pages = ((HeapFile) Database.getCatalog().getDatabaseFile(scan.getTableId())).numPages();
+        int n = Math.max(1, Math.min(workers, pages));
+        // 每个 worker 分到内存预算的一份，合并时再用整个预算
+        int share = Math.max(1, getMemoryGroups() / n);
+        IntegerAggregator merged = newAggregator(getMemoryGroups());
+        AtomicBoolean cancelled = new AtomicBoolean();
+        ExecutorService pool = Executors.newFixedThreadPool(n);
+        try {
+            CompletionService<IntegerAggregator> done = new ExecutorCompletionService<>(pool);
+            for (int w = 0; w < n; w++) {
+                OpIterator pipeline = pipeline((int) ((long) pages * w / n), (int) ((long) pages * (w + 1) / n));
+                done.submit(() -> aggregateRange(pipeline, share, cancelled));
+            }
+            // 先做完的先合并
+            for (int w = 0; w < n; w++) {
+                merged.merge(done.take().get());
+            }
+        } catch (InterruptedException e) {
+            // 被中断说明事务要中止，worker 在等锁的话也中断它们
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TransactionAbortedException) {
+                throw (TransactionAbortedException) cause;
+            } else if (cause instanceof DbException) {
+                throw (DbException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new DbException("parallel aggregate failed: " + cause);
+        } finally {
+            // 出错时让其他 worker 读完当前的 batch 就停下来，不中断它们：
+            // 在等锁时被中断的话 BufferPool 会中止整个事务。
+            // 返回前不能还有线程在用这个事务读页面
+            cancelled.set(true);
+            pool.shutdown();
+            boolean interrupted = false;
+            while (!pool.isTerminated()) {
+                try {
+                    pool.awaitTermination(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    pool.shutdownNow();
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        result = merged.iterator();
+        return result;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        result.rewind();
+    }
+
+    public void close() {
+        if (result != null) {
+            result.close();
+            result = null;
+        }
+    }
+}
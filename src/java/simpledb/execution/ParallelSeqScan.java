@@ -0,0 +1,399 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.ScanRing;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelSeqScan reads a table stored in a {@link HeapFile} with several
+ * worker threads of a {@link ForkJoinPool}. The file is cut into morsels of
+ * {@link #MORSEL_PAGES} pages, which the workers claim one after the other;
+ * a worker reads the pages of its morsel a batch at a time, keeps the tuples
+ * that pass every predicate and reads the output fields of those out of the
+ * pages, so that filters and projections run in the workers too. The
+ * batches are returned by {@link #nextBatch()} as the workers made them.
+ * <p>
+ * Finished morsels are handed over through a bounded queue. At most
+ * {@link #MORSELS_PER_WORKER} morsels per worker are being read or wait to
+ * be returned at any time; workers wait for the operator to return the
+ * tuples of earlier morsels before they claim more. The tuples come out
+ * either in the order of the pages, as from a {@link SeqScan}, or as the
+ * morsels are finished.
+ * <p>
+ * Every worker reads its pages under the transaction of the scan, which
+ * takes a shared lock on each of them. If a worker fails, the others stop
+ * after their current batch, and the error is thrown once they all have;
+ * no worker reads a page after the operator is closed or rewound.
+ */
+public class ParallelSeqScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of pages a worker reads at a time */
+    public static final int MORSEL_PAGES = 16;
+    /** The most morsels per worker that are read but not yet returned */
+    public static final int MORSELS_PER_WORKER = 2;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final List<Predicate> predicates;
+    /** 输出的列，null 表示全部列 */
+    private final int[] fields;
+    private final int workers;
+    private final boolean ordered;
+    /** 整个表的列（带别名），谓词的下标按它算 */
+    private final TupleDesc scanTd;
+    private final TupleDesc td;
+
+    private transient Run run;
+    /** 正在返回的 morsel 的 batch，和正在逐行返回的 batch 及其中下一行 */
+    private List<TupleBatch> current = Collections.emptyList();
+    private int pos;
+    private TupleBatch rows;
+    private int row;
+
+    /**
+     * Creates a parallel scan of every tuple of a table, returned as the
+     * morsels are finished.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan, which must be stored in a HeapFile
+     * @param tableAlias the alias of this table, as for {@link SeqScan}
+     * @param workers    the number of threads to read pages with
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, int workers) {
+        this(tid, tableid, tableAlias, Collections.emptyList(), null, workers, false);
+    }
+
+    /**
+     * Creates a parallel scan of the tuples of a table that pass every
+     * predicate, projected on the given fields.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan, which must be stored in a HeapFile
+     * @param tableAlias the alias of this table, as for {@link SeqScan}
+     * @param predicates the predicates the tuples must pass, over the fields
+     *                   of the table
+     * @param fields     the fields of the table to return, in order, or null
+     *                   to return them all
+     * @param workers    the number of threads to read pages with
+     * @param ordered    whether to return the tuples in the order of the
+     *                   pages, rather than as they are read
+     * @throws IllegalArgumentException if the table is not a HeapFile, a
+     *                                  field is not a field of the table or
+     *                                  there are no workers
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, List<Predicate> predicates,
+                           int[] fields, int workers, boolean ordered) {
+        if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile)) {
+            throw new IllegalArgumentException("only heap files can be scanned in parallel");
+        }
+        if (workers < 1) {
+            throw new IllegalArgumentException("need at least one worker");
+        }
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.predicates = new ArrayList<>(predicates);
+        this.workers = workers;
+        this.ordered = ordered;
+        this.scanTd = new SeqScan(tid, tableid, tableAlias).getTupleDesc();
+        if (fields == null) {
+            this.fields = null;
+            this.td = scanTd;
+        } else {
+            this.fields = fields.clone();
+            Type[] types = new Type[fields.length];
+            String[] names = new String[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i] < 0 || fields[i] >= scanTd.numFields()) {
+                    throw new IllegalArgumentException("no field " + fields[i] + " in " + scanTd);
+                }
+                types[i] = scanTd.getFieldType(fields[i]);
+                names[i] = scanTd.getFieldName(fields[i]);
+            }
+            this.td = new TupleDesc(types, names);
+        }
+    }
+
+    /** @return the number of threads the scan reads pages with */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /** @return whether the tuples come out in the order of the pages */
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        start();
+    }
+
+    private void start() {
+        run = new Run();
+        current = Collections.emptyList();
+        pos = 0;
+        rows = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (rows == null || row >= rows.getTupleCount()) {
+            rows = nextBatch();
+            row = 0;
+            if (rows == null) {
+                return null;
+            }
+        }
+        return rows.getTuple(row++);
+    }
+
+    /**
+     * Returns the next batch a worker made, with the tuples of a batch of
+     * the file that passed the predicates selected.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        while (pos >= current.size()) {
+            Morsel m = run.take();
+            if (m == null) {
+                return null;
+            }
+            current = m.batches;
+            pos = 0;
+        }
+        return current.get(pos++);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        run.stop();
+        start();
+    }
+
+    public void close() {
+        super.close();
+        if (run != null) {
+            run.stop();
+            run = null;
+        }
+        current = Collections.emptyList();
+        rows = null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+
+    /** The batches a worker made of a morsel, or the error it failed with. */
+    private static class Morsel {
+        final int index;
+        final List<TupleBatch> batches;
+        final Throwable error;
+
+        Morsel(int index, List<TupleBatch> batches, Throwable error) {
+            this.index = index;
+            this.batches = batches;
+            this.error = error;
+        }
+    }
+
+    /**
+     * One pass of the workers over the file, from open or rewind until the
+     * next rewind or close.
+     */
+    private class Run {
+        private final HeapFile file;
+        private final int morsels;
+        private final int threads;
+        private final ScanRing ring;
+        /** 下一个要领取的 morsel */
+        private final AtomicInteger next = new AtomicInteger();
+        /** 读了还没返回的 morsel 个数的上限 */
+        private final Semaphore window;
+        private final BlockingQueue<Morsel> done;
+        /** 按顺序返回时，先于前面的 morsel 做完的 */
+        private final Map<Integer, Morsel> pending = new HashMap<>();
+        private final ForkJoinPool pool;
+        private volatile boolean cancelled;
+        /** 已经返回的 morsel 个数 */
+        private int returned;
+
+        Run() {
+            DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+            file = (HeapFile) f;
+            int pages = file.numPages();
+            morsels = (pages + MORSEL_PAGES - 1) / MORSEL_PAGES;
+            threads = Math.max(1, Math.min(workers, morsels));
+            ring = SeqScan.newScanRing(file);
+            int size = threads * MORSELS_PER_WORKER;
+            window = new Semaphore(size);
+            // 队列里的 morsel 都占着 window 的一个名额，所以 put 不会等待
+            done = new ArrayBlockingQueue<>(size);
+            pool = new ForkJoinPool(threads);
+            for (int w = 0; w < threads; w++) {
+                pool.execute(this::work);
+            }
+        }
+
+        /** Claim and read morsels until there are none left or the run stops. */
+        private void work() {
+            while (true) {
+                window.acquireUninterruptibly();
+                int m = next.getAndIncrement();
+                if (cancelled || m >= morsels) {
+                    window.release();
+                    return;
+                }
+                Morsel result;
+                try {
+                    result = new Morsel(m, read(m), null);
+                } catch (Throwable e) {
+                    cancelled = true;
+                    result = new Morsel(m, null, e);
+                }
+                done.add(result);
+                if (result.error != null) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Return the batches of the tuples of morsel m, with those that pass
+         * the predicates selected and the output fields read.
+         */
+        private List<TupleBatch> read(int m) throws DbException, TransactionAbortedException {
+            int first = m * MORSEL_PAGES;
+            DbFileIterator it = file.iterator(tid, ring, first, first + MORSEL_PAGES);
+            List<TupleBatch> batches = new ArrayList<>();
+            it.open();
+            try {
+                while (!cancelled && it.hasNext()) {
+                    // 交出去的 batch 归调用者所有，不能重复使用
+                    TupleBatch scanned = new TupleBatch(scanTd);
+                    while (!scanned.isFull() && it.hasNext()) {
+                        scanned.add(it.next());
+                    }
+                    boolean any = true;
+                    for (int i = 0; any && i < predicates.size(); i++) {
+                        any = predicates.get(i).filter(scanned) > 0;
+                    }
+                    if (!any) {
+                        continue;
+                    }
+                    TupleBatch out = fields == null ? scanned : scanned.project(td, fields);
+                    // 列是第一次用到时才从页面里读出的，在 worker 里先读好
+                    int r = out.row(0);
+                    for (int c = 0; c < td.numFields(); c++) {
+                        out.getField(r, c);
+                    }
+                    batches.add(out);
+                }
+            } finally {
+                it.close();
+            }
+            return batches;
+        }
+
+        /**
+         * Wait for the next morsel to return, in page order if the scan is
+         * ordered, and make room for another one to be read.
+         *
+         * @return the morsel, or null if all of them were returned
+         */
+        Morsel take() throws DbException, TransactionAbortedException {
+            if (returned == morsels) {
+                return null;
+            }
+            Morsel m = ordered ? pending.remove(returned) : null;
+            try {
+                while (m == null) {
+                    Morsel d = done.take();
+                    if (d.error != null) {
+                        stop();
+                        throw rethrow(d.error);
+                    }
+                    if (ordered && d.index != returned) {
+                        pending.put(d.index, d);
+                    } else {
+                        m = d;
+                    }
+                }
+            } catch (InterruptedException e) {
+                stop();
+                Thread.currentThread().interrupt();
+                throw new TransactionAbortedException();
+            }
+            returned++;
+            window.release();
+            return m;
+        }
+
+        private RuntimeException rethrow(Throwable error) throws DbException, TransactionAbortedException {
+            if (error instanceof TransactionAbortedException) {
+                throw (TransactionAbortedException) error;
+            } else if (error instanceof DbException) {
+                throw (DbException) error;
+            } else if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            } else if (error instanceof Error) {
+                throw (Error) error;
+            }
+            throw new DbException("parallel scan failed: " + error);
+        }
+
+        /**
+         * Stop the workers after their current batch and wait for them: the
+         * transaction must not read pages once the scan is closed.
+         */
+        void stop() {
+            cancelled = true;
+            // 唤醒等待 window 的 worker，让它们看到 cancelled 后退出
+            window.release(threads);
+            pool.shutdown();
+            boolean interrupted = false;
+            while (!pool.isTerminated()) {
+                try {
+                    pool.awaitTermination(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            done.clear();
+            pending.clear();
+        }
+    }
+}
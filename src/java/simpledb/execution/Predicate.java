@@ -1,6 +1,7 @@
 package simpledb.execution;
 
 import simpledb.storage.Field;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 
 import java.io.Serializable;
@@ -111,6 +112,84 @@ public class Predicate implements Serializable {
         return t.getField(field).compare(op, oprand);
     }
 
+    /**
+     * Narrow the selection of batch to the tuples that pass this predicate,
+     * comparing INT columns against an IntField operand without creating
+     * Fields.
+     *
+     * @return the number of tuples left selected
+     */
+    public int filter(TupleBatch batch) {
+        int n = batch.getTupleCount();
+        int[] out = batch.selection();
+        int kept = 0;
+        if (batch.isInt(field) && oprand instanceof IntField) {
+            int[] values = batch.ints(field);
+            int v = ((IntField) oprand).getValue();
+            // 每种比较单独一个循环，循环里不再判断 op
+            switch (op) {
+                case EQUALS:
+                case LIKE:
+                    for (int i = 0; i < n; i++) {
+                        int r = batch.row(i);
+                        if (values[r] == v) {
+                            out[kept++] = r;
+                        }
+                    }
+                    break;
+                case NOT_EQUALS:
+                    for (int i = 0; i < n; i++) {
+                        int r = batch.row(i);
+                        if (values[r] != v) {
+                            out[kept++] = r;
+                        }
+                    }
+                    break;
+                case GREATER_THAN:
+                    for (int i = 0; i < n; i++) {
+                        int r = batch.row(i);
+                        if (values[r] > v) {
+                            out[kept++] = r;
+                        }
+                    }
+                    break;
+                case GREATER_THAN_OR_EQ:
+                    for (int i = 0; i < n; i++) {
+                        int r = batch.row(i);
+                        if (values[r] >= v) {
+                            out[kept++] = r;
+                        }
+                    }
+                    break;
+                case LESS_THAN:
+                    for (int i = 0; i < n; i++) {
+                        int r = batch.row(i);
+                        if (values[r] < v) {
+                            out[kept++] = r;
+                        }
+                    }
+                    break;
+                case LESS_THAN_OR_EQ:
+                    for (int i = 0; i < n; i++) {
+                        int r = batch.row(i);
+                        if (values[r] <= v) {
+                            out[kept++] = r;
+                        }
+                    }
+                    break;
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                int r = batch.row(i);
+                if (batch.getField(r, field).compare(op, oprand)) {
+                    out[kept++] = r;
+                }
+            }
+        }
+        batch.select(out, kept);
+        return kept;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
@@ -81,6 +81,22 @@ public class Project extends Operator {
         return newTuple;
     }
 
+    /**
+     * Returns the next batch of the child restricted to the projected
+     * columns; the column vectors are shared, not copied.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch batch = child.nextBatch();
+        if (batch == null) {
+            return null;
+        }
+        int[] columns = new int[outFieldIds.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = outFieldIds.get(i);
+        }
+        return batch.project(td, columns);
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child};
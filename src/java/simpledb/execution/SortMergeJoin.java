@@ -0,0 +1,287 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two children that are both sorted in ascending order
+ * of their join field, such as scans of B+ tree files on their key or
+ * {@link OrderBy} operators. It does not sort them itself.
+ * <p>
+ * For an equality predicate both children are read once, side by side; only
+ * the tuples of the right child that share the current join value are held
+ * in memory. For a range predicate every tuple of one child, the outer one,
+ * matches a prefix of the other, the inner one: for <code>&gt;</code> and
+ * <code>&gt;=</code> the outer child is the left one and the prefix is the
+ * right tuples below (or up to) it, for <code>&lt;</code> and
+ * <code>&lt;=</code> the roles are swapped. The inner child is rewound for
+ * each outer tuple and read until its first tuple that does not match, so
+ * apart from that tuple only matching pairs are read and neither child is
+ * held in memory.
+ * <p>
+ * Joined tuples are the left tuple followed by the right one, as for
+ * {@link Join}. For an equality predicate they come out in the order of the
+ * join value; for a range predicate in the order of the outer child.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate p;
+    private OpIterator child1;
+    private OpIterator child2;
+    private final TupleDesc comboTD;
+    /** 两边的连接字段都是 INT 时直接比较 int */
+    private final boolean intFields;
+
+    /** 当前的左边元组 */
+    private Tuple left;
+    /** 等值连接：右边与 groupTuple 连接值相同的元组，以及下一个要连接的下标 */
+    private final List<Tuple> group = new ArrayList<>();
+    private int groupPos;
+    /** 等值连接：右边读出但还不属于 group 的第一个元组 */
+    private Tuple pending;
+    /** 范围连接：当前的外层元组 */
+    private Tuple outer;
+
+    /**
+     * Constructor. Accepts two children sorted in ascending order of their
+     * join field and the predicate to join them on.
+     *
+     * @param p
+     *            The predicate to use to join the children; one of EQUALS,
+     *            LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN or
+     *            GREATER_THAN_OR_EQ
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     * @throws IllegalArgumentException if the predicate cannot be merged
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!canMerge(p.getOperator())) {
+            throw new IllegalArgumentException("sort-merge join does not support " + p.getOperator());
+        }
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.intFields = child1.getTupleDesc().getFieldType(p.getField1()) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(p.getField2()) == Type.INT_TYPE;
+    }
+
+    /** @return whether a sort-merge join can evaluate a predicate with op */
+    public static boolean canMerge(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    /**
+     * @return whether the joined tuples come out in ascending order of field
+     *         i of {@link #getTupleDesc()}
+     */
+    public boolean isSortedOn(int i) {
+        int n1 = child1.getTupleDesc().numFields();
+        switch (p.getOperator()) {
+            case EQUALS:
+                return i == p.getField1() || i == n1 + p.getField2();
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                return i == p.getField1();
+            default:
+                return i == n1 + p.getField2();
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        reset();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        reset();
+    }
+
+    private void reset() {
+        left = null;
+        group.clear();
+        groupPos = 0;
+        pending = null;
+        outer = null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        switch (p.getOperator()) {
+            case EQUALS:
+                return fetchEquals();
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                return fetchRange(child1, child2, true);
+            default:
+                return fetchRange(child2, child1, false);
+        }
+    }
+
+    private Tuple fetchEquals() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (left != null && !group.isEmpty() && compare(left, group.get(0)) == 0) {
+                if (groupPos < group.size()) {
+                    return join(left, group.get(groupPos++));
+                }
+                // 下一个左边元组可能还是同一个连接值，group 留着
+                left = null;
+            }
+            if (left == null) {
+                if (!child1.hasNext()) {
+                    return null;
+                }
+                left = child1.next();
+                groupPos = 0;
+                continue;
+            }
+            // left 比 group 大（或者还没有 group）：把右边推进到 left 的连接值
+            group.clear();
+            groupPos = 0;
+            if (pending == null && child2.hasNext()) {
+                pending = child2.next();
+            }
+            while (pending != null && compare(left, pending) > 0) {
+                pending = child2.hasNext() ? child2.next() : null;
+            }
+            if (pending == null) {
+                return null;
+            }
+            if (compare(left, pending) < 0) {
+                left = null;
+                continue;
+            }
+            // 收集右边所有等于这个连接值的元组；复制后不再占着它们的页面
+            while (pending != null && compare(left, pending) == 0) {
+                group.add(pending.copy());
+                pending = child2.hasNext() ? child2.next() : null;
+            }
+        }
+    }
+
+    /**
+     * Join each tuple of the outer child with the prefix of the inner child
+     * that it matches.
+     *
+     * @param outerIsLeft whether the outer child is the left one
+     */
+    private Tuple fetchRange(OpIterator outerChild, OpIterator innerChild, boolean outerIsLeft)
+            throws TransactionAbortedException, DbException {
+        while (true) {
+            if (outer == null) {
+                if (!outerChild.hasNext()) {
+                    return null;
+                }
+                outer = outerChild.next();
+                innerChild.rewind();
+            }
+            if (innerChild.hasNext()) {
+                Tuple inner = innerChild.next();
+                Tuple t1 = outerIsLeft ? outer : inner;
+                Tuple t2 = outerIsLeft ? inner : outer;
+                if (p.filter(t1, t2)) {
+                    return join(t1, t2);
+                }
+            }
+            // 内层读完或者遇到第一个不匹配的元组：后面的都不匹配
+            outer = null;
+        }
+    }
+
+    /** Compare the join field of a left tuple and of a right tuple. */
+    private int compare(Tuple t1, Tuple t2) {
+        if (intFields) {
+            return Integer.compare(t1.getInt(p.getField1()), t2.getInt(p.getField2()));
+        }
+        Field f1 = t1.getField(p.getField1());
+        Field f2 = t2.getField(p.getField2());
+        if (f1.compare(Predicate.Op.EQUALS, f2)) {
+            return 0;
+        }
+        return f1.compare(Predicate.Op.LESS_THAN, f2) ? -1 : 1;
+    }
+
+    private Tuple join(Tuple t1, Tuple t2) {
+        int n1 = t1.getTupleDesc().numFields();
+        int n2 = t2.getTupleDesc().numFields();
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < n1; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < n2; i++)
+            t.setField(n1 + i, t2.getField(i));
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child1, child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+
+}
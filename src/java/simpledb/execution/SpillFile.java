@@ -0,0 +1,156 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+
+/**
+ * SpillFile is a temporary file of tuples, for operators that hold more
+ * tuples than fit in their memory budget. Tuples are appended, then the
+ * file is finished and read back, in the order they were added, as many
+ * times as needed. The file is deleted by {@link #delete()}, or when the
+ * JVM exits.
+ * <p>
+ * Tuples are written field after field with no page structure: fixed size
+ * types as in a page, strings as their length and their bytes only, without
+ * the padding to {@link Type#STRING_LEN}. RecordIds are not kept.
+ */
+class SpillFile {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private long tuples;
+    private long bytes;
+
+    /** Create an empty spill file for tuples of td. */
+    SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            file = File.createTempFile("spill", ".tmp");
+            file.deleteOnExit();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        } catch (IOException e) {
+            throw new DbException("could not create a spill file: " + e.getMessage());
+        }
+    }
+
+    /** @return the number of tuples added */
+    long size() {
+        return tuples;
+    }
+
+    /** @return the number of bytes of the tuples added */
+    long bytes() {
+        return bytes;
+    }
+
+    /** Append t, which must match the TupleDesc of this file. */
+    void add(Tuple t) throws DbException {
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                Field f = t.getField(i);
+                if (td.getFieldType(i) == Type.STRING_TYPE) {
+                    byte[] s = ((StringField) f).getValue().getBytes(StandardCharsets.ISO_8859_1);
+                    out.writeShort(s.length);
+                    out.write(s);
+                    bytes += 2 + s.length;
+                } else {
+                    f.serialize(out);
+                    bytes += td.getFieldType(i).getLen();
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("could not write " + file + ": " + e.getMessage());
+        }
+        tuples++;
+    }
+
+    /** Flush the tuples added to disk; no more can be added. */
+    void finish() throws DbException {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new DbException("could not write " + file + ": " + e.getMessage());
+        } finally {
+            out = null;
+        }
+    }
+
+    /** Return a reader over the tuples of this file, which must be finished. */
+    Reader open() throws DbException {
+        if (out != null) {
+            throw new IllegalStateException("spill file not finished");
+        }
+        try {
+            return new Reader(new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)));
+        } catch (IOException e) {
+            throw new DbException("could not read " + file + ": " + e.getMessage());
+        }
+    }
+
+    /** Delete the file. */
+    void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    /** Reads the tuples of a SpillFile in the order they were added. */
+    class Reader implements Closeable {
+        private final DataInputStream in;
+        private long read;
+
+        private Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        boolean hasNext() {
+            return read < tuples;
+        }
+
+        Tuple next() throws DbException {
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    Type type = td.getFieldType(i);
+                    if (type == Type.STRING_TYPE) {
+                        byte[] s = new byte[in.readUnsignedShort()];
+                        in.readFully(s);
+                        t.setField(i, new StringField(new String(s, StandardCharsets.ISO_8859_1), Type.STRING_LEN));
+                    } else {
+                        t.setField(i, type.parse(in));
+                    }
+                }
+            } catch (IOException | ParseException e) {
+                throw new DbException("could not read " + file + ": " + e.getMessage());
+            }
+            read++;
+            return t;
+        }
+
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Arrays;
+
+/**
+ * TupleBatch holds up to {@link #capacity()} tuples column by column, for
+ * operators that process tuples a batch at a time (see
+ * {@link OpIterator#nextBatch()}). INT columns are kept as int vectors, so
+ * that predicates and aggregates over them touch no Field objects; other
+ * columns are kept as Field vectors.
+ * <p>
+ * Columns are filled from the tuples added to the batch the first time
+ * they are asked for, and only for the rows selected at that time: a
+ * column that a Filter only needs for the rows that passed an earlier
+ * predicate is only read for those.
+ * <p>
+ * Rows are numbered 0 to {@link #size()} - 1 in the vectors. A selection
+ * vector lists the rows that are part of the batch, in order: operators such
+ * as Filter drop rows by narrowing the selection instead of copying the rest.
+ * Without a selection every row is selected. Consumers go through the
+ * selected rows as
+ * <pre>
+ *   for (int i = 0; i < batch.getTupleCount(); i++) {
+ *       int row = batch.row(i);
+ *       ... batch.ints(col)[row] ...
+ *   }
+ * </pre>
+ * A batch returned by nextBatch belongs to the caller until its next call
+ * to nextBatch, rewind or close; the caller may narrow its selection.
+ */
+public class TupleBatch {
+
+    /** The number of rows in a batch unless asked otherwise */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+
+    /** 每列一个向量：INT 列用 ints，其他列用 fields，另一个为 null */
+    private final int[][] ints;
+    private final Field[][] fields;
+    /** 已经从 sources 读出的列 */
+    private final boolean[] loaded;
+    /** 每行来自的 tuple，列向量从这里读出，RecordId 也从这里取 */
+    private final Tuple[] sources;
+
+    /** project 得到的 batch 的列向量在 base 里，第 i 列是 base 的 columns[i] 列 */
+    private final TupleBatch base;
+    private final int[] columns;
+
+    private int size;
+    /** 选中的行，null 表示全部选中 */
+    private int[] sel;
+    private int selSize;
+
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        this.ints = new int[n][];
+        this.fields = new Field[n][];
+        this.loaded = new boolean[n];
+        this.base = null;
+        this.columns = null;
+        for (int c = 0; c < n; c++) {
+            if (td.getFieldType(c) == Type.INT_TYPE) {
+                ints[c] = new int[capacity];
+            } else {
+                fields[c] = new Field[capacity];
+            }
+        }
+        this.sources = new Tuple[capacity];
+    }
+
+    /** A batch of the given columns of base, with the rows of from. */
+    private TupleBatch(TupleDesc td, TupleBatch base, int[] columns, TupleBatch from) {
+        this.td = td;
+        this.capacity = base.capacity;
+        this.ints = null;
+        this.fields = null;
+        this.loaded = null;
+        this.sources = base.sources;
+        this.base = base;
+        this.columns = columns;
+        this.size = from.size;
+        this.sel = from.sel;
+        this.selSize = from.selSize;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the most rows this batch can hold */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return the number of rows in the vectors, selected or not */
+    public int size() {
+        return size;
+    }
+
+    /** @return true if no more rows can be added */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /** @return the number of selected rows */
+    public int getTupleCount() {
+        return sel == null ? size : selSize;
+    }
+
+    /** @return the row of the ith selected tuple */
+    public int row(int i) {
+        return sel == null ? i : sel[i];
+    }
+
+    /**
+     * Keep only the first n rows listed in rows, which must be selected
+     * rows, in increasing order. rows may be the array returned by
+     * {@link #selection()}.
+     */
+    public void select(int[] rows, int n) {
+        sel = rows;
+        selSize = n;
+    }
+
+    /**
+     * @return an array of {@link #capacity()} ints to build a new selection
+     * in, which may be the current selection vector: entry i may be
+     * overwritten once {@link #row(int)} has been read for every i' &lt;= i
+     */
+    public int[] selection() {
+        return sel != null ? sel : new int[capacity];
+    }
+
+    /** @return true if column col is kept as an int vector */
+    public boolean isInt(int col) {
+        return td.getFieldType(col) == Type.INT_TYPE;
+    }
+
+    /**
+     * @return the values of INT column col, indexed by row; only the
+     * selected rows are meaningful
+     */
+    public int[] ints(int col) {
+        return base != null ? base.load(columns[col], this).ints[columns[col]] : load(col, this).ints[col];
+    }
+
+    /** @return the value of column col in row, which must be selected, as a Field */
+    public Field getField(int row, int col) {
+        TupleBatch b = base != null ? base.load(columns[col], this) : load(col, this);
+        int c = base != null ? columns[col] : col;
+        return b.ints[c] != null ? new IntField(b.ints[c][row]) : b.fields[c][row];
+    }
+
+    /**
+     * Read column col of the rows selected in by from the tuples they came
+     * from, unless it was read already.
+     */
+    private TupleBatch load(int col, TupleBatch by) {
+        if (!loaded[col]) {
+            int n = by.getTupleCount();
+            if (ints[col] != null) {
+                int[] values = ints[col];
+                for (int i = 0; i < n; i++) {
+                    int r = by.row(i);
+                    values[r] = sources[r].getInt(col);
+                }
+            } else {
+                Field[] values = fields[col];
+                for (int i = 0; i < n; i++) {
+                    int r = by.row(i);
+                    values[r] = sources[r].getField(col);
+                }
+            }
+            loaded[col] = true;
+        }
+        return this;
+    }
+
+    /** Remove all rows, and the selection. */
+    public void clear() {
+        if (base != null) {
+            throw new IllegalStateException("cannot clear a projected batch");
+        }
+        for (int c = 0; c < fields.length; c++) {
+            if (fields[c] != null && loaded[c]) {
+                Arrays.fill(fields[c], 0, size, null);
+            }
+            loaded[c] = false;
+        }
+        Arrays.fill(sources, 0, size, null);
+        size = 0;
+        sel = null;
+    }
+
+    /**
+     * Add t as a selected row. The batch must not be full, must have no
+     * selection and none of its columns may have been read yet.
+     */
+    public void add(Tuple t) {
+        if (sel != null || base != null) {
+            throw new IllegalStateException("cannot add rows to a batch with a selection");
+        }
+        sources[size++] = t;
+    }
+
+    /**
+     * Return the ith selected tuple as a Tuple, with the RecordId of the
+     * tuple it was read from, if any.
+     */
+    public Tuple getTuple(int i) {
+        int r = row(i);
+        Tuple t = new Tuple(td);
+        for (int c = 0; c < td.numFields(); c++) {
+            t.setField(c, getField(r, c));
+        }
+        if (sources[r] != null) {
+            t.setRecordId(sources[r].getRecordId());
+        }
+        return t;
+    }
+
+    /**
+     * Return a batch of the given columns of this one, described by td,
+     * sharing its vectors and its selection.
+     */
+    public TupleBatch project(TupleDesc td, int[] columns) {
+        if (base != null) {
+            int[] mapped = new int[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                mapped[i] = this.columns[columns[i]];
+            }
+            return new TupleBatch(td, base, mapped, this);
+        }
+        return new TupleBatch(td, this, columns.clone(), this);
+    }
+
+    /**
+     * Fill batch with the next tuples of it, read through the row interface:
+     * the adapter from rows to batches.
+     *
+     * @return batch, or null if it has no more tuples
+     */
+    public static TupleBatch fill(OpIterator it, TupleBatch batch)
+            throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (!batch.isFull() && it.hasNext()) {
+            batch.add(it.next());
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+}
@@ -32,6 +32,9 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private final int keyField;
+	private final DbFileChannel channel;
+	// checksums of the pages, by page number, with the root pointer page as page 0
+	private final PageChecksums checksums;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -46,6 +49,8 @@ public class BTreeFile implements DbFile {
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.channel = new DbFileChannel(f);
+		this.checksums = new PageChecksums(f, () -> f.length() == 0 ? 0 : numPages() + 1);
 	}
 
 	/**
@@ -87,50 +92,54 @@ public class BTreeFile implements DbFile {
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
+        try {
+            byte[] pageBuf = readPageData(id.getPageNumber());
+            Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-                byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BTreeRootPtrPage.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
                 return new BTreeRootPtrPage(id, pageBuf);
-            } else {
-                byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BufferPool.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
-                } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
-                } else { // id.pgcateg() == BTreePageId.HEADER
-                    return new BTreeHeaderPage(id, pageBuf);
-                }
+            } else if (id.pgcateg() == BTreePageId.INTERNAL) {
+                return new BTreeInternalPage(id, pageBuf, keyField);
+            } else if (id.pgcateg() == BTreePageId.LEAF) {
+                return new BTreeLeafPage(id, pageBuf, keyField);
+            } else { // id.pgcateg() == BTreePageId.HEADER
+                return new BTreeHeaderPage(id, pageBuf);
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        // Close the file on success or error
-        // Ignore failures closing the file
     }
 
+	/**
+	 * Read the bytes of page pgNo from disk, page 0 being the root pointer
+	 * page, and check them against the checksum recorded when the page was
+	 * written.
+	 * 
+	 * @throws IllegalArgumentException if the page is past the end of the file
+	 * @throws PageCorruptedException if the page fails its checksum or the
+	 * file ends in the middle of it
+	 */
+	private byte[] readPageData(int pgNo) throws IOException {
+		int len = pgNo == 0 ? BTreeRootPtrPage.getPageSize() : BufferPool.getPageSize();
+		byte[] pageBuf = new byte[len];
+		int retval = channel.read(pageBuf, len, offset(pgNo));
+		if (retval == -1) {
+			throw new IllegalArgumentException("Read past end of table");
+		}
+		if (retval < len) {
+			throw PageChecksums.shortRead(f, pgNo, retval, len);
+		}
+		checksums.check(pgNo, pageBuf);
+		return pageBuf;
+	}
+
+	/**
+	 * Return the position of page pgNo in the file, page 0 being the root
+	 * pointer page.
+	 */
+	private static long offset(int pgNo) {
+		return pgNo == 0 ? 0 : BTreeRootPtrPage.getPageSize() + (long) (pgNo - 1) * BufferPool.getPageSize();
+	}
+
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
 	 * be called from the BufferPool when pages are flushed to disk
@@ -141,17 +150,57 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 		
 		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
-		}
-		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+		channel.write(data, data.length, offset(id.getPageNumber()));
+		checksums.update(id.getPageNumber(), data);
+	}
+
+	/**
+	 * Write several pages to disk, coalescing pages that are adjacent in the file.
+	 * 
+	 * @see DbFile#writePages
+	 */
+	public void writePages(List<Page> pages) throws IOException {
+		List<byte[]> written = new ArrayList<>(pages.size());
+		channel.writePages(pages, pid -> offset(pid.getPageNumber()), (pid, data) -> written.add(data));
+		for (int i = 0; i < written.size(); i++) {
+			checksums.update(pages.get(i).getId().getPageNumber(), written.get(i));
 		}
 	}
+
+	/**
+	 * Return a read-ahead stream for a scan over the leaf pages of this file,
+	 * which reads them in right sibling order.
+	 */
+	ReadAhead.Stream newLeafReadAhead() {
+		return Database.getBufferPool().getReadAhead().newStream(
+				page -> ((BTreeLeafPage) page).getRightSiblingId());
+	}
+
+	/**
+	 * Close the file channel of this BTreeFile. It is reopened on the next page access.
+	 */
+	public void close() throws IOException {
+		checksums.close();
+		channel.close();
+	}
+
+	/**
+	 * Read every page of this file from disk, bypassing the buffer pool, and
+	 * check it against its checksum, using threads threads in parallel. Page
+	 * 0 is the root pointer page.
+	 */
+	public PageChecksums.Report verify(int threads) throws IOException {
+		long length = f.length();
+		int end = length == 0 ? 0
+				: 1 + (int) ((length - BTreeRootPtrPage.getPageSize() + BufferPool.getPageSize() - 1) / BufferPool.getPageSize());
+		return checksums.verify(0, end, pgNo -> {
+			try {
+				readPageData(pgNo);
+			} catch (IOException e) {
+				throw new PageCorruptedException(f, pgNo, "it could not be read: " + e.getMessage());
+			}
+		}, threads);
+	}
 	
 	/**
 	 * Returns the number of pages in this BTreeFile.
@@ -188,7 +237,24 @@ public class BTreeFile implements DbFile {
                                        Field f)
 					throws DbException, TransactionAbortedException {
 		// some code goes here
-        return null;
+		if (pid.pgcateg() == BTreePageId.LEAF) {
+			return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+		}
+		// 内部节点只读，只有叶子页用调用者要的权限
+		BTreeInternalPage page = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+		Iterator<BTreeEntry> it = page.iterator();
+		BTreeEntry e = null;
+		while (it.hasNext()) {
+			e = it.next();
+			// 等于 key 的元组可能在左子树里，所以用 <=
+			if (f == null || f.compare(Op.LESS_THAN_OR_EQ, e.getKey())) {
+				return findLeafPage(tid, dirtypages, e.getLeftChild(), perm, f);
+			}
+		}
+		if (e == null) {
+			throw new DbException("internal page " + pid + " has no entries");
+		}
+		return findLeafPage(tid, dirtypages, e.getRightChild(), perm, f);
 	}
 	
 	/**
@@ -832,13 +898,12 @@ public class BTreeFile implements DbFile {
 		synchronized(this) {
 			if(f.length() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				channel.write(emptyRootPtrData, emptyRootPtrData.length, 0);
+				channel.write(emptyLeafData, emptyLeafData.length, emptyRootPtrData.length);
+				checksums.update(0, emptyRootPtrData);
+				checksums.update(1, emptyLeafData);
 			}
 		}
 
@@ -894,12 +959,10 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				channel.write(emptyData, emptyData.length, f.length());
 				emptyPageNo = numPages();
+				checksums.update(emptyPageNo, emptyData);
 			}
 		}
 
@@ -929,10 +992,9 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		byte[] emptyData = BTreePage.createEmptyPageData();
+		channel.write(emptyData, emptyData.length, offset(emptyPageNo));
+		checksums.update(emptyPageNo, emptyData);
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1050,7 +1112,19 @@ public class BTreeFile implements DbFile {
 	 * @return an iterator for all the tuples in this file
 	 */
 	public DbFileIterator iterator(TransactionId tid) {
-		return new BTreeFileIterator(this, tid);
+		return new BTreeFileIterator(this, tid, null);
+	}
+
+	/**
+	 * Get an iterator for all tuples in this B+ tree file in sorted order, reading
+	 * the leaf pages through the given ScanRing.
+	 * 
+	 * @param tid - the transaction id
+	 * @param ring - the ring to scan with, or null to use the buffer pool normally
+	 * @return an iterator for all the tuples in this file
+	 */
+	public DbFileIterator iterator(TransactionId tid, ScanRing ring) {
+		return new BTreeFileIterator(this, tid, ring);
 	}
 
 }
@@ -1065,15 +1139,19 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 	final TransactionId tid;
 	final BTreeFile f;
+	final ScanRing ring;
+	ReadAhead.Stream readAhead = null;
 
 	/**
 	 * Constructor for this iterator
 	 * @param f - the BTreeFile containing the tuples
 	 * @param tid - the transaction id
+	 * @param ring - the ring the leaf pages are read through, or null
 	 */
-	public BTreeFileIterator(BTreeFile f, TransactionId tid) {
+	public BTreeFileIterator(BTreeFile f, TransactionId tid, ScanRing ring) {
 		this.f = f;
 		this.tid = tid;
+		this.ring = ring;
 	}
 
 	/**
@@ -1085,6 +1163,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		BTreePageId root = rootPtr.getRootId();
 		curp = f.findLeafPage(tid, root, null);
 		it = curp.iterator();
+		readAhead = f.newLeafReadAhead();
+		readAhead.accessed(curp);
 	}
 
 	/**
@@ -1105,7 +1185,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 			}
 			else {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+						nextp, Permissions.READ_ONLY, ring);
+				readAhead.accessed(curp);
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1132,6 +1213,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		super.close();
 		it = null;
 		curp = null;
+		readAhead = null;
 	}
 }
 
@@ -1147,6 +1229,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	final TransactionId tid;
 	final BTreeFile f;
 	final IndexPredicate ipred;
+	ReadAhead.Stream readAhead = null;
 
 	/**
 	 * Constructor for this iterator
@@ -1176,6 +1259,10 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 			curp = f.findLeafPage(tid, root, null);
 		}
 		it = curp.iterator();
+		// an equality search reads at most a few leaves, so only range searches read ahead
+		readAhead = ipred.getOp() == Op.EQUALS ? null : f.newLeafReadAhead();
+		if (readAhead != null)
+			readAhead.accessed(curp);
 	}
 
 	/**
@@ -1215,6 +1302,8 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 			else {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
+				if (readAhead != null)
+					readAhead.accessed(curp);
 				it = curp.iterator();
 			}
 		}
@@ -1236,5 +1325,6 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
 		it = null;
+		readAhead = null;
 	}
 }
@@ -0,0 +1,157 @@
+package simpledb.optimizer;
+
+import simpledb.execution.Predicate;
+import simpledb.storage.*;
+
+/**
+ * A class to represent a fixed-width histogram over a single LONG, DOUBLE
+ * or DATE field. Values are histogrammed as doubles, and every value is
+ * assumed to be spread evenly over the width of its bucket.
+ */
+public class DoubleHistogram {
+
+    private final int buckets;
+    private final double min;
+    private final double max;
+    private final double width;
+
+    private final int[] counts;
+    private int ntups;
+
+    /**
+     * Create a new DoubleHistogram.
+     *
+     * @param buckets The number of buckets to split the input value into.
+     * @param min     The minimum value that will ever be passed to this class for histogramming
+     * @param max     The maximum value that will ever be passed to this class for histogramming
+     */
+    public DoubleHistogram(int buckets, double min, double max) {
+        this.buckets = Math.max(1, buckets);
+        this.min = min;
+        this.max = max;
+        this.width = (max - min) / this.buckets;
+        this.counts = new int[this.buckets];
+    }
+
+    /**
+     * Return the value of a LongField, DoubleField or DateField as a double.
+     *
+     * @throws IllegalArgumentException if f is of another type
+     */
+    public static double valueOf(Field f) {
+        if (f instanceof LongField) {
+            return ((LongField) f).getValue();
+        } else if (f instanceof DoubleField) {
+            return ((DoubleField) f).getValue();
+        } else if (f instanceof DateField) {
+            return ((DateField) f).getValue();
+        }
+        throw new IllegalArgumentException("no double histogram for " + f.getType());
+    }
+
+    private int bucketOf(double v) {
+        if (width == 0) {
+            return 0;
+        }
+        int index = (int) ((v - min) / width);
+        return Math.max(0, Math.min(index, buckets - 1));
+    }
+
+    /**
+     * Add a value to the set of values that you are keeping a histogram of.
+     *
+     * @param v Value to add to the histogram
+     */
+    public void addValue(double v) {
+        if (v < min || v > max) throw new IllegalArgumentException("v 小于 min 或 大于 max ***** from DoubleHistogram.addValue");
+        counts[bucketOf(v)]++;
+        ntups++;
+    }
+
+    /**
+     * Estimate the fraction of values that are less than v.
+     */
+    private double lessThan(double v) {
+        if (v <= min) {
+            return 0.0;
+        }
+        if (v > max) {
+            return 1.0;
+        }
+        int index = bucketOf(v);
+        double result = 0.0;
+        for (int i = 0; i < index; i++) {
+            result += counts[i];
+        }
+        // 桶内按均匀分布估计
+        double left = min + index * width;
+        result += width == 0 ? 0 : counts[index] * ((v - left) / width);
+        return result / ntups;
+    }
+
+    /**
+     * Estimate the fraction of values equal to v. Doubles are not discrete,
+     * so a bucket of width w is taken to hold about w distinct values, and at
+     * least one.
+     */
+    private double equalTo(double v) {
+        if (v < min || v > max) {
+            return 0.0;
+        }
+        return counts[bucketOf(v)] / Math.max(1.0, width) / ntups;
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on this table.
+     *
+     * @param op Operator
+     * @param v  Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public double estimateSelectivity(Predicate.Op op, double v) {
+        if (ntups == 0) {
+            return 0.0;
+        }
+        double lt = lessThan(v);
+        double eq = equalTo(v);
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return eq;
+            case NOT_EQUALS:
+                return 1.0 - eq;
+            case LESS_THAN:
+                return lt;
+            case LESS_THAN_OR_EQ:
+                return Math.min(1.0, lt + eq);
+            case GREATER_THAN:
+                return Math.max(0.0, 1.0 - lt - eq);
+            case GREATER_THAN_OR_EQ:
+                return 1.0 - lt;
+            default:
+                throw new IllegalArgumentException("op 值有问题 ***** from DoubleHistogram.es");
+        }
+    }
+
+    /**
+     * @return the average selectivity of an equality predicate on this
+     * histogram, weighting each bucket by the number of values in it
+     */
+    public double avgSelectivity() {
+        if (ntups == 0) {
+            return 0.0;
+        }
+        double result = 0.0;
+        for (int count : counts) {
+            result += (double) count / ntups * (count / Math.max(1.0, width) / ntups);
+        }
+        return result;
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+        return "buckets = " + this.buckets + " min = " + this.min + " max = " + this.max;
+    }
+}
@@ -3,6 +3,8 @@ package simpledb.optimizer;
 import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.storage.DbFile;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -73,13 +75,27 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
+        if (!(lj instanceof LogicalSubplanJoinNode) && SortMergeJoin.canMerge(lj.p)) {
+            boolean sorted1 = isSortedOn(plan1, t1id);
+            boolean sorted2 = isSortedOn(plan2, t2id);
+            if (sorted1 && sorted2) {
+                return new SortMergeJoin(p, plan1, plan2);
+            }
+            if (lj.p != Predicate.Op.EQUALS) {
+                // 范围连接排序后只读匹配的元组，总比嵌套循环比较所有的元组对好
+                return new SortMergeJoin(p, sorted1 ? plan1 : new OrderBy(t1id, true, plan1),
+                        sorted2 ? plan2 : new OrderBy(t2id, true, plan2));
+            }
+        }
+
         if (lj.p == Predicate.Op.EQUALS) {
 
             try {
                 // dynamically load HashEquiJoin -- if it doesn't exist, just
                 // fall back on regular join
                 Class<?> c = Class.forName("simpledb.execution.HashEquiJoin");
-                java.lang.reflect.Constructor<?> ct = c.getConstructors()[0];
+                java.lang.reflect.Constructor<?> ct = c.getConstructor(
+                        JoinPredicate.class, OpIterator.class, OpIterator.class);
                 j = (OpIterator) ct
                         .newInstance(new Object[] { p, plan1, plan2 });
             } catch (Exception e) {
@@ -93,6 +109,55 @@ public class JoinOptimizer {
 
     }
 
+    /**
+     * Return true if plan returns its tuples in ascending order of the field
+     * at index field: a scan of a B+ tree file on its key, possibly filtered,
+     * an ascending OrderBy on the field, or a sort-merge join sorted on it.
+     */
+    static boolean isSortedOn(OpIterator plan, int field) {
+        if (plan instanceof SeqScan) {
+            SeqScan ss = (SeqScan) plan;
+            DbFile f = Database.getCatalog().getDatabaseFile(
+                    Database.getCatalog().getTableId(ss.getTableName()));
+            return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+        } else if (plan instanceof Filter) {
+            return isSortedOn(((Filter) plan).getChildren()[0], field);
+        } else if (plan instanceof OrderBy) {
+            OrderBy ob = (OrderBy) plan;
+            return ob.isASC() && ob.getOrderByField() == field;
+        } else if (plan instanceof SortMergeJoin) {
+            return ((SortMergeJoin) plan).isSortedOn(field);
+        }
+        return false;
+    }
+
+    /**
+     * Return true if the table with the specified alias in the query is a B+
+     * tree file keyed on the field, so that scanning it returns its tuples
+     * in ascending order of the field.
+     */
+    private boolean isSortedTable(String tableAlias, String field) {
+        Integer tableId = tableAlias == null ? null : p.getTableId(tableAlias);
+        if (tableId == null) {
+            return false;
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        return f instanceof BTreeFile
+                && field.equals(f.getTupleDesc().getFieldName(((BTreeFile) f).keyField()));
+    }
+
+    /**
+     * Estimate the cost of a join of two tables, each of which is sorted on
+     * its join field if it is a B+ tree file keyed on it; see
+     * {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double, boolean, boolean)}.
+     */
+    public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2,
+                isSortedTable(j.t1Alias, j.f1PureName),
+                isSortedTable(j.t2Alias, j.f2PureName));
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -116,11 +181,17 @@ public class JoinOptimizer {
      * @param cost2
      *            Estimated cost of one full scan of the table on the right-hand
      *            side of the query
+     * @param sorted1
+     *            Whether the left-hand side returns its tuples in ascending
+     *            order of the join field
+     * @param sorted2
+     *            Whether the right-hand side returns its tuples in ascending
+     *            order of the join field
      * @return An estimate of the cost of this query, in terms of cost1 and
      *         cost2
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
-            double cost1, double cost2) {
+            double cost1, double cost2, boolean sorted1, boolean sorted2) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
@@ -132,10 +203,32 @@ public class JoinOptimizer {
             // a join algorithm that's more complicated than a basic
             // nested-loops join.
 
+            if (j.p == Predicate.Op.EQUALS && sorted1 && sorted2) {
+                // 归并：两边各读一遍，每个元组比较一次
+                return cost1 + cost2 + card1 + card2;
+            }
+            if (j.p != Predicate.Op.EQUALS && SortMergeJoin.canMerge(j.p)) {
+                // 没有排好序的一边先排序；然后外层的每个元组重读内层中匹配的前缀，
+                // 按 estimateTableJoinCardinality 的估计是内层的 30%
+                boolean leftOuter = j.p == Predicate.Op.GREATER_THAN
+                        || j.p == Predicate.Op.GREATER_THAN_OR_EQ;
+                double rescans = leftOuter ? card1 * cost2 : card2 * cost1;
+                double sort = (sorted1 ? 0 : sortCost(card1)) + (sorted2 ? 0 : sortCost(card2));
+                return cost1 + cost2 + sort + RANGE_SELECTIVITY * rescans
+                        + card1 + card2 + RANGE_SELECTIVITY * card1 * card2;
+            }
             return cost1 + card1 * cost2 + card1 * card2;
         }
     }
 
+    /** The fraction of pairs a range join predicate is estimated to match */
+    private static final double RANGE_SELECTIVITY = 0.3;
+
+    /** The number of comparisons to sort card tuples */
+    private static double sortCost(int card) {
+        return card * (Math.log(Math.max(card, 2)) / Math.log(2));
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -253,6 +346,9 @@ public class JoinOptimizer {
         PlanCache pc = new PlanCache();
         List<LogicalJoinNode> j = joins;
         int jSize = j.size();
+        // 只有一张表的查询没有连接要排
+        if (jSize == 0)
+            return j;
         Set<LogicalJoinNode> wholeSet = null;
         for(int i = 1; i <= jSize; i++){
             Set<Set<LogicalJoinNode>> sets = enumerateSubsets(j, i);
@@ -400,11 +496,15 @@ public class JoinOptimizer {
             }
         }
 
+        // 只有基表的扫描可能是有序的；子计划的顺序不知道
+        boolean t1sorted = !doesJoin(prevBest, table1Alias) && isSortedTable(table1Alias, j.f1PureName);
+        boolean t2sorted = !doesJoin(prevBest, table2Alias) && isSortedTable(table2Alias, j.f2PureName);
+
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, t1sorted, t2sorted);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, t2sorted, t1sorted);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
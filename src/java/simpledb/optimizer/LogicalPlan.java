@@ -15,9 +15,9 @@ import java.io.File;
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, and a list of group by fields.
+ * All the aggregates of a query are computed by one {@link Aggregate}
+ * operator, grouped by all of its group by fields.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -32,12 +32,17 @@ public class LogicalPlan {
     private final Map<String,Integer> tableMap;
 
     private final List<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private final List<String> groupByFields = new ArrayList<>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    /** 每个聚合的操作和被聚合的列，按加入的顺序 */
+    private final List<String> aggOps = new ArrayList<>();
+    private final List<String> aggFields = new ArrayList<>();
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = OrderBy.NO_LIMIT;
+    private int sortMemory = OrderBy.SORT_MEMORY;
+    private int aggregateMemory = Aggregate.GROUP_MEMORY;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
     private String query;
 //    private Query owner;
 
@@ -189,23 +194,36 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  All the aggregates of the query are computed in one
+        pass, grouped by every field added with {@link #addGroupBy} or
+        passed here.
         @param op the aggregation operator
-        @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param afield the field to aggregate over, or "*" for COUNT(*)
+        @param gfield a field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
+        if (afield.equals("*"))
+            afield="null.*";
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupBy(gfield);
+        aggOps.add(op);
+        aggFields.add(afield);
         hasAgg = true;
     }
 
+    /** Add a field to the GROUP BY list of the query.  The output of the
+        aggregate has one column for each group by field, in the order added.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.add(gfield);
+    }
+
     /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
         a single ORDER BY field.
         @param field the field to order by
@@ -219,6 +237,38 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Return only the first limit tuples of the ORDER BY.  SimpleDb only supports
+        LIMIT together with ORDER BY.
+        @param limit the most tuples to return, or OrderBy.NO_LIMIT
+    */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    /** Set the most tuples the ORDER BY of this query holds in memory before
+        sorting on disk.
+        @param tuples the memory budget, in tuples
+    */
+    public void setSortMemory(int tuples) {
+        this.sortMemory = tuples;
+    }
+
+    /** Set the most groups the aggregate of this query holds in memory before
+        spilling them to disk.
+        @param groups the memory budget, in groups
+    */
+    public void setAggregateMemory(int groups) {
+        this.aggregateMemory = groups;
+    }
+
+    /** Set the most threads the aggregate of this query may scan and aggregate
+        with. It runs on one thread unless the table is big enough for more.
+        @param workers the most threads, the number of processors by default
+    */
+    public void setParallelism(int workers) {
+        this.parallelism = workers;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -324,10 +374,11 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c));
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            try {
+                f = ftyp.parse(lf.c);
+            } catch (java.text.ParseException | NumberFormatException e) {
+                throw new ParsingException("Cannot compare " + lf.fieldQuantifiedName + " to " + lf.c + ": " + e.getMessage());
+            }
 
             Predicate p = null;
             try {
@@ -413,28 +464,43 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.get(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                //the aggregates come after the group by fields in the output of the Aggregate
+                int k = 0;
+                while (k < aggOps.size() && !(aggOps.get(k).equalsIgnoreCase(si.aggOp) && aggFields.get(k).equals(si.fname)))
+                    k++;
+                if (k == aggOps.size()) {
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the query");
+                }
+                outFields.add(groupByFields.size() + k);
+                if (si.fname.equals("null.*")) {
+                    if (getAggOp(si.aggOp) != Aggregator.Op.COUNT) {
+                        throw new ParsingException("Only COUNT can be applied to *");
+                    }
+                    outTypes.add(Type.INT_TYPE);
+                    continue;
+                }
                 TupleDesc td = node.getTupleDesc();
-//                int  id;
+                int  id;
                 try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
+                    id = td.fieldNameToIndex(si.fname);
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
-                outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
+                //count is INT, the other aggregates have the type of the aggregated field
+                outTypes.add(getAggOp(si.aggOp) == Aggregator.Op.COUNT ? Type.INT_TYPE : td.getFieldType(id));
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int g = groupByFields.indexOf(si.fname);
+                    if (g < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(g);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -461,10 +527,29 @@ public class LogicalPlan {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] gfields = new int[groupByFields.size()];
+                for (int g = 0; g < gfields.length; g++)
+                    gfields[g] = td.fieldNameToIndex(groupByFields.get(g));
+                int[] afields = new int[aggOps.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[afields.length];
+                for (int k = 0; k < afields.length; k++) {
+                    aops[k] = getAggOp(aggOps.get(k));
+                    //COUNT(*) 不读被聚合的列，随便给一列
+                    afields[k] = aggFields.get(k).equals("null.*") ? 0 : td.fieldNameToIndex(aggFields.get(k));
+                }
+                //表够大的话几个线程分段扫描，各自先聚合再合并
+                int workers = 1;
+                if (tables.size() == 1) {
+                    TableStats s = baseTableStats.get(Database.getCatalog().getTableName(tables.get(0).t));
+                    if (s != null) {
+                        workers = Math.min(parallelism, s.totalTuples() / ParallelAggregate.MIN_TUPLES_PER_WORKER);
+                    }
+                }
+                if (workers > 1 && ParallelAggregate.canParallelize(node, afields, aops)) {
+                    aggNode = new ParallelAggregate(node, afields, gfields, aops, aggregateMemory, workers);
+                } else {
+                    aggNode = new Aggregate(node, afields, gfields, aops, aggregateMemory);
+                }
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
@@ -472,7 +557,10 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node,
+                    limit, sortMemory);
+        } else if (limit != OrderBy.NO_LIMIT) {
+            throw new ParsingException("LIMIT is only supported with ORDER BY");
         }
 
         return new Project(outFields, outTypes, node);
@@ -82,6 +82,10 @@ public class TableStats {
     private Map<Integer, Integer> minMap;
     private Map<Integer, IntHistogram> intHistogramMap;
     private Map<Integer, StringHistogram> stringHistogramMap;
+    // LONG, DOUBLE 和 DATE 列的直方图
+    private Map<Integer, Double> doubleMaxMap;
+    private Map<Integer, Double> doubleMinMap;
+    private Map<Integer, DoubleHistogram> doubleHistogramMap;
 
     /**
      * Create a new TableStats object, that keeps track of statistics on each
@@ -106,13 +110,17 @@ public class TableStats {
         this.ioCostPerPage = ioCostPerPage;
         this.ntups = 0;
         dbFile = Database.getCatalog().getDatabaseFile(tableid);
-        tupleIter = dbFile.iterator(new TransactionId());
+        // 用 ScanRing 扫描，避免统计信息的计算把缓冲池里的热页面挤出去
+        tupleIter = dbFile.iterator(new TransactionId(), SeqScan.newScanRing(dbFile));
 
         td = dbFile.getTupleDesc();
         maxMap = new HashMap<>();
         minMap = new HashMap<>();
         intHistogramMap = new HashMap<>();
         stringHistogramMap = new HashMap<>();
+        doubleMaxMap = new HashMap<>();
+        doubleMinMap = new HashMap<>();
+        doubleHistogramMap = new HashMap<>();
         try{
             tupleIter.open();
             while(tupleIter.hasNext()){
@@ -125,6 +133,10 @@ public class TableStats {
                         IntField temp = (IntField) field;
                         maxMap.put(i, Math.max(maxMap.getOrDefault(i, Integer.MIN_VALUE), temp.getValue()));
                         minMap.put(i, Math.min(minMap.getOrDefault(i, Integer.MAX_VALUE), temp.getValue()));
+                    }else if(field.getType() != Type.STRING_TYPE){
+                        double v = DoubleHistogram.valueOf(field);
+                        doubleMaxMap.put(i, Math.max(doubleMaxMap.getOrDefault(i, v), v));
+                        doubleMinMap.put(i, Math.min(doubleMinMap.getOrDefault(i, v), v));
                     }else{
                         StringField temp = (StringField) field;
                         StringHistogram stringHistogram = stringHistogramMap.getOrDefault(i, new StringHistogram(NUM_HIST_BINS));
@@ -140,6 +152,9 @@ public class TableStats {
         for(Integer fieldId : maxMap.keySet()){
             intHistogramMap.put(fieldId, new IntHistogram(NUM_HIST_BINS, minMap.get(fieldId), maxMap.get(fieldId)));
         }
+        for(Integer fieldId : doubleMaxMap.keySet()){
+            doubleHistogramMap.put(fieldId, new DoubleHistogram(NUM_HIST_BINS, doubleMinMap.get(fieldId), doubleMaxMap.get(fieldId)));
+        }
         try {
             while (tupleIter.hasNext()){
                 Tuple tuple = tupleIter.next();
@@ -152,6 +167,8 @@ public class TableStats {
                         IntHistogram intHistogram = intHistogramMap.get(i);
                         intHistogram.addValue(temp.getValue());
                         intHistogramMap.put(i, intHistogram);
+                    }else if(field.getType() != Type.STRING_TYPE){
+                        doubleHistogramMap.get(i).addValue(DoubleHistogram.valueOf(field));
                     }
                 }
             }
@@ -229,6 +246,10 @@ public class TableStats {
             IntField intField = (IntField) constant;
             IntHistogram intHistogram = intHistogramMap.get(field);
             result += intHistogram.estimateSelectivity(op, intField.getValue());
+        }else if(constant.getType() != Type.STRING_TYPE){
+            DoubleHistogram doubleHistogram = doubleHistogramMap.get(field);
+            // 空表没有直方图
+            result += doubleHistogram == null ? 0.0 : doubleHistogram.estimateSelectivity(op, DoubleHistogram.valueOf(constant));
         }else{
             StringField stringField = (StringField) constant;
             StringHistogram stringHistogram = stringHistogramMap.get(field);
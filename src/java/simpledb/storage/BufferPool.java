@@ -10,10 +10,16 @@ import simpledb.transaction.TransactionId;
 import java.io.*;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
-import java.util.PrimitiveIterator;
-import java.util.Random;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -23,28 +29,34 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The page table is split into a power-of-two number of shards keyed by the
+ * hash of the PageId. Each shard has its own {@link EvictionPolicy} instance
+ * of the kind chosen at construction, and lookups go through a
+ * ConcurrentHashMap, so hits on pages of different shards never contend.
+ * The total number of cached pages is bounded by numPages across all shards.
+ * <p>
+ * A page is read from disk by one thread at a time: concurrent misses on the
+ * same page wait for the first reader and then find the page cached. Scans
+ * can have the pages ahead of them prefetched by the pool's {@link ReadAhead}.
  * 
  * @Threadsafe, all fields are final
  */
 public class BufferPool {
-    class ListNode{
-        PageId pageId;
-        Page page;
-        ListNode pre;
-        ListNode next;
-        public ListNode(){}
-        public ListNode(PageId _pageId, Page _page){
-            pageId = _pageId;
-            page = _page;
-        }
-        public Page getPage() {
-            return page;
-        }
+    /**
+     * One partition of the page table. frames may be read without holding
+     * the shard's monitor; every structural change of frames, and every
+     * policy call except pageAccessed, happens while holding it.
+     */
+    static class Shard{
+        final ConcurrentHashMap<PageId, Page> frames = new ConcurrentHashMap<>();
+        final EvictionPolicy policy;
 
-        public void setPage(Page page) {
-            this.page = page;
+        Shard(EvictionPolicy policy){
+            this.policy = policy;
         }
     }
+
     /** Bytes per page, including header. */
     private static final int DEFAULT_PAGE_SIZE = 4096;
 
@@ -55,15 +67,43 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    private int numPages;
+    /** Replacement policy used when none is passed to the constructor. */
+    public static final EvictionPolicy.Kind DEFAULT_EVICTION_POLICY = EvictionPolicy.Kind.CLOCK;
+
+    /** Upper bound on the number of shards of the page table. */
+    private static final int MAX_SHARDS = 16;
+
+    /** Pages per shard below which the pool does not split further. */
+    private static final int MIN_PAGES_PER_SHARD = 8;
+
+    /** Largest number of frames of a {@link ScanRing}. */
+    public static final int MAX_SCAN_RING_PAGES = 8;
+
+    private final int numPages;
+
+    private final Shard[] shards;
+
+    /** 所有 shard 中的页面数，包括已经预留、正在读入的页面 */
+    private final AtomicInteger size;
+
+    /** 下一次淘汰从哪个 shard 开始找 */
+    private final AtomicInteger evictHand;
+
+    private final LockManager lockManager;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
 
-    private ConcurrentHashMap<PageId, ListNode> bufferPool;
+    /** 通过 ScanRing 读入、还没有被其他事务访问过的页面 */
+    private final Set<PageId> ringPages;
 
-    private LockManager lockManager;
+    /** 预读进来、还没有被 getPage 访问过的页面 */
+    private final Set<PageId> prefetchedPages;
 
-    /** 定义双向循环链表的头和尾，方便后续操作 **/
-    private ListNode head;
-    private ListNode last;
+    /** 正在从磁盘读入的页面 -> 读入期间的锁，保证同一页面只读一次 */
+    private final ConcurrentHashMap<PageId, Object> loading;
+
+    private final ReadAhead readAhead;
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -71,14 +111,34 @@ public class BufferPool {
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, DEFAULT_EVICTION_POLICY);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and replaces
+     * them with the given policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy of every shard.
+     */
+    public BufferPool(int numPages, EvictionPolicy.Kind policy) {
         // some code goes here
         this.numPages = numPages;
-        bufferPool = new ConcurrentHashMap<>();
+        int numShards = Integer.highestOneBit(Math.max(1, Math.min(MAX_SHARDS, numPages / MIN_PAGES_PER_SHARD)));
+        shards = new Shard[numShards];
+        int shardCapacity = (numPages + numShards - 1) / numShards;
+        for(int i = 0; i < numShards; i++){
+            shards[i] = new Shard(policy.create(shardCapacity));
+        }
+        hits = new LongAdder();
+        misses = new LongAdder();
+        ringPages = ConcurrentHashMap.newKeySet();
+        prefetchedPages = ConcurrentHashMap.newKeySet();
+        loading = new ConcurrentHashMap<>();
+        readAhead = new ReadAhead(this, numPages);
+        size = new AtomicInteger(0);
+        evictHand = new AtomicInteger(0);
         lockManager = new LockManager();
-        head = new ListNode();
-        last = new ListNode();
-        head.next = last;
-        last.pre = head;
     }
     
     public static int getPageSize() {
@@ -95,6 +155,48 @@ public class BufferPool {
     	BufferPool.pageSize = DEFAULT_PAGE_SIZE;
     }
 
+    /** Return the number of pages currently cached in this pool. */
+    public int getNumCachedPages() {
+        return size.get();
+    }
+
+    /** Return the number of getPage calls served from the pool. */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Return the number of pages read from disk into the pool, either by a
+     * getPage call that missed or by read-ahead.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /** Return the read-ahead service of this pool. */
+    public ReadAhead getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Return a ring for a sequential scan over a table of tablePages pages,
+     * or null if the whole table fits in the pool and can be cached normally.
+     *
+     * @see ScanRing
+     */
+    public ScanRing newScanRing(int tablePages) {
+        if(tablePages <= numPages){
+            return null;
+        }
+        return new ScanRing(Math.max(1, Math.min(MAX_SCAN_RING_PAGES, numPages / 8)));
+    }
+
+    private Shard shardOf(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return shards[h & (shards.length - 1)];
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -111,80 +213,257 @@ public class BufferPool {
      * @param perm the requested permissions on the page
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page as {@link #getPage(TransactionId, PageId, Permissions)}
+     * does, on behalf of a sequential scan using the given ring. A page that
+     * is not cached yet is read into one of the ring's frames, and a cache
+     * hit does not count as a use of the page for replacement.
+     *
+     * @param ring the scan's ring, or null to use the pool normally
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
         throws TransactionAbortedException, DbException {
         // some code goes
         int lockType;
         if(perm.equals(Permissions.READ_ONLY)){
-            lockType = 0;
+            lockType = LockManager.SHARED;
         }else{
-            lockType = 1;
+            lockType = LockManager.EXCLUSIVE;
         }
-        final long start = System.currentTimeMillis();
-        long timeout = new Random().nextInt(2000) + 1000;
-        while(true){
-            final long cur = System.currentTimeMillis();
-            if(cur - start > timeout){
-                transactionComplete(tid, false);
-                throw new TransactionAbortedException();
-            }
+        // 阻塞直到拿到锁；若成为死锁的牺牲者则中止事务
+        try {
+            lockManager.acquireLock(tid, pid, lockType);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            transactionComplete(tid, false);
+            throw new TransactionAbortedException();
+        } catch (TransactionAbortedException e) {
+            transactionComplete(tid, false);
+            throw e;
+        }
+        return fetchPage(pid, ring);
+    }
 
-            if(lockManager.acquireLock(tid, pid, lockType)){
-                break;
+    /**
+     * Retrieve the specified page as {@link #getPage(TransactionId, PageId, Permissions)}
+     * does, but only if the lock can be granted right away.
+     *
+     * @return the page, or null if another transaction holds or waits for a
+     *         conflicting lock on it
+     */
+    public Page tryGetPage(TransactionId tid, PageId pid, Permissions perm) throws DbException {
+        int lockType = perm.equals(Permissions.READ_ONLY) ? LockManager.SHARED : LockManager.EXCLUSIVE;
+        if(!lockManager.tryAcquireLock(tid, pid, lockType)){
+            return null;
+        }
+        return fetchPage(pid, null);
+    }
+
+    /**
+     * Return the cached page, reading it from disk first if necessary. The
+     * caller holds a lock on it.
+     */
+    private Page fetchPage(PageId pid, ScanRing ring) throws DbException {
+        Shard shard = shardOf(pid);
+        Page cached = shard.frames.get(pid);
+        if(cached == null){
+            // 在磁盘上读页面时不持有 shard 的锁，只持有这个页面的读入锁
+            Object latch = loading.computeIfAbsent(pid, k -> new Object());
+            synchronized (latch){
+                try{
+                    cached = shard.frames.get(pid);
+                    if(cached == null){
+                        misses.increment();
+                        Page page;
+                        try{
+                            page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                        }catch (PageCorruptedException e){
+                            throw new DbException(e.getMessage());
+                        }
+                        if(ring != null){
+                            addToRing(ring, pid);
+                        }
+                        return cachePage(shard, page, false);
+                    }
+                }finally {
+                    loading.remove(pid, latch);
+                }
             }
         }
-        if(bufferPool.containsKey(pid)){
-            ListNode node = bufferPool.get(pid);
-            moveNodeToHead(node);
-            return node.page;
-        }else{
-            Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-            ListNode node = new ListNode(pid, page);
-            if(bufferPool.size() == numPages){
-                evictPage();
+        hits.increment();
+        if(!prefetchedPages.isEmpty() && prefetchedPages.remove(pid)){
+            readAhead.prefetchUsed();
+            if(ring != null){
+                // 预读的页面第一次被扫描用到时归入扫描的 ring
+                addToRing(ring, pid);
+                return cached;
+            }
+        }
+        if(ring == null){
+            if(!ringPages.isEmpty()){
+                ringPages.remove(pid);
             }
-            insertHeadNode(node);
-            bufferPool.put(pid, node);
-            return page;
+            shard.policy.pageAccessed(pid);
         }
+        return cached;
     }
 
-    private void insertHeadNode(ListNode node) {
-        node.next = head.next;
-        head.next.pre = node;
-        head.next = node;
-        node.pre = head;
+    private void addToRing(ScanRing ring, PageId pid) {
+        PageId recycled = ring.add(pid);
+        if(recycled != null){
+            recyclePage(recycled);
+        }
+        ringPages.add(pid);
     }
 
-    private void moveNodeToHead(ListNode node) {
-        ListNode a = node.pre;
-        ListNode b = node.next;
-        if(a != head){
-            a.next = b;
-            b.pre = a;
-            node.next = head.next;
-            head.next.pre = node;
-            head.next = node;
-            node.pre = head;
+    /**
+     * Read a page into the pool on behalf of {@link ReadAhead}, without a
+     * transaction. The page is only read if no transaction holds or waits
+     * for an exclusive lock on it: the read happens under a shared lock of a
+     * fresh TransactionId, taken without waiting and released right after.
+     *
+     * @param wanted checked once no other thread can be reading the page;
+     *               the page is not read if it returns false
+     * @return the cached page, or null if it could not or need not be read right now
+     */
+    Page prefetchPage(PageId pid, BooleanSupplier wanted) {
+        Shard shard = shardOf(pid);
+        Page cached = shard.frames.get(pid);
+        if(cached != null){
+            return cached;
+        }
+        TransactionId tid = new TransactionId();
+        try{
+            if(!lockManager.tryAcquireLock(tid, pid, LockManager.SHARED)){
+                return null;
+            }
+            Object latch = loading.computeIfAbsent(pid, k -> new Object());
+            synchronized (latch){
+                try{
+                    cached = shard.frames.get(pid);
+                    if(cached != null){
+                        return cached;
+                    }
+                    if(!wanted.getAsBoolean()){
+                        return null;
+                    }
+                    misses.increment();
+                    Page page;
+                    try{
+                        page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                    }catch (PageCorruptedException e){
+                        // 留给扫描自己读这个页面时报错
+                        return null;
+                    }
+                    if(page == null){
+                        return null;
+                    }
+                    // 先登记再放入缓冲池，这样扫描第一次命中时一定能认出它
+                    prefetchedPages.add(pid);
+                    cached = cachePage(shard, page, false);
+                    if(cached == page){
+                        readAhead.pagePrefetched();
+                    }else{
+                        prefetchedPages.remove(pid);
+                    }
+                    return cached;
+                }finally {
+                    loading.remove(pid, latch);
+                }
+            }
+        }catch (DbException | RuntimeException e){
+            // 预读只是提示，读不到就算了
+            return null;
+        }finally {
+            lockManager.releaseAllLocks(tid);
         }
     }
-    private void moveNodeToLast(ListNode node){
-        ListNode a = node.pre;
-        ListNode b = node.next;
-        if(b != last){
-            a.next = b;
-            b.pre = a;
-            node.pre = last.pre;
-            last.pre.next = node;
-            node.next = last;
-            last.pre = node;
+
+    /**
+     * Drop a page read through a ScanRing from the pool, unless another
+     * transaction has used it since or it is dirty.
+     */
+    private void recyclePage(PageId pid) {
+        if(!ringPages.remove(pid)){
+            return;
+        }
+        Shard shard = shardOf(pid);
+        synchronized (shard){
+            Page page = shard.frames.get(pid);
+            if(page != null && page.isDirty() == null){
+                shard.frames.remove(pid);
+                shard.policy.pageRemoved(pid);
+                size.decrementAndGet();
+            }
         }
     }
-    private ListNode deleteLastNode() {
-        ListNode node = last.pre;
-        ListNode a = node.pre;
-        a.next = last;
-        last.pre = a;
-        return node;
+
+    /**
+     * Put page into its shard, evicting another page first if the pool is
+     * full.
+     *
+     * @param replace whether page replaces an already cached version
+     * @return the cached version of the page
+     */
+    private Page cachePage(Shard shard, Page page, boolean replace) throws DbException {
+        PageId pid = page.getId();
+        if(!replace){
+            Page cached = shard.frames.get(pid);
+            if(cached != null){
+                shard.policy.pageAccessed(pid);
+                return cached;
+            }
+        }else{
+            synchronized (shard){
+                if(shard.frames.replace(pid, page) != null){
+                    shard.policy.pageAccessed(pid);
+                    return page;
+                }
+            }
+        }
+        reserveFrame();
+        boolean inserted = false;
+        try{
+            synchronized (shard){
+                Page cached = shard.frames.get(pid);
+                if(cached == null){
+                    shard.frames.put(pid, page);
+                    shard.policy.pageAdded(pid);
+                    inserted = true;
+                    return page;
+                }
+                if(replace){
+                    shard.frames.put(pid, page);
+                    cached = page;
+                }
+                shard.policy.pageAccessed(pid);
+                return cached;
+            }
+        }finally {
+            if(!inserted){
+                size.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Reserve room for one more page, evicting pages until there is some.
+     */
+    private void reserveFrame() throws DbException {
+        while(true){
+            int n = size.get();
+            if(n < numPages){
+                if(size.compareAndSet(n, n + 1)){
+                    return;
+                }
+            }else{
+                evictPage();
+            }
+        }
     }
 
     /**
@@ -239,20 +518,17 @@ public class BufferPool {
         }else{
             restorePage(tid);
         }
-        for(PageId pid : bufferPool.keySet()){
-            if(lockManager.hasLock(tid, pid)){
-                unsafeReleasePage(tid, pid);
-            }
-        }
+        lockManager.releaseAllLocks(tid);
     }
-    public synchronized void restorePage(TransactionId tid){
-        for(PageId pid :bufferPool.keySet()){
-            ListNode node = bufferPool.get(pid);
-            Page page = node.getPage();
-            if(page.isDirty() == tid){
-                Page temp = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-                node.setPage(temp);
-                bufferPool.put(pid, node);
+    public void restorePage(TransactionId tid){
+        for(Shard shard : shards){
+            for(Map.Entry<PageId, Page> entry : shard.frames.entrySet()){
+                Page page = entry.getValue();
+                if(page.isDirty() == tid){
+                    PageId pid = entry.getKey();
+                    Page temp = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                    shard.frames.replace(pid, page, temp);
+                }
             }
         }
     }
@@ -276,15 +552,11 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
         List<Page> dirtyPages = file.insertTuple(tid, t);
         for(Page page : dirtyPages){
             page.markDirty(true, tid);
-            ListNode node = bufferPool.get(page.getId());
-            node.setPage(page);
-            bufferPool.put(page.getId(), node);
-            insertHeadNode(node);
-
+            cachePage(shardOf(page.getId()), page, true);
         }
     }
 
@@ -305,14 +577,11 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
-        ArrayList<Page> dirtyPages = file.deleteTuple(tid, t);
+        DbFile file = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
+        List<Page> dirtyPages = file.deleteTuple(tid, t);
         for(Page page : dirtyPages){
             page.markDirty(true, tid);
-            ListNode node = bufferPool.get(page.getId());
-            node.setPage(page);
-            bufferPool.put(page.getId(), node);
-            insertHeadNode(node);
+            cachePage(shardOf(page.getId()), page, true);
         }
 
     }
@@ -322,13 +591,10 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        for(PageId pid : bufferPool.keySet()){
-            flushPage(pid);
-        }
-
+        writeDirtyPages(page -> true);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -339,68 +605,95 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        bufferPool.remove(pid);
+        Shard shard = shardOf(pid);
+        synchronized (shard){
+            if(shard.frames.remove(pid) != null){
+                shard.policy.pageRemoved(pid);
+                size.decrementAndGet();
+            }
+        }
+        prefetchedPages.remove(pid);
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        ListNode listNode = bufferPool.get(pid);
-        Page page = listNode.page;
-        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+        Page page = shardOf(pid).frames.get(pid);
+        if(page == null || page.isDirty() == null){
+            return;
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
         file.writePage(page);
         page.markDirty(false, null);
-        listNode.setPage(page);
-        bufferPool.put(pid, listNode);
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        for (PageId pageId : bufferPool.keySet()){
-            Page page = bufferPool.get(pageId).getPage();
-            if(page.isDirty() == tid){
-                flushPage(pageId);
+        writeDirtyPages(page -> page.isDirty() == tid);
+    }
+
+    /**
+     * Write the dirty pages accepted by which to disk and mark them clean.
+     * The pages are sorted by (table, page number) and handed to each file
+     * in one {@link DbFile#writePages} call, so pages that are adjacent on
+     * disk are written together.
+     */
+    private void writeDirtyPages(Predicate<Page> which) throws IOException {
+        Map<Integer, List<Page>> byTable = new TreeMap<>();
+        for(Shard shard : shards){
+            for(Page page : shard.frames.values()){
+                if(page.isDirty() != null && which.test(page)){
+                    byTable.computeIfAbsent(page.getId().getTableId(), k -> new ArrayList<>()).add(page);
+                }
+            }
+        }
+        for(Map.Entry<Integer, List<Page>> entry : byTable.entrySet()){
+            List<Page> pages = entry.getValue();
+            pages.sort(Comparator.comparingInt(page -> page.getId().getPageNumber()));
+            Database.getCatalog().getDatabaseFile(entry.getKey()).writePages(pages);
+            for(Page page : pages){
+                page.markDirty(false, null);
             }
         }
     }
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Only clean pages are evicted (NO STEAL), so nothing has to be written.
+     * Shards are tried round-robin, each asking its policy for a victim.
      */
-    private synchronized  void evictPage() throws DbException {
+    private void evictPage() throws DbException {
         // some code goes here
         // not necessary for
-        ListNode removeNode = last.pre;
-        while(removeNode != head){
-            if(removeNode.page.isDirty() != null){
-                removeNode = removeNode.pre;
-            }else{
-                moveNodeToLast(removeNode);
-                deleteLastNode();
-                try {
-                    flushPage(removeNode.pageId);
-                    discardPage(removeNode.pageId);
+        int start = evictHand.getAndIncrement();
+        for(int i = 0; i < shards.length; i++){
+            Shard shard = shards[(start + i) & (shards.length - 1)];
+            synchronized (shard){
+                PageId victim = shard.policy.evict(pid -> {
+                    Page page = shard.frames.get(pid);
+                    return page != null && page.isDirty() == null;
+                });
+                if(victim != null){
+                    shard.frames.remove(victim);
+                    size.decrementAndGet();
+                    if(!prefetchedPages.isEmpty()){
+                        prefetchedPages.remove(victim);
+                    }
                     return;
-                } catch (IOException e) {
-                    e.printStackTrace();
                 }
             }
         }
         throw new DbException("都是脏页");
     }
 
-
-
-
 }
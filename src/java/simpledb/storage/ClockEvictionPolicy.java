@@ -0,0 +1,80 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second chance) replacement. A hit only sets the page's reference
+ * bit, and only if it is not already set, so hits on a hot page do not
+ * write anything and never take a lock. On eviction the hand sweeps the
+ * ring, clearing reference bits until it finds an unreferenced, evictable
+ * page.
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+
+    private static class Frame {
+        final PageId pid;
+        volatile boolean referenced = true;
+
+        Frame(PageId pid) {
+            this.pid = pid;
+        }
+    }
+
+    private final ConcurrentHashMap<PageId, Frame> frames = new ConcurrentHashMap<>();
+
+    /** 时钟环，由 this 的锁保护 */
+    private final List<Frame> ring = new ArrayList<>();
+    private int hand = 0;
+
+    @Override
+    public synchronized void pageAdded(PageId pid) {
+        Frame frame = new Frame(pid);
+        // 放在指针后面，转一整圈之后才会被检查
+        ring.add(hand, frame);
+        hand = (hand + 1) % ring.size();
+        frames.put(pid, frame);
+    }
+
+    @Override
+    public void pageAccessed(PageId pid) {
+        Frame frame = frames.get(pid);
+        if (frame != null && !frame.referenced) {
+            frame.referenced = true;
+        }
+    }
+
+    @Override
+    public synchronized void pageRemoved(PageId pid) {
+        Frame frame = frames.remove(pid);
+        if (frame != null) {
+            removeFromRing(ring.indexOf(frame));
+        }
+    }
+
+    @Override
+    public synchronized PageId evict(Predicate<PageId> evictable) {
+        // 两圈之内所有引用位都已被清除，仍找不到就说明没有可淘汰的页面
+        for (int i = 0, n = 2 * ring.size(); i < n && !ring.isEmpty(); i++) {
+            if (hand >= ring.size()) hand = 0;
+            Frame frame = ring.get(hand);
+            if (frame.referenced) {
+                frame.referenced = false;
+            } else if (evictable.test(frame.pid)) {
+                removeFromRing(hand);
+                frames.remove(frame.pid);
+                return frame.pid;
+            }
+            hand++;
+        }
+        return null;
+    }
+
+    private void removeFromRing(int idx) {
+        ring.remove(idx);
+        if (idx < hand) hand--;
+        if (hand >= ring.size()) hand = 0;
+    }
+}
@@ -0,0 +1,103 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * ColumnarHeapFile is a HeapFile whose pages are {@link ColumnarHeapPage}s,
+ * which keep the values of each column together within the page (the PAX
+ * layout). It is read, written and scanned like any other HeapFile, and in
+ * addition {@link #iterator(TransactionId, ScanRing, int[])} scans only some
+ * of its columns, reading only their part of each page.
+ * <p>
+ * As with {@link SlottedHeapFile}, the layout is not recorded in the file:
+ * a file written as a ColumnarHeapFile must always be opened as one. In a
+ * catalog file, a table is opened as a ColumnarHeapFile by following its
+ * schema with the word "columnar" (see
+ * {@link simpledb.common.Catalog#loadSchema}).
+ *
+ * @see HeapFile
+ * @see simpledb.execution.ColumnScan
+ */
+public class ColumnarHeapFile extends HeapFile {
+
+    /**
+     * Constructs a columnar heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     */
+    public ColumnarHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Constructs a columnar heap file backed by the specified file, whose
+     * pages are optionally stored compressed.
+     *
+     * @see HeapFile#HeapFile(File, TupleDesc, boolean)
+     */
+    public ColumnarHeapFile(File f, TupleDesc td, boolean compressed) {
+        super(f, td, compressed);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pgNo = pid.getPageNumber();
+        byte[] data = readPageData(pgNo);
+        if (data == null) {
+            return null;
+        }
+        try {
+            return new ColumnarHeapPage(new HeapPageId(pid.getTableId(), pgNo), data);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Return the TupleDesc of the tuples holding only the given columns of
+     * td, in the given order.
+     */
+    public static TupleDesc projectTupleDesc(TupleDesc td, int[] columns) {
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            types[i] = td.getFieldType(columns[i]);
+            names[i] = td.getFieldName(columns[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /**
+     * Return an iterator over the given columns of the tuples of this file:
+     * the i-th field of each tuple is column columns[i] of the table, and
+     * only the mini-pages of these columns are read from each page. The
+     * tuples have no RecordId.
+     *
+     * @param ring the ring to read pages through, or null to cache them
+     *             normally
+     * @throws IllegalArgumentException if a column is not a column of the table
+     */
+    public DbFileIterator iterator(TransactionId tid, ScanRing ring, int[] columns) {
+        for (int c : columns) {
+            if (c < 0 || c >= getTupleDesc().numFields()) {
+                throw new IllegalArgumentException("no column " + c + " in " + getTupleDesc());
+            }
+        }
+        final TupleDesc projected = projectTupleDesc(getTupleDesc(), columns);
+        final int[] cols = columns.clone();
+        return new HeapFileIterator(tid, ring) {
+            @Override
+            protected Iterator<Tuple> tuples(HeapPage page) {
+                return ((ColumnarHeapPage) page).iterator(projected, cols);
+            }
+        };
+    }
+}
@@ -0,0 +1,390 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * ColumnarHeapPage stores the tuples of a {@link ColumnarHeapFile} in the
+ * PAX layout: within the page, the values of each column are kept next to
+ * each other in a "mini-page", so a scan that reads one column of a wide
+ * table only touches the bytes of that column.
+ * <p>
+ * A page holds as many tuples as a {@link HeapPage} of the same schema,
+ * floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1)), and starts
+ * with the same header bitmap of used slots. The header is followed by one
+ * mini-page per column, in schema order; the mini-page of column j holds the
+ * value of every slot, used or not, in the fixed-length form of its type:
+ * <pre>
+ *   0                    header: ceiling(no. tuple slots / 8) bytes
+ *   h                    column 0: no. tuple slots * len(type 0) bytes
+ *   h + n * len(0)       column 1: no. tuple slots * len(type 1) bytes
+ *   ...
+ * </pre>
+ * An all-zero page is an empty page, so {@link HeapPage#createEmptyPageData}
+ * works for this layout too.
+ *
+ * @see ColumnarHeapFile
+ */
+public class ColumnarHeapPage extends HeapPage {
+
+    private final int numSlots;
+    private final int headerSize;
+
+    /** 每一列 mini-page 的起始偏移和每个值的字节数 */
+    private final int[] columnStart;
+    private final int[] columnLen;
+
+    /**
+     * 页面的字节，包括 header。shared 为 true 时被 before image、迭代器或者
+     * 已经返回的 tuple 引用，写入前要先复制
+     */
+    private byte[] data;
+    private boolean shared;
+
+    /** 已经返回过的 tuple，按 slot 缓存 */
+    private Tuple[] slotTuples;
+
+    private byte[] oldData;
+    private final Byte oldDataLock = (byte) 0;
+
+    /**
+     * Create a ColumnarHeapPage from a set of bytes of data read from disk,
+     * in the format described above. data is not copied, so the caller must
+     * not modify it afterwards; the page itself never writes to it.
+     */
+    public ColumnarHeapPage(HeapPageId id, byte[] data) throws IOException {
+        super(id);
+        int pageSize = BufferPool.getPageSize();
+        this.numSlots = (pageSize * 8) / (td.getSize() * 8 + 1);
+        this.headerSize = (numSlots + 7) / 8;
+        this.columnStart = new int[td.numFields()];
+        this.columnLen = new int[td.numFields()];
+        int pos = headerSize;
+        for (int j = 0; j < td.numFields(); j++) {
+            columnStart[j] = pos;
+            columnLen[j] = td.getFieldType(j).getLen();
+            pos += numSlots * columnLen[j];
+        }
+        if (data.length < pageSize) {
+            data = Arrays.copyOf(data, pageSize);
+        }
+        this.data = data;
+
+        setBeforeImage();
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    @Override
+    public ColumnarHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new ColumnarHeapPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    @Override
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = data;
+            shared = true;
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page. The
+     * values of empty slots are written as zeros.
+     */
+    @Override
+    public synchronized byte[] getPageData() {
+        byte[] out = data.clone();
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                for (int j = 0; j < columnStart.length; j++) {
+                    int start = columnStart[j] + i * columnLen[j];
+                    Arrays.fill(out, start, start + columnLen[j], (byte) 0);
+                }
+            }
+        }
+        return out;
+    }
+
+    private synchronized void ensureWritable() {
+        if (shared) {
+            data = data.clone();
+            shared = false;
+        }
+    }
+
+    @Override
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()) || !isSlotUsed(rid.getTupleNumber())) {
+            throw new DbException("the tuple is not on this page or tuple slot is already empty ***** from ColumnarHeapPage.deleteTuple(Tuple t)");
+        }
+        int slot = rid.getTupleNumber();
+        ensureWritable();
+        markSlotUsed(slot, false);
+        clearSlotTuple(slot);
+    }
+
+    @Override
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("tupledesc is mismatch ***** from ColumnarHeapPage.insertTuple");
+        }
+        int slot = 0;
+        while (slot < numSlots && isSlotUsed(slot)) {
+            slot++;
+        }
+        if (slot == numSlots) {
+            throw new DbException("page is full ***** from ColumnarHeapPage.insertTuple");
+        }
+        // 先把所有字段序列化好，失败时页面不变
+        byte[][] values = new byte[columnStart.length][];
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < columnStart.length; j++) {
+                baos.reset();
+                t.getField(j).serialize(dos);
+                dos.flush();
+                values[j] = baos.toByteArray();
+            }
+        } catch (IOException e) {
+            throw new DbException("cannot serialize tuple: " + e.getMessage());
+        }
+        ensureWritable();
+        for (int j = 0; j < columnStart.length; j++) {
+            System.arraycopy(values[j], 0, data, columnStart[j] + slot * columnLen[j],
+                    Math.min(values[j].length, columnLen[j]));
+        }
+        markSlotUsed(slot, true);
+        t.setRecordId(new RecordId(pid, slot));
+        clearSlotTuple(slot);
+    }
+
+    @Override
+    public int getNumEmptySlots() {
+        int count = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < numSlots && isUsed(data, i);
+    }
+
+    private static boolean isUsed(byte[] bytes, int i) {
+        return (bytes[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        int mask = 1 << (i % 8);
+        if (value) {
+            data[i / 8] = (byte) (data[i / 8] | mask);
+        } else {
+            data[i / 8] = (byte) (data[i / 8] & ~mask);
+        }
+    }
+
+    private synchronized Tuple slotTuple(byte[] bytes, int slotId) {
+        if (bytes != data) {
+            // 迭代器的快照已经过时，这个 slot 可能被改过，不能缓存
+            return new ColumnTuple(this, ByteBuffer.wrap(bytes), slotId);
+        }
+        if (slotTuples == null) {
+            slotTuples = new Tuple[numSlots];
+        }
+        Tuple t = slotTuples[slotId];
+        if (t == null) {
+            t = new ColumnTuple(this, ByteBuffer.wrap(bytes), slotId);
+            slotTuples[slotId] = t;
+        }
+        return t;
+    }
+
+    private synchronized void clearSlotTuple(int slotId) {
+        if (slotTuples != null) {
+            slotTuples[slotId] = null;
+        }
+    }
+
+    /**
+     * Take a snapshot of the page for an iterator: later inserts and deletes
+     * go to a copy and do not affect it.
+     */
+    private synchronized byte[] snapshot() {
+        shared = true;
+        return data;
+    }
+
+    private Field readField(ByteBuffer buf, int column, int slotId) {
+        try {
+            return td.getFieldType(column).parse(buf, columnStart[column] + slotId * columnLen[column]);
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    /**
+     * A tuple of this page whose fields are read from their column
+     * mini-pages the first time they are asked for.
+     */
+    private static final class ColumnTuple extends Tuple {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient ColumnarHeapPage page;
+        private final transient ByteBuffer data;
+        private final int slotId;
+        private boolean ridSet;
+
+        ColumnTuple(ColumnarHeapPage page, ByteBuffer data, int slotId) {
+            super(page.td);
+            this.page = page;
+            this.data = data;
+            this.slotId = slotId;
+        }
+
+        @Override
+        public Field getField(int i) {
+            Field f = super.getField(i);
+            if (f == null && i >= 0 && i < page.columnStart.length) {
+                f = page.readField(data, i, slotId);
+                super.setField(i, f);
+            }
+            return f;
+        }
+
+        @Override
+        public RecordId getRecordId() {
+            if (!ridSet) {
+                setRecordId(new RecordId(page.pid, slotId));
+            }
+            return super.getRecordId();
+        }
+
+        @Override
+        public void setRecordId(RecordId rid) {
+            ridSet = true;
+            super.setRecordId(rid);
+        }
+
+        /** Return an ordinary tuple with all fields decoded. */
+        private Tuple materialize() {
+            Tuple t = new Tuple(getTupleDesc());
+            for (int i = 0; i < getTupleDesc().numFields(); i++) {
+                t.setField(i, getField(i));
+            }
+            t.setRecordId(getRecordId());
+            return t;
+        }
+
+        @Override
+        public Iterator<Field> fields() {
+            return materialize().fields();
+        }
+
+        @Override
+        public String toString() {
+            return materialize().toString();
+        }
+
+        private Object writeReplace() {
+            return materialize();
+        }
+    }
+
+    private abstract class SlotIterator implements Iterator<Tuple> {
+
+        final byte[] snapshot = snapshot();
+        private int next = advance(0);
+
+        private int advance(int from) {
+            for (int i = from; i < numSlots; i++) {
+                if (isUsed(snapshot, i)) {
+                    return i;
+                }
+            }
+            return numSlots;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < numSlots;
+        }
+
+        @Override
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = tuple(next);
+            next = advance(next + 1);
+            return t;
+        }
+
+        abstract Tuple tuple(int slotId);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page when it is called;
+     * later inserts and deletes do not affect it
+     */
+    @Override
+    public Iterator<Tuple> iterator() {
+        return new SlotIterator() {
+            @Override
+            Tuple tuple(int slotId) {
+                return slotTuple(snapshot, slotId);
+            }
+        };
+    }
+
+    /**
+     * Return an iterator over the tuples on this page, holding only the
+     * given columns: the i-th field of each tuple is column columns[i] of
+     * the page. Only the mini-pages of these columns are read. The tuples
+     * have no RecordId, so they cannot be used to delete from the page.
+     *
+     * @param td      the TupleDesc of the returned tuples, see
+     *                {@link ColumnarHeapFile#projectTupleDesc}
+     * @param columns the indexes of the columns to read
+     */
+    public Iterator<Tuple> iterator(final TupleDesc td, final int[] columns) {
+        return new SlotIterator() {
+            private final ByteBuffer buf = ByteBuffer.wrap(snapshot);
+
+            @Override
+            Tuple tuple(int slotId) {
+                Tuple t = new Tuple(td);
+                for (int i = 0; i < columns.length; i++) {
+                    t.setField(i, readField(buf, columns[i], slotId));
+                }
+                return t;
+            }
+        };
+    }
+
+    /** Return the number of tuple slots of this page, used or not. */
+    public int getNumSlots() {
+        return numSlots;
+    }
+}
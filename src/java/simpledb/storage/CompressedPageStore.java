@@ -0,0 +1,224 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedPageStore keeps the pages of a file compressed with
+ * {@link Deflater}, each in an extent of the file, and translates logical
+ * page numbers to extents. Callers read and write whole uncompressed pages
+ * by page number, as they would in a file of fixed-size pages.
+ * <p>
+ * Every extent starts with a header describing it:
+ * <pre>
+ *   0   magic "CPG1" (int)
+ *   4   logical page number (int)
+ *   8   capacity: bytes reserved for the payload (int)
+ *   12  stored length: bytes of payload in use (int)
+ *   16  uncompressed length of the page (int)
+ *   20  codec: 0 stored as is, 1 deflate (byte), then 3 unused bytes
+ *   24  payload, padded to the capacity
+ * </pre>
+ * The file is a sequence of extents, so the translation table is rebuilt
+ * by walking the headers when the store is opened; no side file is needed.
+ * A page that is rewritten goes back into its extent if it fits, and
+ * otherwise into a new extent at the end of the file. The old extent is
+ * then dead: walking the file, a later extent of the same page replaces an
+ * earlier one. Space of dead extents is not reclaimed.
+ * <p>
+ * Pages that do not shrink are stored as is, so a page never takes more
+ * than its size plus the header.
+ *
+ * @Threadsafe
+ */
+class CompressedPageStore {
+
+    static final int MAGIC = 0x43504731; // "CPG1"
+    static final int HEADER_SIZE = 24;
+
+    static final byte STORED = 0;
+    static final byte DEFLATE = 1;
+
+    /** Payload capacities are rounded up to this, leaving room to grow in place */
+    private static final int GRANULE = 128;
+
+    private static final ThreadLocal<Deflater> DEFLATERS =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+    private final File f;
+    private final DbFileChannel channel;
+
+    /** 逻辑页号 -> extent 在文件中的位置和 payload 容量；第一次用到时扫描文件建立 */
+    private long[] offsets;
+    private int[] capacities;
+    private int numPages;
+    /** 文件中最后一个 extent 之后的位置，新的 extent 写在这里 */
+    private long end;
+
+    CompressedPageStore(File f, DbFileChannel channel) {
+        this.f = f;
+        this.channel = channel;
+    }
+
+    /**
+     * Build the translation table from the extent headers. The walk stops at
+     * the first header that is not valid, such as a partly written extent
+     * at the end of the file; the next extent is written over it.
+     */
+    private void open() throws IOException {
+        if (offsets != null) {
+            return;
+        }
+        offsets = new long[16];
+        capacities = new int[16];
+        numPages = 0;
+        long length = f.length();
+        long pos = 0;
+        byte[] header = new byte[HEADER_SIZE];
+        while (pos + HEADER_SIZE <= length) {
+            if (channel.read(header, HEADER_SIZE, pos) < HEADER_SIZE) {
+                break;
+            }
+            ByteBuffer buf = ByteBuffer.wrap(header);
+            int magic = buf.getInt();
+            int pgNo = buf.getInt();
+            int capacity = buf.getInt();
+            int stored = buf.getInt();
+            if (magic != MAGIC || pgNo < 0 || capacity < 0 || stored > capacity
+                    || pos + HEADER_SIZE + capacity > length) {
+                System.err.println("CompressedPageStore: ignoring " + (length - pos)
+                        + " bytes after offset " + pos + " of " + f);
+                break;
+            }
+            setExtent(pgNo, pos, capacity);
+            pos += HEADER_SIZE + capacity;
+        }
+        end = pos;
+    }
+
+    private void setExtent(int pgNo, long offset, int capacity) {
+        if (pgNo >= offsets.length) {
+            int n = Math.max(pgNo + 1, offsets.length * 2);
+            offsets = Arrays.copyOf(offsets, n);
+            capacities = Arrays.copyOf(capacities, n);
+        }
+        offsets[pgNo] = offset;
+        capacities[pgNo] = capacity;
+        numPages = Math.max(numPages, pgNo + 1);
+    }
+
+    /** Return the number of pages in the store. */
+    synchronized int numPages() throws IOException {
+        open();
+        return numPages;
+    }
+
+    /**
+     * Read and decompress page pgNo.
+     *
+     * @return the uncompressed bytes of the page, or null if there is no
+     * such page
+     * @throws IOException if the page cannot be read or is corrupt
+     */
+    byte[] read(int pgNo) throws IOException {
+        long offset;
+        int capacity;
+        synchronized (this) {
+            open();
+            if (pgNo < 0 || pgNo >= numPages) {
+                return null;
+            }
+            offset = offsets[pgNo];
+            capacity = capacities[pgNo];
+        }
+        byte[] extent = new byte[HEADER_SIZE + capacity];
+        if (channel.read(extent, extent.length, offset) < extent.length) {
+            throw new IOException("short extent of page " + pgNo + " in " + f);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(extent);
+        if (buf.getInt() != MAGIC || buf.getInt() != pgNo) {
+            throw new IOException("bad extent header of page " + pgNo + " in " + f);
+        }
+        buf.getInt();
+        int stored = buf.getInt();
+        int raw = buf.getInt();
+        byte codec = buf.get();
+        if (codec == STORED) {
+            return Arrays.copyOfRange(extent, HEADER_SIZE, HEADER_SIZE + stored);
+        }
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(extent, HEADER_SIZE, stored);
+        byte[] data = new byte[raw];
+        try {
+            int n = inflater.inflate(data);
+            if (n != raw || !inflater.finished()) {
+                throw new IOException("page " + pgNo + " of " + f + " decompressed to " + n + " bytes, expected " + raw);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt page " + pgNo + " in " + f + ": " + e.getMessage());
+        }
+        return data;
+    }
+
+    /**
+     * Compress data and write it as page pgNo, which is either an existing
+     * page or the page just after the last one.
+     *
+     * @throws IllegalArgumentException if pgNo would leave a gap in the store
+     */
+    void write(int pgNo, byte[] data) throws IOException {
+        byte[] extent = encode(pgNo, data);
+        int stored = ByteBuffer.wrap(extent).getInt(12);
+        synchronized (this) {
+            open();
+            if (pgNo < 0 || pgNo > numPages) {
+                throw new IllegalArgumentException("page " + pgNo + " is past the end of " + f);
+            }
+            int len = HEADER_SIZE + stored;
+            if (pgNo < numPages && stored <= capacities[pgNo]) {
+                // 放得下就写回原来的 extent，容量保持不变
+                ByteBuffer.wrap(extent).putInt(8, capacities[pgNo]);
+                channel.write(extent, len, offsets[pgNo]);
+                return;
+            }
+            int capacity = (stored + GRANULE - 1) / GRANULE * GRANULE;
+            ByteBuffer.wrap(extent).putInt(8, capacity);
+            if (extent.length < HEADER_SIZE + capacity) {
+                extent = Arrays.copyOf(extent, HEADER_SIZE + capacity);
+            }
+            channel.write(extent, HEADER_SIZE + capacity, end);
+            setExtent(pgNo, end, capacity);
+            end += HEADER_SIZE + capacity;
+        }
+    }
+
+    /**
+     * Return the extent of data as page pgNo: the header, with the capacity
+     * still to be filled in, followed by the compressed payload, or by data
+     * itself if it does not compress.
+     */
+    static byte[] encode(int pgNo, byte[] data) {
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] extent = new byte[HEADER_SIZE + data.length];
+        int stored = deflater.deflate(extent, HEADER_SIZE, data.length);
+        byte codec = DEFLATE;
+        if (!deflater.finished() || stored >= data.length) {
+            System.arraycopy(data, 0, extent, HEADER_SIZE, data.length);
+            stored = data.length;
+            codec = STORED;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(extent);
+        buf.putInt(MAGIC).putInt(pgNo).putInt(0).putInt(stored).putInt(data.length).put(codec);
+        return extent;
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb.storage;
+
+import simpledb.execution.Predicate;
+import simpledb.common.Type;
+
+import java.io.*;
+import java.text.ParseException;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Instance of Field that stores a point in time, as milliseconds since
+ * 1970-01-01T00:00:00Z. It is used both for dates (midnight UTC) and for
+ * timestamps, and is written as text as yyyy-MM-dd when it falls on
+ * midnight and as yyyy-MM-dd HH:mm:ss[.SSS] otherwise, always in UTC.
+ */
+public class DateField implements Field {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter TIMESTAMP_MILLIS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    private final long millis;
+
+    /**
+     * @return the milliseconds since the epoch of this date
+     */
+    public long getValue() {
+        return millis;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param millis The milliseconds since 1970-01-01T00:00:00Z.
+     */
+    public DateField(long millis) {
+        this.millis = millis;
+    }
+
+    /**
+     * Parse a date written as yyyy-MM-dd, or a timestamp written as
+     * yyyy-MM-dd HH:mm:ss with optional fractional seconds (a 'T' may
+     * separate date and time), in UTC.
+     *
+     * @throws ParseException if s is not written in one of these forms
+     */
+    public static DateField parse(String s) throws ParseException {
+        try {
+            if (s.length() <= 10) {
+                return new DateField(LocalDate.parse(s).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli());
+            }
+            LocalDateTime dt = LocalDateTime.parse(s.replace(' ', 'T'));
+            return new DateField(dt.toInstant(ZoneOffset.UTC).toEpochMilli());
+        } catch (DateTimeParseException e) {
+            throw new ParseException("not a date: " + s, e.getErrorIndex());
+        }
+    }
+
+    public String toString() {
+        LocalDateTime dt = LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000L),
+                (int) Math.floorMod(millis, 1000L) * 1_000_000, ZoneOffset.UTC);
+        if (dt.toLocalTime().equals(LocalTime.MIDNIGHT)) {
+            return dt.toLocalDate().toString();
+        }
+        return (dt.getNano() == 0 ? TIMESTAMP : TIMESTAMP_MILLIS).format(dt);
+    }
+
+    public int hashCode() {
+        return Long.hashCode(millis);
+    }
+
+    public boolean equals(Object field) {
+        if (!(field instanceof DateField)) return false;
+        return ((DateField) field).millis == millis;
+    }
+
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeLong(millis);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field.
+     * Return semantics are as specified by Field.compare
+     *
+     * @throws IllegalCastException if val is not a DateField
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+
+        DateField dVal = (DateField) val;
+
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return millis == dVal.millis;
+            case NOT_EQUALS:
+                return millis != dVal.millis;
+            case GREATER_THAN:
+                return millis > dVal.millis;
+            case GREATER_THAN_OR_EQ:
+                return millis >= dVal.millis;
+            case LESS_THAN:
+                return millis < dVal.millis;
+            case LESS_THAN_OR_EQ:
+                return millis <= dVal.millis;
+        }
+
+        return false;
+    }
+
+    /**
+     * Return the Type of this field.
+     *
+     * @return Type.DATE_TYPE
+     */
+    public Type getType() {
+        return Type.DATE_TYPE;
+    }
+}
@@ -73,6 +73,18 @@ public interface DbFile {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over all the tuples stored in this DbFile that
+     * reads the pages it needs through the given {@link ScanRing}. Files
+     * that do not support rings ignore it.
+     *
+     * @param ring the ring to scan with, or null to use the buffer pool normally
+     * @return an iterator over all the tuples stored in this DbFile.
+     */
+    default DbFileIterator iterator(TransactionId tid, ScanRing ring) {
+        return iterator(tid);
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -93,4 +105,27 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     TupleDesc getTupleDesc();
+
+    /**
+     * Push several pages to disk. The pages are sorted by page number, so
+     * implementations can coalesce the writes of adjacent pages.
+     *
+     * @param pages the pages to write, sorted by page number
+     * @throws IOException if the write fails
+     */
+    default void writePages(List<Page> pages) throws IOException {
+        for (Page page : pages) {
+            writePage(page);
+        }
+    }
+
+    /**
+     * Release the operating system resources (e.g. open file handles) held
+     * by this DbFile. Called when the file is dropped from the Catalog; a
+     * DbFile that is used again afterwards reacquires them.
+     *
+     * @throws IOException if closing fails
+     */
+    default void close() throws IOException {
+    }
 }
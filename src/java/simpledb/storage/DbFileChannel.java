@@ -0,0 +1,160 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * DbFileChannel keeps one FileChannel open on the backing file of a DbFile
+ * for the lifetime of the DbFile, and reads and writes it with positional
+ * I/O, so concurrent page accesses share the channel without seeking and
+ * without a lock.
+ * <p>
+ * The channel is opened on first use and reopened if it was closed, either
+ * by {@link #close()} or because a thread was interrupted in the middle of an
+ * I/O operation (which closes a FileChannel for every user); operations
+ * that failed only because another thread closed the channel are retried.
+ *
+ * @Threadsafe
+ */
+public class DbFileChannel {
+
+    /** Upper bound on the bytes {@link #writePages} coalesces into one write */
+    private static final int MAX_WRITE_BYTES = 1 << 20;
+
+    private final File f;
+    private volatile FileChannel channel;
+
+    public DbFileChannel(File f) {
+        this.f = f;
+    }
+
+    /** Return the open channel, opening it if necessary. */
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null || !ch.isOpen()) {
+            synchronized (this) {
+                ch = channel;
+                if (ch == null || !ch.isOpen()) {
+                    ch = FileChannel.open(f.toPath(), StandardOpenOption.CREATE,
+                            StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    channel = ch;
+                }
+            }
+        }
+        return ch;
+    }
+
+    /**
+     * Read up to len bytes at position into data, stopping early only at the
+     * end of the file.
+     *
+     * @return the number of bytes read, or -1 if position is at or past the end of the file
+     */
+    public int read(byte[] data, int len, long position) throws IOException {
+        while (true) {
+            try {
+                ByteBuffer buf = ByteBuffer.wrap(data, 0, len);
+                FileChannel ch = channel();
+                while (buf.hasRemaining()) {
+                    int n = ch.read(buf, position + buf.position());
+                    if (n < 0) break;
+                }
+                int read = buf.position();
+                return read == 0 && len > 0 ? -1 : read;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // 其他线程关闭了 channel，重新打开后再试
+            }
+        }
+    }
+
+    /** Write len bytes of data at position. */
+    public void write(byte[] data, int len, long position) throws IOException {
+        while (true) {
+            try {
+                ByteBuffer buf = ByteBuffer.wrap(data, 0, len);
+                FileChannel ch = channel();
+                while (buf.hasRemaining()) {
+                    ch.write(buf, position + buf.position());
+                }
+                return;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // 其他线程关闭了 channel，重新打开后再试
+            }
+        }
+    }
+
+    /**
+     * Write pages, which must be sorted by offset, coalescing every run of
+     * pages that are adjacent on disk into a single write.
+     *
+     * @param pages the pages to write, sorted by offset
+     * @param offset the position of a page in the file
+     */
+    public void writePages(List<? extends Page> pages, ToLongFunction<PageId> offset) throws IOException {
+        writePages(pages, offset, null);
+    }
+
+    /**
+     * Write pages as {@link #writePages(List, ToLongFunction)} does, and pass
+     * every page written, with the bytes written for it, to written once its
+     * run is on disk.
+     *
+     * @param written called for every page written, or null
+     */
+    public void writePages(List<? extends Page> pages, ToLongFunction<PageId> offset,
+                           BiConsumer<PageId, byte[]> written) throws IOException {
+        int i = 0;
+        while (i < pages.size()) {
+            long start = offset.applyAsLong(pages.get(i).getId());
+            List<byte[]> run = new ArrayList<>();
+            long end = start;
+            int runBytes = 0;
+            // 收集从 start 开始、在磁盘上首尾相接的页面
+            while (i < pages.size() && runBytes < MAX_WRITE_BYTES
+                    && offset.applyAsLong(pages.get(i).getId()) == end) {
+                byte[] data = pages.get(i).getPageData();
+                run.add(data);
+                end += data.length;
+                runBytes += data.length;
+                i++;
+            }
+            if (run.size() == 1) {
+                write(run.get(0), runBytes, start);
+            } else {
+                byte[] buf = new byte[runBytes];
+                int pos = 0;
+                for (byte[] data : run) {
+                    System.arraycopy(data, 0, buf, pos, data.length);
+                    pos += data.length;
+                }
+                write(buf, runBytes, start);
+            }
+            if (written != null) {
+                for (int j = 0; j < run.size(); j++) {
+                    written.accept(pages.get(i - run.size() + j).getId(), run.get(j));
+                }
+            }
+        }
+    }
+
+    /** Close the channel. A later read or write reopens it. */
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package simpledb.storage;
+
+import java.util.function.Predicate;
+
+/**
+ * EvictionPolicy decides which page of a BufferPool shard is replaced when
+ * the pool is full. Each shard owns its own policy instance.
+ * <p>
+ * {@link #pageAdded}, {@link #pageRemoved} and {@link #evict} are called with
+ * the shard's monitor held. {@link #pageAccessed} is called on every hit
+ * without it, so implementations must make that path thread safe on their
+ * own, and should keep it as cheap as possible.
+ */
+public interface EvictionPolicy {
+
+    /** The replacement policies a BufferPool can be constructed with. */
+    enum Kind {
+        /** Least recently used. */
+        LRU,
+        /** CLOCK / second chance: a reference bit per page, no reordering on hit. */
+        CLOCK,
+        /** 2Q: pages seen once are kept apart from the hot set, so scans do not flush it. */
+        TWO_Q;
+
+        /**
+         * Create a policy of this kind.
+         *
+         * @param capacity the number of pages the policy is expected to manage
+         */
+        public EvictionPolicy create(int capacity) {
+            switch (this) {
+                case LRU:
+                    return new LruEvictionPolicy();
+                case CLOCK:
+                    return new ClockEvictionPolicy();
+                default:
+                    return new TwoQEvictionPolicy(capacity);
+            }
+        }
+    }
+
+    /** Called when pid is read into the shard. */
+    void pageAdded(PageId pid);
+
+    /** Called on every hit on pid. pid may have been evicted concurrently. */
+    void pageAccessed(PageId pid);
+
+    /** Called when pid is dropped from the shard without being evicted by this policy. */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Choose a page to evict and forget about it.
+     *
+     * @param evictable tells which resident pages may be evicted right now
+     * @return the evicted page, or null if no resident page is evictable
+     */
+    PageId evict(Predicate<PageId> evictable);
+}
@@ -0,0 +1,135 @@
+package simpledb.storage;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers, for every page of a HeapFile, how many empty
+ * slots the page had the last time it was looked at, so that inserts can
+ * go straight to a page with room instead of probing the file from its
+ * first page.
+ * <p>
+ * The counts are hints: pages modified by a transaction that later aborts,
+ * or by another process, may have more or fewer empty slots than recorded.
+ * Callers check the page itself and report what they saw with
+ * {@link #update}. Pages that have never been looked at are "unknown" and
+ * are offered as candidates after the pages known to have room.
+ * <p>
+ * The map is kept in a side file next to the heap file (see
+ * {@link #sideFile}), loaded when the HeapFile first needs it and saved
+ * when the HeapFile is closed.
+ *
+ * @Threadsafe
+ */
+class FreeSpaceMap {
+
+    private static final int MAGIC = 0x46534d31; // "FSM1"
+
+    /** 页号 -> 空闲 slot 数，-1 表示未知 */
+    private short[] free;
+    private int size;
+
+    /** 已知有空闲 slot 的页面 */
+    private final BitSet hasRoom = new BitSet();
+    /** 空闲 slot 数已知的页面 */
+    private final BitSet known = new BitSet();
+
+    private boolean dirty;
+
+    FreeSpaceMap() {
+        free = new short[16];
+    }
+
+    /** Return the file the map of heap file f is kept in. */
+    static File sideFile(File f) {
+        return new File(f.getPath() + ".fsm");
+    }
+
+    /**
+     * Load the map saved for a heap file with the given page size and number
+     * of pages, or return an empty map if there is none, or if it was saved
+     * for another page size or for a longer file (the heap file was replaced).
+     * Pages added to the file after the map was saved are unknown.
+     */
+    static FreeSpaceMap load(File side, int pageSize, int numPages) {
+        FreeSpaceMap fsm = new FreeSpaceMap();
+        if (!side.exists()) {
+            return fsm;
+        }
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(side)))) {
+            if (dis.readInt() != MAGIC || dis.readInt() != pageSize) {
+                return fsm;
+            }
+            int n = dis.readInt();
+            if (n > numPages) {
+                return fsm;
+            }
+            for (int i = 0; i < n; i++) {
+                short slots = dis.readShort();
+                if (slots >= 0) {
+                    fsm.set(i, slots);
+                }
+            }
+        } catch (IOException e) {
+            // 文件损坏就当作没有，重新探测
+            return new FreeSpaceMap();
+        }
+        fsm.dirty = false;
+        return fsm;
+    }
+
+    /** Write the map to side if it changed since it was loaded or last saved. */
+    synchronized void save(File side, int pageSize) throws IOException {
+        if (!dirty) {
+            return;
+        }
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(side)))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(pageSize);
+            dos.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                dos.writeShort(known.get(i) ? free[i] : -1);
+            }
+        }
+        dirty = false;
+    }
+
+    /** Record that page pgNo has freeSlots empty slots. */
+    synchronized void update(int pgNo, int freeSlots) {
+        set(pgNo, (short) Math.min(freeSlots, Short.MAX_VALUE));
+        dirty = true;
+    }
+
+    private void set(int pgNo, short slots) {
+        if (pgNo >= free.length) {
+            free = Arrays.copyOf(free, Math.max(pgNo + 1, free.length * 2));
+        }
+        size = Math.max(size, pgNo + 1);
+        free[pgNo] = slots;
+        known.set(pgNo);
+        hasRoom.set(pgNo, slots > 0);
+    }
+
+    /** Return the recorded number of empty slots of pgNo, or -1 if it is unknown. */
+    synchronized int getFreeSlots(int pgNo) {
+        return known.get(pgNo) ? free[pgNo] : -1;
+    }
+
+    /**
+     * Return the first page at or after from that may have room: either a
+     * page known to have empty slots or a page never looked at. Pages known
+     * to have room come first.
+     *
+     * @param numPages the number of pages of the file
+     * @return the page number, or -1 if no page from on may have room
+     */
+    synchronized int nextCandidate(int from, int numPages) {
+        int withRoom = hasRoom.nextSetBit(from);
+        if (withRoom >= 0 && withRoom < numPages) {
+            return withRoom;
+        }
+        int unknown = known.nextClearBit(from);
+        return unknown < numPages ? unknown : -1;
+    }
+}
@@ -21,8 +21,22 @@ import java.util.*;
  */
 public class HeapFile implements DbFile {
 
+    /** Upper bound on the candidate pages an insert tries before appending a page */
+    private static final int MAX_INSERT_PROBES = 16;
+
     private File f;
     private TupleDesc td;
+    private final DbFileChannel channel;
+
+    /** 压缩存放页面时，逻辑页号到文件中 extent 的映射；不压缩时为 null */
+    private final CompressedPageStore store;
+
+    /** 各页面的 checksum，读页面时校验，写页面时更新 */
+    private final PageChecksums checksums;
+
+    /** 各页面的空闲 slot 数，第一次插入或删除时才加载 */
+    private FreeSpaceMap fsm;
+    private int fsmPageSize;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -32,9 +46,36 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * optionally stored compressed (see {@link CompressedPageStore}). The
+     * buffer pool only ever sees uncompressed pages. Whether a file is
+     * compressed is not recorded in it: a file written compressed must
+     * always be opened compressed.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param compressed
+     *            whether pages are stored compressed
+     */
+    public HeapFile(File f, TupleDesc td, boolean compressed) {
         // some code goes here
         this.f = f;
         this.td = td;
+        this.channel = new DbFileChannel(f);
+        this.store = compressed ? new CompressedPageStore(f, channel) : null;
+        this.checksums = new PageChecksums(f, this::numStoredPages);
+    }
+
+    /**
+     * @return true if the pages of this file are stored compressed
+     */
+    public boolean isCompressed() {
+        return store != null;
     }
 
     /**
@@ -76,13 +117,48 @@ public class HeapFile implements DbFile {
         // some code goes here
         int tableId = pid.getTableId();
         int pgNo = pid.getPageNumber();
-        byte[] data = HeapPage.createEmptyPageData();
-        try(RandomAccessFile file = new RandomAccessFile(f, "r")) {
-            file.seek(pgNo * BufferPool.getPageSize());
-            file.read(data,0,BufferPool.getPageSize());
+        byte[] data = readPageData(pgNo);
+        if (data == null) {
+            return null;
+        }
+        try {
             return new HeapPage(new HeapPageId(tableId, pgNo), data);
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Read the bytes of page pgNo from disk and check them against the
+     * checksum recorded when the page was written (see {@link PageChecksums}).
+     * A page past the end of the file reads as an empty page.
+     *
+     * @return the bytes of the page, or null if they could not be read
+     * @throws PageCorruptedException if the page fails its checksum or the
+     * file ends in the middle of it
+     */
+    protected byte[] readPageData(int pgNo) {
+        byte[] data = HeapPage.createEmptyPageData();
+        try {
+            if (store != null) {
+                byte[] stored = store.read(pgNo);
+                if (stored == null) {
+                    return data;
+                }
+                checksums.check(pgNo, stored);
+                return stored;
+            }
+            int pageSize = BufferPool.getPageSize();
+            int n = channel.read(data, pageSize, (long) pgNo * pageSize);
+            if (n < 0) {
+                return data;
+            }
+            if (n < pageSize) {
+                throw PageChecksums.shortRead(f, pgNo, n, pageSize);
+            }
+            checksums.check(pgNo, data);
+            return data;
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -96,21 +172,96 @@ public class HeapFile implements DbFile {
         final PageId pageId = page.getId();
         final byte[] pageData = page.getPageData();
 
-        try(RandomAccessFile file = new RandomAccessFile(f, "rw")) {
-            file.seek(pageId.getPageNumber() * BufferPool.getPageSize());
-            file.write(pageData,0,BufferPool.getPageSize());
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+        try {
+            if (store != null) {
+                store.write(pageId.getPageNumber(), pageData);
+            } else {
+                channel.write(pageData, BufferPool.getPageSize(), (long) pageId.getPageNumber() * BufferPool.getPageSize());
+            }
+            checksums.update(pageId.getPageNumber(), pageData);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        if (store != null) {
+            // 压缩后的页面长度不一，不能合并成连续的写
+            for (Page page : pages) {
+                writePage(page);
+            }
+            return;
+        }
+        List<byte[]> written = new ArrayList<>(pages.size());
+        channel.writePages(pages, pid -> (long) pid.getPageNumber() * BufferPool.getPageSize(),
+                (pid, data) -> written.add(data));
+        for (int i = 0; i < written.size(); i++) {
+            checksums.update(pages.get(i).getId().getPageNumber(), written.get(i));
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        synchronized (this) {
+            if (fsm != null && f.exists()) {
+                fsm.save(FreeSpaceMap.sideFile(f), fsmPageSize);
+            }
+        }
+        checksums.close();
+        channel.close();
+    }
+
+    /**
+     * Read every page of this file from disk, bypassing the buffer pool, and
+     * check it against its checksum, using threads threads in parallel. A
+     * partly written page at the end of the file is reported as corrupt.
+     */
+    public PageChecksums.Report verify(int threads) throws IOException {
+        return checksums.verify(0, numStoredPages(), pgNo -> {
+            if (readPageData(pgNo) == null) {
+                throw new PageCorruptedException(f, pgNo, "it could not be read");
+            }
+        }, threads);
+    }
+
+    /**
+     * Return the number of pages stored in the file, counting a partly
+     * written page at its end, which {@link #numPages()} ignores.
+     */
+    private int numStoredPages() {
+        if (store != null) {
+            return numPages();
+        }
+        int pageSize = BufferPool.getPageSize();
+        return (int) ((f.length() + pageSize - 1) / pageSize);
+    }
+
+    /**
+     * Return the free-space map of this file, loading it from its side file
+     * the first time. A map built for another page size is discarded.
+     */
+    private synchronized FreeSpaceMap freeSpace() {
+        int pageSize = BufferPool.getPageSize();
+        if (fsm == null || fsmPageSize != pageSize) {
+            fsm = FreeSpaceMap.load(FreeSpaceMap.sideFile(f), pageSize, numPages());
+            fsmPageSize = pageSize;
+        }
+        return fsm;
+    }
+
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
         // some code goes here
+        if (store != null) {
+            try {
+                return store.numPages();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
         return (int) Math.ceil(f.length() / BufferPool.getPageSize());
     }
 
@@ -119,35 +270,47 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         if(t == null) throw new DbException("tuple cannot be added ***** from HeapFile.insetTuple()");
-        ArrayList<Page> modifiedPages = new ArrayList<>(numPages());
-        HeapPage page = null;
-        for(int i = 0; i < numPages(); i++){
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap freeSpace = freeSpace();
+        ArrayList<Page> modifiedPages = new ArrayList<>();
+        // 按空闲空间表找候选页面，被其他事务锁住的页面直接跳过，不等待
+        int n = numPages();
+        int probes = 0;
+        for(int i = freeSpace.nextCandidate(0, n); i >= 0 && probes < MAX_INSERT_PROBES; i = freeSpace.nextCandidate(i + 1, n)){
+            probes++;
             HeapPageId pid = new HeapPageId(getId(), i);
-            HeapPage temp = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-            if(temp.getNumEmptySlots() == 0){
-                Database.getBufferPool().unsafeReleasePage(tid, pid);
-            }else{
-                page = temp;
-                break;
-            }
-        }
-        if(page != null){
-            page.insertTuple(t);
-            modifiedPages.add(page);
-        }else{
+            boolean held = bp.holdsLock(tid, pid);
+            HeapPage temp = (HeapPage) bp.tryGetPage(tid, pid, Permissions.READ_WRITE);
+            if(temp == null){
+                continue;
+            }
+            if(temp.getNumEmptySlots() > 0){
+                temp.insertTuple(t);
+                freeSpace.update(i, temp.getNumEmptySlots());
+                modifiedPages.add(temp);
+                return modifiedPages;
+            }
+            freeSpace.update(i, 0);
+            if(!held){
+                bp.unsafeReleasePage(tid, pid);
+            }
+        }
+        // 没有可用的页面，在文件末尾追加一个空页面
+        HeapPageId newPid;
+        synchronized (this){
+            newPid = new HeapPageId(getId(), numPages());
             byte[] data = HeapPage.createEmptyPageData();
-            try(RandomAccessFile file = new RandomAccessFile(f, "rw")) {
-                file.seek(numPages() * BufferPool.getPageSize());
-                file.write(data,0,BufferPool.getPageSize());
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            } catch (IOException e) {
-                e.printStackTrace();
+            if (store != null) {
+                store.write(newPid.getPageNumber(), data);
+            } else {
+                channel.write(data, BufferPool.getPageSize(), (long) newPid.getPageNumber() * BufferPool.getPageSize());
             }
-            HeapPage modifiedPage = (HeapPage)Database.getBufferPool().getPage(tid, new HeapPageId(getId(), numPages() - 1), Permissions.READ_WRITE);
-            modifiedPage.insertTuple(t);
-            modifiedPages.add(modifiedPage);
+            checksums.update(newPid.getPageNumber(), data);
         }
+        HeapPage modifiedPage = (HeapPage) bp.getPage(tid, newPid, Permissions.READ_WRITE);
+        modifiedPage.insertTuple(t);
+        freeSpace.update(newPid.getPageNumber(), modifiedPage.getNumEmptySlots());
+        modifiedPages.add(modifiedPage);
         return modifiedPages;
         // not necessary for lab1
     }
@@ -164,6 +327,7 @@ public class HeapFile implements DbFile {
         HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
         if(page == null) throw new DbException("is not a member of the file");
         page.deleteTuple(t);
+        freeSpace().update(pageId.getPageNumber(), page.getNumEmptySlots());
 
         ArrayList<Page> modifiedPages = new ArrayList<>();
         modifiedPages.add(page);
@@ -178,21 +342,57 @@ public class HeapFile implements DbFile {
 
         private Iterator<Tuple> it;
 
-        public HeapFileIterator(TransactionId tid){
+        private final ScanRing ring;
+
+        private ReadAhead.Stream readAhead;
+
+        /** 扫描的页面范围 [firstPage, endPage)，endPage 为 -1 时到文件末尾 */
+        private final int firstPage;
+        private final int endPage;
+
+        public HeapFileIterator(TransactionId tid, ScanRing ring){
+            this(tid, ring, 0, -1);
+        }
+
+        HeapFileIterator(TransactionId tid, ScanRing ring, int firstPage, int endPage){
             this.tid = tid;
+            this.ring = ring;
+            this.firstPage = firstPage;
+            this.endPage = endPage;
+        }
+
+        /** Return the page after the last one this iterator reads. */
+        private int lastPage() {
+            return endPage < 0 ? numPages() : Math.min(endPage, numPages());
         }
 
         public Iterator<Tuple> getTupleItertor(int curPage) throws TransactionAbortedException, DbException {
             if(curPage >= 0 && curPage < numPages()){
-                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,new HeapPageId(getId(), curPage),Permissions.READ_ONLY);
-                return page.iterator();
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,new HeapPageId(getId(), curPage),Permissions.READ_ONLY, ring);
+                readAhead.accessed(page);
+                return tuples(page);
             }
             throw new DbException("没有curPage 对应的 iterator ***** from HeapFileIterator.getTupleIterator()");
         }
 
+        /** Return the tuples of page that this iterator returns. */
+        protected Iterator<Tuple> tuples(HeapPage page) {
+            return page.iterator();
+        }
+
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            curPage = 0;
+            // 扫描下一个要读的页面就是下一个页号
+            readAhead = Database.getBufferPool().getReadAhead().newStream(page -> {
+                int next = page.getId().getPageNumber() + 1;
+                return next < lastPage() ? new HeapPageId(getId(), next) : null;
+            });
+            curPage = firstPage;
+            if (endPage >= 0 && curPage >= lastPage()) {
+                // 空的页面范围
+                it = null;
+                return;
+            }
             it = getTupleItertor(curPage);
         }
 
@@ -200,7 +400,7 @@ public class HeapFile implements DbFile {
         public boolean hasNext() throws DbException, TransactionAbortedException {
             if(it == null) return false;
             if(!it.hasNext()){
-                if(curPage < numPages() - 1){
+                if(curPage < lastPage() - 1){
                     curPage ++;
                     it = getTupleItertor(curPage);
                     return hasNext();
@@ -228,13 +428,35 @@ public class HeapFile implements DbFile {
         @Override
         public void close() {
             it = null;
+            readAhead = null;
         }
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(tid);
+        return new HeapFileIterator(tid, null);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, ScanRing ring) {
+        return new HeapFileIterator(tid, ring);
+    }
+
+    /**
+     * Returns an iterator over the tuples of pages firstPage to endPage - 1
+     * only, so that disjoint ranges of the file can be scanned at the same
+     * time. Pages past the end of the file are skipped.
+     *
+     * @param ring the ring to scan with, or null to use the buffer pool normally
+     * @param firstPage the first page to read
+     * @param endPage the page after the last one to read
+     */
+    public DbFileIterator iterator(TransactionId tid, ScanRing ring, int firstPage, int endPage) {
+        if (firstPage < 0 || endPage < firstPage) {
+            throw new IllegalArgumentException("bad page range " + firstPage + ".." + endPage);
+        }
+        return new HeapFileIterator(tid, ring, firstPage, endPage);
     }
 
 }
@@ -70,12 +70,12 @@ public class HeapFileEncoder {
 
    /** Convert the specified input text file into a binary
     * page file. <br>
-    * Assume format of the input file is (note that only integer fields are
-    * supported):<br>
+    * Assume format of the input file is:<br>
     * int,...,int\n<br>
     * int,...,int\n<br>
     * ...<br>
-    * where each row represents a tuple.<br>
+    * where each row represents a tuple, and each field is written as
+    * accepted by {@link Type#parse(String)} for its type in typeAr.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
     * HeapFile.
@@ -108,6 +108,8 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    // 旧文件的 checksum 对新内容无效
+    PageChecksums.sideFile(outFile).delete();
 
     // our numbers probably won't be much larger than 1024 digits
     char[] buf = new char[1024];
@@ -158,6 +160,13 @@ public class HeapFileEncoder {
                 while (overflow-- > 0)
                     pageStream.write((byte)0);
             }
+            else {
+                try {
+                    typeAr[fieldNo].parse(s.trim()).serialize(pageStream);
+                } catch (java.text.ParseException | NumberFormatException e) {
+                    System.out.println ("BAD LINE : " + s);
+                }
+            }
             curpos = 0;
             if (c == '\n')
                 fieldNo = 0;
@@ -4,10 +4,12 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.common.Type;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -22,10 +24,26 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte[] header;
-    final Tuple[] tuples;
     final int numSlots;
 
-    byte[] oldData;
+    /** 每个 tuple 的字节数，以及各个字段在 tuple 内的偏移 */
+    private final int tupleSize;
+    private final int[] fieldOffsets;
+
+    /**
+     * 页面的字节（按磁盘格式，header 部分以 header 字段为准）。tuple 按需从这里
+     * 解码。shared 为 true 时这段数据被 before image 或者已经返回的 tuple 引用，
+     * 写入前要先复制一份
+     */
+    private ByteBuffer data;
+    private boolean shared;
+
+    /** 已经返回过的 tuple，页面在缓冲池里被反复扫描时不用重新创建 */
+    private Tuple[] slotTuples;
+
+    /** before image：修改前的 header 和页面数据 */
+    private byte[] oldHeader;
+    private ByteBuffer oldData;
     private final Byte oldDataLock= (byte) 0;
 
     private TransactionId tid;
@@ -42,34 +60,72 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * Tuples are not parsed up front: the page keeps data and decodes the
+     * fields of a tuple when they are first asked for. data is not copied,
+     * so the caller must not modify it afterwards; the page itself never
+     * writes to it.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage directly from a buffer holding the page in the
+     * format described in {@link #HeapPage(HeapPageId, byte[])}, starting
+     * at the buffer's position, without copying it into a byte array. This
+     * is used to build pages from a slice of a memory-mapped file.
+     * <p>
+     * The contents of data must not change while the page is cached: the
+     * buffer is read whenever a tuple is decoded, and is kept as the page's
+     * before image.
+     *
+     * @see MappedHeapFile
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.tupleSize = td.getSize();
+        this.fieldOffsets = new int[td.numFields()];
+        for (int j=1; j<fieldOffsets.length; j++) {
+            fieldOffsets[j] = fieldOffsets[j-1] + td.getFieldType(j-1).getLen();
+        }
 
-        // allocate and read the header slots of this page
+        ByteBuffer buf = data.slice();
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        int used = header.length + numSlots * tupleSize;
+        if (buf.remaining() < used) {
+            // 数据比页面短（只包含用到的部分），复制到一个完整的页面里
+            byte[] full = new byte[Math.max(used, BufferPool.getPageSize())];
+            buf.duplicate().get(full, 0, buf.remaining());
+            buf = ByteBuffer.wrap(full);
         }
-        dis.close();
+        buf.duplicate().get(header);
+        this.data = buf;
 
         setBeforeImage();
     }
 
+    /**
+     * Constructor for subclasses that store tuples in another layout and
+     * override every method touching the page contents: only the page id and
+     * the schema are set up.
+     *
+     * @see SlottedHeapPage
+     */
+    protected HeapPage(HeapPageId id) {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = 0;
+        this.tupleSize = td.getSize();
+        this.fieldOffsets = new int[0];
+        this.header = new byte[0];
+    }
+
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
@@ -95,12 +151,17 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            byte[] oldDataRef = null;
+            byte[] oldHeaderRef = null;
+            ByteBuffer oldDataRef = null;
             synchronized(oldDataLock)
             {
+                oldHeaderRef = oldHeader;
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            byte[] before = new byte[oldDataRef.limit()];
+            oldDataRef.duplicate().get(before);
+            System.arraycopy(oldHeaderRef, 0, before, 0, oldHeaderRef.length);
+            return new HeapPage(pid,before);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -112,7 +173,10 @@ public class HeapPage implements Page {
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        // 不复制页面数据，只是把它标记为共享，下次写入时再复制
+        oldHeader = header.clone();
+        oldData = data;
+        shared = true;
         }
     }
 
@@ -125,37 +189,129 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Return a tuple reading the fields of slot slotId from the current page
+     * data. From now on the data is shared with the tuple, so writes to the
+     * page go to a copy and never change what the tuple returns.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
+    private synchronized Tuple slotTuple(int slotId) {
+        if (slotTuples == null) {
+            slotTuples = new Tuple[numSlots];
+        }
+        Tuple t = slotTuples[slotId];
+        if (t == null) {
+            shared = true;
+            t = new SlotTuple(this, data, header.length + slotId * tupleSize, slotId);
+            slotTuples[slotId] = t;
+        }
+        return t;
+    }
+
+    /** Forget the tuple handed out for slotId, whose contents are changing. */
+    private synchronized void clearSlotTuple(int slotId) {
+        if (slotTuples != null) {
+            slotTuples[slotId] = null;
+        }
+    }
+
+    /**
+     * A tuple backed by the bytes of a page slot. Fields are decoded the
+     * first time they are asked for, so operators that look at a few
+     * columns of a wide tuple (a Filter, a Project) only pay for those.
+     */
+    private static final class SlotTuple extends Tuple {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient HeapPage page;
+        private final transient ByteBuffer data;
+        private final int start;
+        private final int slotId;
+        private boolean ridSet;
+
+        SlotTuple(HeapPage page, ByteBuffer data, int start, int slotId) {
+            super(page.td);
+            this.page = page;
+            this.data = data;
+            this.start = start;
+            this.slotId = slotId;
+        }
+
+        @Override
+        public Field getField(int i) {
+            Field f = super.getField(i);
+            if (f == null && i >= 0 && i < page.fieldOffsets.length) {
                 try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
+                    f = page.td.getFieldType(i).parse(data, start + page.fieldOffsets[i]);
+                } catch (java.text.ParseException e) {
+                    e.printStackTrace();
+                    throw new NoSuchElementException("parsing error!");
                 }
+                super.setField(i, f);
             }
-            return null;
+            return f;
         }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+        @Override
+        public int getInt(int i) {
+            Field f = super.getField(i);
+            if (f == null && i >= 0 && i < page.fieldOffsets.length
+                    && page.td.getFieldType(i) == Type.INT_TYPE) {
+                // 直接从页面读出 int，不创建 IntField
+                return data.getInt(start + page.fieldOffsets[i]);
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+            return super.getInt(i);
         }
 
-        return t;
+        @Override
+        public RecordId getRecordId() {
+            if (!ridSet) {
+                setRecordId(new RecordId(page.pid, slotId));
+            }
+            return super.getRecordId();
+        }
+
+        @Override
+        public void setRecordId(RecordId rid) {
+            ridSet = true;
+            super.setRecordId(rid);
+        }
+
+        /** Return an ordinary tuple with all fields decoded. */
+        private Tuple materialize() {
+            Tuple t = new Tuple(getTupleDesc());
+            for (int i = 0; i < getTupleDesc().numFields(); i++) {
+                t.setField(i, getField(i));
+            }
+            t.setRecordId(getRecordId());
+            return t;
+        }
+
+        @Override
+        public Iterator<Field> fields() {
+            return materialize().fields();
+        }
+
+        @Override
+        public String toString() {
+            return materialize().toString();
+        }
+
+        private Object writeReplace() {
+            return materialize();
+        }
+    }
+
+    /**
+     * Make data safe to write to: copy it first if it is shared with the
+     * before image or with tuples handed out.
+     */
+    private synchronized void ensureWritable() {
+        if (shared) {
+            byte[] copy = new byte[data.limit()];
+            data.duplicate().get(copy);
+            data = ByteBuffer.wrap(copy);
+            shared = false;
+        }
     }
 
     /**
@@ -170,64 +326,18 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
+        byte[] out = new byte[BufferPool.getPageSize()];
+        System.arraycopy(header, 0, out, 0, header.length);
+        // 只复制在用的 slot，空 slot 和末尾的 padding 保持为 0
+        ByteBuffer buf = data.duplicate();
+        for (int i=0; i<numSlots; i++) {
+            if (isSlotUsed(i)) {
+                int start = header.length + i * tupleSize;
+                buf.position(start);
+                buf.get(out, start, tupleSize);
             }
         }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return out;
     }
 
     /**
@@ -258,8 +368,9 @@ public class HeapPage implements Page {
         PageId pageId = tId.getPageId();
         int tupleNumber = tId.getTupleNumber();
         if(pageId.equals(this.pid) && isSlotUsed(tupleNumber)){
-            tuples[tupleNumber] = null;
+            // 只清除 header 中的标记，已经返回的 tuple 仍然可以读到原来的数据
             markSlotUsed(tupleNumber, false);
+            clearSlotTuple(tupleNumber);
         }else{
             throw new DbException("the tuple is not on this page or tuple slot is already empty ***** from HeapPage.deleteTuple(Tuple t)");
         }
@@ -280,8 +391,9 @@ public class HeapPage implements Page {
             throw new DbException("page is full or tupledesc is mismatch ***** from HeapPage.insertTuple");
         }
         for(int i = 0; i < numSlots; i++){
-            if(!isSlotUsed(i) && tuples[i] == null){
-                tuples[i] = t;
+            if(!isSlotUsed(i)){
+                writeTuple(i, t);
+                clearSlotTuple(i);
                 t.setRecordId(new RecordId(pid, i)); // 注意保存tuple的recordId。
                 markSlotUsed(i, true);
                 return;
@@ -289,6 +401,26 @@ public class HeapPage implements Page {
         }
     }
 
+    /**
+     * Serialize the fields of t into the bytes of slot slotId.
+     */
+    private void writeTuple(int slotId, Tuple t) throws DbException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(tupleSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j=0; j<td.numFields(); j++) {
+                t.getField(j).serialize(dos);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new DbException("cannot serialize tuple: " + e.getMessage());
+        }
+        byte[] bytes = baos.toByteArray();
+        ensureWritable();
+        int start = header.length + slotId * tupleSize;
+        System.arraycopy(bytes, 0, data.array(), data.arrayOffset() + start, Math.min(bytes.length, tupleSize));
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -349,26 +481,37 @@ public class HeapPage implements Page {
     }
     class HeapPageIterator implements Iterator{
 
-        private ArrayList<Tuple> usedTuples;
-        private Iterator<Tuple> it;
+        /** 创建迭代器时在用的 slot，之后的插入和删除不影响这次迭代 */
+        private final byte[] used;
+        private int next;
+
         public HeapPageIterator(){
-            usedTuples = new ArrayList<>();
-            for(int i = 0; i < numSlots; i++){
-                if(isSlotUsed(i)){
-                    usedTuples.add(tuples[i]);
+            used = header.clone();
+            next = advance(0);
+        }
+
+        private int advance(int from) {
+            for(int i = from; i < numSlots; i++){
+                if((used[i / 8] & (1 << (i % 8))) != 0){
+                    return i;
                 }
             }
-            it = usedTuples.iterator();
+            return numSlots;
         }
 
         @Override
         public boolean hasNext() {
-            return it.hasNext();
+            return next < numSlots;
         }
 
         @Override
         public Object next() {
-            return it.next();
+            if(!hasNext()){
+                throw new NoSuchElementException();
+            }
+            Tuple t = slotTuple(next);
+            next = advance(next + 1);
+            return t;
         }
 
         @Override
@@ -0,0 +1,43 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Least-recently-used replacement. Every hit moves the page to the MRU end
+ * of an access-ordered list, so hits serialize on the policy's monitor.
+ */
+public class LruEvictionPolicy implements EvictionPolicy {
+
+    /** 按访问顺序排列，第一个是最久未使用的页面 */
+    private final LinkedHashMap<PageId, Boolean> order = new LinkedHashMap<>(16, 0.75f, true);
+
+    @Override
+    public synchronized void pageAdded(PageId pid) {
+        order.put(pid, Boolean.TRUE);
+    }
+
+    @Override
+    public synchronized void pageAccessed(PageId pid) {
+        order.get(pid);
+    }
+
+    @Override
+    public synchronized void pageRemoved(PageId pid) {
+        order.remove(pid);
+    }
+
+    @Override
+    public synchronized PageId evict(Predicate<PageId> evictable) {
+        Iterator<PageId> it = order.keySet().iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (evictable.test(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,140 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MappedHeapFile is a read-only HeapFile for tables that are loaded once
+ * (e.g. with {@link HeapFileEncoder}) and then only scanned. The backing file
+ * is mapped into memory with {@link FileChannel#map}, and each page is built
+ * by {@link HeapPage#HeapPage(HeapPageId, ByteBuffer)} straight from a slice
+ * of the mapping, instead of being copied into a byte array and parsed
+ * through a DataInputStream.
+ * <p>
+ * Files larger than one mapping can address are mapped in segments of
+ * whole pages. Any attempt to modify the file fails: inserts and deletes
+ * throw DbException and writePage throws IOException, so the mapping (and
+ * the before images of the pages built from it) never changes under a
+ * cached page.
+ *
+ * @see HeapFile
+ */
+public class MappedHeapFile extends HeapFile {
+
+    /** Upper bound on the bytes mapped by a single segment */
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    /** 一次映射的结果：各个段，每段包含 pagesPerSegment 个完整页面 */
+    private static class Mapping {
+        final List<MappedByteBuffer> segments;
+        final int pagesPerSegment;
+        final int pageSize;
+        final int numPages;
+
+        Mapping(List<MappedByteBuffer> segments, int pagesPerSegment, int pageSize, int numPages) {
+            this.segments = segments;
+            this.pagesPerSegment = pagesPerSegment;
+            this.pageSize = pageSize;
+            this.numPages = numPages;
+        }
+    }
+
+    private volatile Mapping mapping;
+
+    /**
+     * Constructs a read-only heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     */
+    public MappedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Map the file if it is not mapped yet, or if it grew or the page size
+     * changed since it was mapped.
+     */
+    private synchronized Mapping remap() throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int numPages = numPages();
+        Mapping m = mapping;
+        if (m != null && m.pageSize == pageSize && m.numPages == numPages) {
+            return m;
+        }
+        List<MappedByteBuffer> segments = new ArrayList<>();
+        int perSegment = (int) Math.max(1, MAX_SEGMENT_BYTES / pageSize);
+        try (FileChannel ch = FileChannel.open(getFile().toPath(), StandardOpenOption.READ)) {
+            for (int first = 0; first < numPages; first += perSegment) {
+                int pages = Math.min(perSegment, numPages - first);
+                segments.add(ch.map(FileChannel.MapMode.READ_ONLY,
+                        (long) first * pageSize, (long) pages * pageSize));
+            }
+        }
+        m = new Mapping(segments, perSegment, pageSize, numPages);
+        mapping = m;
+        return m;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pgNo = pid.getPageNumber();
+        try {
+            Mapping m = mapping;
+            if (m == null || m.pageSize != BufferPool.getPageSize() || pgNo >= m.numPages) {
+                m = remap();
+            }
+            if (pgNo < 0 || pgNo >= m.numPages) {
+                throw new IllegalArgumentException("page " + pgNo + " is not in the file");
+            }
+            // 每次读取都用 duplicate，避免并发读取共享 position
+            ByteBuffer buf = m.segments.get(pgNo / m.pagesPerSegment).duplicate();
+            int offset = (pgNo % m.pagesPerSegment) * m.pageSize;
+            buf.position(offset);
+            buf.limit(offset + m.pageSize);
+            return new HeapPage(new HeapPageId(pid.getTableId(), pgNo), buf);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        throw new IOException("MappedHeapFile is read-only");
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        throw new IOException("MappedHeapFile is read-only");
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("MappedHeapFile is read-only");
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("MappedHeapFile is read-only");
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        // MappedByteBuffer 没有显式的 unmap，丢弃引用后由 GC 回收映射
+        synchronized (this) {
+            mapping = null;
+        }
+        super.close();
+    }
+}
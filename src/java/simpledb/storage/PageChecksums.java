@@ -0,0 +1,307 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+import java.util.zip.Checksum;
+
+/**
+ * PageChecksums keeps a CRC32C checksum of every page of a DbFile, so that a
+ * page that was only partly written, or was damaged on disk, is detected
+ * when it is read back instead of being decoded as garbage.
+ * <p>
+ * The checksums are kept in a side file next to the data file (see
+ * {@link #sideFile}) rather than in the pages themselves, whose formats
+ * use every byte of the page and are also written by HeapFileEncoder. The
+ * side file holds a magic number and the page size, followed by one 8-byte
+ * entry per page: the checksum and its complement. An entry whose halves do
+ * not match, such as the zeros of a hole in the file, is "unknown". Pages
+ * written by HeapFileEncoder, or before checksums existed, have unknown
+ * checksums; they are not checked until they are next written.
+ * <p>
+ * Every update is written through to the side file right after the page
+ * itself. Checksums saved for another page size, or for more pages than
+ * the data file has (the file was replaced), are discarded when loaded.
+ * <p>
+ * Pages are identified by their number in the owning file, which for a
+ * BTreeFile makes the root pointer page number 0.
+ *
+ * @Threadsafe
+ */
+public class PageChecksums {
+
+    private static final int MAGIC = 0x43524331; // "CRC1"
+    private static final int HEADER_SIZE = 8;
+    private static final int ENTRY_SIZE = 8;
+
+    /** Pages verified by one task of {@link #verify} */
+    private static final int VERIFY_CHUNK = 64;
+
+    private static final ThreadLocal<Checksum> CRC32C = ThreadLocal.withInitial(PageChecksums::newCrc32c);
+
+    private final File f;
+    private final File side;
+    private final IntSupplier numPages;
+    private final DbFileChannel channel;
+
+    /** 页号 -> checksum，known 中没有的页面 checksum 未知 */
+    private int[] crcs = new int[0];
+    private final BitSet known = new BitSet();
+    /** 加载时的页面大小，0 表示还没有加载 */
+    private int pageSize;
+    /** side file 的头部是否已经是当前页面大小的 */
+    private boolean headerValid;
+
+    /**
+     * @param f the data file
+     * @param numPages the number of pages in the data file, counting a
+     *                 partly written page at its end
+     */
+    public PageChecksums(File f, IntSupplier numPages) {
+        this.f = f;
+        this.side = sideFile(f);
+        this.numPages = numPages;
+        this.channel = new DbFileChannel(side);
+    }
+
+    /** Return the file the checksums of data file f are kept in. */
+    public static File sideFile(File f) {
+        return new File(f.getPath() + ".crc");
+    }
+
+    /** Return the CRC32C checksum of len bytes of data. */
+    public static int crc32c(byte[] data, int off, int len) {
+        Checksum crc = CRC32C.get();
+        crc.reset();
+        crc.update(data, off, len);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Return the exception for a page of which only read bytes out of len
+     * could be read.
+     */
+    public static PageCorruptedException shortRead(File f, int pgNo, int read, int len) {
+        return new PageCorruptedException(f, pgNo, "file ends after " + read + " of its " + len + " bytes");
+    }
+
+    /** Load the checksums if they were not loaded for the current page size. */
+    private void load() throws IOException {
+        int size = BufferPool.getPageSize();
+        if (pageSize == size) {
+            return;
+        }
+        pageSize = size;
+        crcs = new int[16];
+        known.clear();
+        headerValid = false;
+        long length = side.exists() ? side.length() : 0;
+        if (length < HEADER_SIZE) {
+            return;
+        }
+        byte[] header = new byte[HEADER_SIZE];
+        if (channel.read(header, HEADER_SIZE, 0) < HEADER_SIZE) {
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(header);
+        if (buf.getInt() != MAGIC || buf.getInt() != size) {
+            return;
+        }
+        int n = (int) ((length - HEADER_SIZE) / ENTRY_SIZE);
+        if (n > numPages.getAsInt()) {
+            return;
+        }
+        headerValid = true;
+        byte[] entries = new byte[n * ENTRY_SIZE];
+        int read = channel.read(entries, entries.length, HEADER_SIZE);
+        buf = ByteBuffer.wrap(entries, 0, Math.max(read, 0));
+        crcs = new int[Math.max(n, 16)];
+        for (int i = 0; buf.remaining() >= ENTRY_SIZE; i++) {
+            int crc = buf.getInt();
+            if (buf.getInt() == ~crc) {
+                crcs[i] = crc;
+                known.set(i);
+            }
+        }
+    }
+
+    /**
+     * Record the checksum of data, which was just written as page pgNo.
+     */
+    public void update(int pgNo, byte[] data) throws IOException {
+        int crc = crc32c(data, 0, data.length);
+        synchronized (this) {
+            load();
+            if (!headerValid) {
+                // 旧的 side file 不可用，从头重建
+                channel.close();
+                side.delete();
+                byte[] header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(pageSize).array();
+                channel.write(header, HEADER_SIZE, 0);
+                headerValid = true;
+            }
+            if (pgNo >= crcs.length) {
+                crcs = Arrays.copyOf(crcs, Math.max(pgNo + 1, crcs.length * 2));
+            }
+            crcs[pgNo] = crc;
+            known.set(pgNo);
+            byte[] entry = ByteBuffer.allocate(ENTRY_SIZE).putInt(crc).putInt(~crc).array();
+            channel.write(entry, ENTRY_SIZE, HEADER_SIZE + (long) pgNo * ENTRY_SIZE);
+        }
+    }
+
+    /**
+     * Check data, just read as page pgNo, against its checksum. Pages with
+     * an unknown checksum pass.
+     *
+     * @throws PageCorruptedException if the checksum does not match
+     */
+    public void check(int pgNo, byte[] data) throws IOException {
+        int expected;
+        synchronized (this) {
+            load();
+            if (!known.get(pgNo)) {
+                return;
+            }
+            expected = crcs[pgNo];
+        }
+        int actual = crc32c(data, 0, data.length);
+        if (actual != expected) {
+            throw new PageCorruptedException(f, pgNo, String.format(
+                    "checksum %08x does not match the %08x recorded when it was written", actual, expected));
+        }
+    }
+
+    /** @return true if the checksum of page pgNo is known */
+    public synchronized boolean isKnown(int pgNo) throws IOException {
+        load();
+        return known.get(pgNo);
+    }
+
+    /** Close the side file. It is reopened on the next update. */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Read pages first to end - 1 with threads threads in parallel, and
+     * report those that are corrupt. read(pgNo) must read page pgNo from
+     * disk, bypassing the buffer pool, and check it, throwing
+     * {@link PageCorruptedException} if it is corrupt.
+     */
+    public Report verify(int first, int end, IntConsumer read, int threads) throws IOException {
+        int unchecked = 0;
+        for (int pgNo = first; pgNo < end; pgNo++) {
+            if (!isKnown(pgNo)) {
+                unchecked++;
+            }
+        }
+        SortedMap<Integer, String> corrupt = new ConcurrentSkipListMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int start = first; start < end; start += VERIFY_CHUNK) {
+                final int from = start;
+                final int to = Math.min(end, start + VERIFY_CHUNK);
+                tasks.add(pool.submit(() -> {
+                    for (int pgNo = from; pgNo < to; pgNo++) {
+                        try {
+                            read.accept(pgNo);
+                        } catch (PageCorruptedException e) {
+                            corrupt.put(pgNo, e.getMessage());
+                        }
+                    }
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while verifying " + f);
+        } catch (ExecutionException e) {
+            throw new IOException("could not verify " + f, e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return new Report(f, end - first, unchecked, corrupt);
+    }
+
+    /**
+     * The outcome of {@link #verify}: how many pages were read, how many of
+     * them had no checksum to check, and which were corrupt.
+     */
+    public static class Report {
+        public final File file;
+        public final int pages;
+        public final int unchecked;
+        /** page number -> why the page is corrupt */
+        public final SortedMap<Integer, String> corrupt;
+
+        Report(File file, int pages, int unchecked, SortedMap<Integer, String> corrupt) {
+            this.file = file;
+            this.pages = pages;
+            this.unchecked = unchecked;
+            this.corrupt = Collections.unmodifiableSortedMap(corrupt);
+        }
+
+        public String toString() {
+            return file + ": " + pages + " pages, " + unchecked + " without checksum, "
+                    + corrupt.size() + " corrupt";
+        }
+    }
+
+    /**
+     * Return a CRC32C checksum: java.util.zip.CRC32C where it exists (Java 9
+     * and later, with hardware support), otherwise a table-driven one
+     * computing the same values.
+     */
+    private static Checksum newCrc32c() {
+        try {
+            return (Checksum) Class.forName("java.util.zip.CRC32C").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            return new TableCrc32c();
+        }
+    }
+
+    /** CRC32C (Castagnoli polynomial, reflected), one table lookup per byte */
+    static class TableCrc32c implements Checksum {
+        private static final int[] TABLE = new int[256];
+
+        static {
+            for (int i = 0; i < 256; i++) {
+                int c = i;
+                for (int k = 0; k < 8; k++) {
+                    c = (c & 1) != 0 ? (c >>> 1) ^ 0x82F63B78 : c >>> 1;
+                }
+                TABLE[i] = c;
+            }
+        }
+
+        private int crc = 0xFFFFFFFF;
+
+        public void update(int b) {
+            crc = (crc >>> 8) ^ TABLE[(crc ^ b) & 0xFF];
+        }
+
+        public void update(byte[] b, int off, int len) {
+            int c = crc;
+            for (int i = off; i < off + len; i++) {
+                c = (c >>> 8) ^ TABLE[(c ^ b[i]) & 0xFF];
+            }
+            crc = c;
+        }
+
+        public long getValue() {
+            return ~crc & 0xFFFFFFFFL;
+        }
+
+        public void reset() {
+            crc = 0xFFFFFFFF;
+        }
+    }
+}
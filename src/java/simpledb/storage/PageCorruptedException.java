@@ -0,0 +1,33 @@
+package simpledb.storage;
+
+import java.io.File;
+
+/**
+ * Thrown when a page read from disk is not the page that was written: it
+ * fails its checksum (see {@link PageChecksums}) or the file ends in the
+ * middle of it. The buffer pool reports it to its callers as a
+ * {@link simpledb.common.DbException} with the same message.
+ */
+public class PageCorruptedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File file;
+    private final int pgNo;
+
+    public PageCorruptedException(File file, int pgNo, String reason) {
+        super("page " + pgNo + " of " + file + " is corrupt: " + reason);
+        this.file = file;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the file holding the corrupt page */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the number of the corrupt page in its file */
+    public int getPageNumber() {
+        return pgNo;
+    }
+}
@@ -0,0 +1,239 @@
+package simpledb.storage;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * ReadAhead prefetches pages into a BufferPool ahead of sequential scans.
+ * <p>
+ * A scan opens a {@link Stream} and reports every page it fetches. The
+ * stream knows how to get from a page to the page the scan will read next
+ * (the next page number of a HeapFile, the right sibling of a B+ tree leaf),
+ * and once the scan has followed that order for {@link #TRIGGER} pages in a
+ * row, it starts reading the following pages into the pool on a background
+ * thread, up to a window of pages ahead of the scan. A new batch is started
+ * when the scan has consumed half of the window.
+ * <p>
+ * Prefetching never blocks and never changes what a transaction sees: a
+ * page is only read while no transaction holds or waits for an exclusive
+ * lock on it (see {@link BufferPool#prefetchPage}), pages that are already
+ * cached are left alone, and the scan still locks every page itself through
+ * {@link BufferPool#getPage}.
+ *
+ * @Threadsafe
+ */
+public class ReadAhead {
+
+    /** Default number of pages a stream prefetches ahead of its scan. */
+    public static final int DEFAULT_WINDOW = 8;
+
+    /** Number of pages read in order before a stream starts prefetching. */
+    public static final int TRIGGER = 2;
+
+    /** Number of background threads reading pages ahead. */
+    private static final int THREADS = 2;
+
+    private final BufferPool pool;
+
+    /** 预读窗口不超过缓冲池的 1/4，避免把扫描自己马上要用的页面挤出去 */
+    private final int maxWindow;
+
+    private volatile int window;
+
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder prefetched;
+    private final LongAdder used;
+
+    ReadAhead(BufferPool pool, int numPages) {
+        this.pool = pool;
+        this.maxWindow = numPages / 4;
+        this.window = DEFAULT_WINDOW;
+        this.prefetched = new LongAdder();
+        this.used = new LongAdder();
+        // 空闲的线程会退出，所以被替换掉的 BufferPool 不会留下线程
+        this.executor = new ThreadPoolExecutor(THREADS, THREADS, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "read-ahead");
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Set the number of pages a stream prefetches ahead of its scan; 0
+     * disables read-ahead. The window actually used is capped at a quarter
+     * of the pool.
+     */
+    public void setWindow(int window) {
+        this.window = Math.max(0, window);
+    }
+
+    /** Return the configured read-ahead window, in pages. */
+    public int getWindow() {
+        return window;
+    }
+
+    /** Return the window streams of this pool actually use, in pages. */
+    public int getEffectiveWindow() {
+        return Math.min(window, maxWindow);
+    }
+
+    /** Return the number of pages read into the pool by read-ahead. */
+    public long getPrefetchCount() {
+        return prefetched.sum();
+    }
+
+    /** Return the number of prefetched pages that were later fetched with getPage. */
+    public long getUsedCount() {
+        return used.sum();
+    }
+
+    void pagePrefetched() {
+        prefetched.increment();
+    }
+
+    void prefetchUsed() {
+        used.increment();
+    }
+
+    /**
+     * Create a stream for one scan.
+     *
+     * @param next maps a page of the scan to the page the scan reads after
+     *             it, or null if it is the last one
+     */
+    public Stream newStream(Function<Page, PageId> next) {
+        return new Stream(next);
+    }
+
+    /**
+     * The read-ahead state of one scan. Not meant to be shared between scans.
+     * <p>
+     * Pages are numbered by their position in the current sequential run of
+     * the scan, so the stream can tell how far the prefetcher is ahead of
+     * the scan, and restart from the scan's position when the scan has
+     * overtaken it instead of reading pages the scan has already used.
+     */
+    public class Stream {
+        private final Function<Page, PageId> next;
+
+        /** 按扫描顺序，下一个应该访问的页面 */
+        private PageId expected;
+        /** 扫描在当前顺序访问中访问过的页面数 */
+        private int consumed;
+        /** 下一个要预读的页面，以及它在顺序访问中的位置（从 1 开始） */
+        private PageId frontier;
+        private int frontierIndex;
+        /** 是否有一批预读正在进行 */
+        private boolean running;
+        /** 扫描每次不按顺序访问时加一，用来作废进行中的那批预读 */
+        private int generation;
+
+        private Stream(Function<Page, PageId> next) {
+            this.next = next;
+        }
+
+        /** Number of prefetched pages the scan has not reached yet. Caller holds the monitor. */
+        private int ahead() {
+            return Math.max(0, frontierIndex - consumed - 1);
+        }
+
+        /** Return true if the page at index of the run gen is still ahead of the scan. */
+        private synchronized boolean stillAhead(int index, int gen) {
+            return gen == generation && index > consumed;
+        }
+
+        /**
+         * Report that the scan has fetched page, and prefetch the pages after
+         * it if the scan is sequential and the window is running low.
+         */
+        public void accessed(Page page) {
+            PageId start;
+            int startIndex;
+            int count;
+            int gen;
+            synchronized (this) {
+                if (consumed > 0 && page.getId().equals(expected)) {
+                    consumed++;
+                } else {
+                    // 不是顺序访问，重新开始计数，进行中的预读作废
+                    consumed = 1;
+                    frontier = null;
+                    frontierIndex = 0;
+                    generation++;
+                }
+                expected = next.apply(page);
+                int w = getEffectiveWindow();
+                int ahead = ahead();
+                if (consumed < TRIGGER || w <= 0 || running || ahead > w / 2 || expected == null) {
+                    return;
+                }
+                if (ahead > 0) {
+                    if (frontier == null) {
+                        return; // 已经预读到了最后一页
+                    }
+                    start = frontier;
+                    startIndex = frontierIndex;
+                } else {
+                    start = expected;
+                    startIndex = consumed + 1;
+                }
+                count = w - ahead;
+                gen = generation;
+                running = true;
+            }
+            try {
+                executor.execute(() -> prefetch(start, startIndex, count, gen));
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    running = false;
+                }
+            }
+        }
+
+        private void prefetch(PageId start, int startIndex, int count, int gen) {
+            try {
+                PageId pid = start;
+                int index = startIndex;
+                for (int i = 0; i < count && pid != null; i++) {
+                    synchronized (this) {
+                        if (gen != generation) {
+                            break; // 扫描跳到了别处
+                        }
+                        if (index <= consumed) {
+                            // 扫描已经超过了预读，从扫描当前的位置接着读
+                            pid = expected;
+                            index = consumed + 1;
+                            if (pid == null) {
+                                break;
+                            }
+                        }
+                    }
+                    final int target = index;
+                    Page page = pool.prefetchPage(pid, () -> stillAhead(target, gen));
+                    if (page == null) {
+                        break; // 页面被加了锁、缓冲池没有空间或者扫描已经读到了它，下次再试
+                    }
+                    synchronized (this) {
+                        if (gen != generation) {
+                            break;
+                        }
+                        frontier = next.apply(page);
+                        frontierIndex = ++index;
+                        pid = frontier;
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    running = false;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+
+/**
+ * ScanRing is a small private set of buffer frames used by one sequential
+ * scan, like PostgreSQL's BufferAccessStrategy. Pages the scan has to read
+ * from disk are remembered in FIFO order; once the ring is full, the
+ * oldest of them is dropped from the BufferPool before the next one is
+ * read, so a scan of a large table recycles its own frames instead of
+ * evicting the pages other transactions are working on.
+ * <p>
+ * Pages the scan finds already cached are not touched, and a ring page
+ * that another transaction reads in the meantime is adopted by the main
+ * cache and not recycled.
+ *
+ * @see BufferPool#newScanRing
+ */
+public class ScanRing {
+
+    private final int size;
+    private final ArrayDeque<PageId> pages;
+
+    ScanRing(int size) {
+        this.size = size;
+        this.pages = new ArrayDeque<>(size);
+    }
+
+    /** Return the number of frames of this ring. */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Remember that pid was read into the pool through this ring.
+     *
+     * @return the page to recycle to make room for pid, or null if the ring is not full yet
+     */
+    synchronized PageId add(PageId pid) {
+        PageId recycled = null;
+        if (pages.size() == size) {
+            recycled = pages.pollFirst();
+        }
+        pages.addLast(pid);
+        return recycled;
+    }
+}
@@ -0,0 +1,59 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages are {@link SlottedHeapPage}s:
+ * tuples are stored as variable-length records behind a slot directory, so
+ * that strings only take the space of their actual value. Tables with many
+ * short strings hold several times as many tuples per page as with the
+ * fixed-size layout of {@link HeapPage}.
+ * <p>
+ * The layout is a property of the file and is not recorded in it: a file
+ * written as a SlottedHeapFile must always be opened as one, and files
+ * written by {@link HeapFileEncoder} or as a plain HeapFile keep being read
+ * with the fixed layout. In a catalog file, a table is opened as a
+ * SlottedHeapFile by following its schema with the word "slotted" (see
+ * {@link simpledb.common.Catalog#loadSchema}).
+ *
+ * @see HeapFile
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Constructs a slotted heap file backed by the specified file, whose
+     * pages are optionally stored compressed.
+     *
+     * @see HeapFile#HeapFile(File, TupleDesc, boolean)
+     */
+    public SlottedHeapFile(File f, TupleDesc td, boolean compressed) {
+        super(f, td, compressed);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pgNo = pid.getPageNumber();
+        byte[] data = readPageData(pgNo);
+        if (data == null) {
+            return null;
+        }
+        try {
+            return new SlottedHeapPage(new HeapPageId(pid.getTableId(), pgNo), data);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+}
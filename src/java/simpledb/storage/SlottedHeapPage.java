@@ -0,0 +1,381 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedHeapPage stores the tuples of a {@link SlottedHeapFile} as
+ * variable-length records, so that a STRING_TYPE field takes the length of
+ * its value instead of {@link Type#STRING_LEN} + 4 bytes.
+ * <p>
+ * The layout of a page of P bytes is:
+ * <pre>
+ *   0             number of slots (unsigned short)
+ *   2             offset of the lowest record, 0 if there is none
+ *   4             slot directory: one (offset, length) pair of unsigned
+ *                 shorts per slot; offset 0 marks an empty slot
+ *   ...           free space
+ *   ... P         records, growing down from the end of the page
+ * </pre>
+ * A record holds its fields in order: a STRING_TYPE as a 2-byte length
+ * followed by that many bytes, any other type in its fixed-length form. An
+ * all-zero page is an empty page, so {@link HeapPage#createEmptyPageData}
+ * works for this layout too.
+ * <p>
+ * A tuple keeps its slot, and so its RecordId, until it is deleted. Slots of
+ * deleted tuples are reused by later inserts, and the space of deleted
+ * records is reclaimed by compacting the page when an insert does not fit in
+ * the free space between the directory and the records.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedHeapPage extends HeapPage {
+
+    private static final int HEADER_SIZE = 4;
+    private static final int SLOT_SIZE = 4;
+
+    /** Offsets are unsigned shorts, which limits the page size */
+    public static final int MAX_PAGE_SIZE = 1 << 16;
+
+    private final int pageSize;
+
+    /** 最长的记录（所有字符串都取最大长度）的字节数 */
+    private final int maxRecordSize;
+
+    /**
+     * 页面的字节。shared 为 true 时被 before image 或者迭代器引用，写入前要先复制
+     */
+    private byte[] data;
+    private boolean shared;
+
+    /** 在用记录的总字节数 */
+    private int liveBytes;
+
+    /** 已经返回过的 tuple，按 slot 缓存 */
+    private Tuple[] slotTuples;
+
+    private byte[] oldData;
+    private final Byte oldDataLock = (byte) 0;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk,
+     * in the format described above. data is not copied, so the caller must
+     * not modify it afterwards; the page itself never writes to it.
+     *
+     * @throws IOException if the slot directory does not describe a valid page
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        super(id);
+        this.pageSize = BufferPool.getPageSize();
+        if (pageSize > MAX_PAGE_SIZE) {
+            throw new IOException("slotted pages cannot be larger than " + MAX_PAGE_SIZE + " bytes");
+        }
+        if (data.length < pageSize) {
+            data = Arrays.copyOf(data, pageSize);
+        }
+        this.data = data;
+
+        int max = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            max += type == Type.STRING_TYPE ? 2 + Type.STRING_LEN : type.getLen();
+        }
+        this.maxRecordSize = max;
+
+        int slots = getNumSlots();
+        int start = recordStart();
+        if (directoryEnd(slots) > start) {
+            throw new IOException("corrupt slot directory on page " + id.getPageNumber());
+        }
+        for (int i = 0; i < slots; i++) {
+            int offset = slotOffset(i);
+            int length = slotLength(i);
+            if (offset == 0) {
+                continue;
+            }
+            if (offset < start || offset + length > pageSize) {
+                throw new IOException("corrupt slot " + i + " on page " + id.getPageNumber());
+            }
+            liveBytes += length;
+        }
+
+        setBeforeImage();
+    }
+
+    private int u16(int pos) {
+        return ((data[pos] & 0xff) << 8) | (data[pos + 1] & 0xff);
+    }
+
+    private void putU16(int pos, int value) {
+        data[pos] = (byte) (value >>> 8);
+        data[pos + 1] = (byte) value;
+    }
+
+    /** Return the number of entries in the slot directory, used or not. */
+    public int getNumSlots() {
+        return u16(0);
+    }
+
+    private int recordStart() {
+        int start = u16(2);
+        return start == 0 ? pageSize : start;
+    }
+
+    private static int directoryEnd(int slots) {
+        return HEADER_SIZE + slots * SLOT_SIZE;
+    }
+
+    private int slotOffset(int i) {
+        return u16(HEADER_SIZE + i * SLOT_SIZE);
+    }
+
+    private int slotLength(int i) {
+        return u16(HEADER_SIZE + i * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int i, int offset, int length) {
+        putU16(HEADER_SIZE + i * SLOT_SIZE, offset);
+        putU16(HEADER_SIZE + i * SLOT_SIZE + 2, length);
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    @Override
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new SlottedHeapPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    @Override
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = data;
+            shared = true;
+        }
+    }
+
+    @Override
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    private synchronized void ensureWritable() {
+        if (shared) {
+            data = data.clone();
+            shared = false;
+        }
+    }
+
+    /**
+     * Encode the fields of t as a record.
+     */
+    private byte[] encode(Tuple t) throws DbException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(maxRecordSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                Field f = t.getField(j);
+                if (td.getFieldType(j) == Type.STRING_TYPE) {
+                    // 和 StringField.serialize 一样每个字符写一个字节，只是不补齐
+                    String s = ((StringField) f).getValue();
+                    if (s.length() > Type.STRING_LEN) {
+                        s = s.substring(0, Type.STRING_LEN);
+                    }
+                    dos.writeShort(s.length());
+                    dos.writeBytes(s);
+                } else {
+                    f.serialize(dos);
+                }
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new DbException("cannot serialize tuple: " + e.getMessage());
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Decode the record of slot i from bytes.
+     */
+    private Tuple decode(byte[] bytes, int offset, int slotId) {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        int pos = offset;
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                Type type = td.getFieldType(j);
+                if (type == Type.STRING_TYPE) {
+                    int len = buf.getShort(pos) & 0xffff;
+                    t.setField(j, new StringField(new String(bytes, pos + 2, len), Type.STRING_LEN));
+                    pos += 2 + len;
+                } else {
+                    t.setField(j, type.parse(buf, pos));
+                    pos += type.getLen();
+                }
+            }
+        } catch (java.text.ParseException | IndexOutOfBoundsException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        return t;
+    }
+
+    /**
+     * Move the live records next to each other at the end of the page, so
+     * that all free space is between the directory and the records.
+     */
+    private void compact() {
+        byte[] packed = new byte[pageSize];
+        int slots = getNumSlots();
+        System.arraycopy(data, 0, packed, 0, directoryEnd(slots));
+        byte[] old = data;
+        data = packed;
+        shared = false;
+        int start = pageSize;
+        for (int i = 0; i < slots; i++) {
+            int offset = u16(HEADER_SIZE + i * SLOT_SIZE);
+            if (offset == 0) {
+                continue;
+            }
+            int length = slotLength(i);
+            start -= length;
+            System.arraycopy(old, offset, packed, start, length);
+            setSlot(i, start, length);
+        }
+        putU16(2, start == pageSize ? 0 : start);
+    }
+
+    @Override
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()) || !isSlotUsed(rid.getTupleNumber())) {
+            throw new DbException("the tuple is not on this page or tuple slot is already empty ***** from SlottedHeapPage.deleteTuple(Tuple t)");
+        }
+        int slot = rid.getTupleNumber();
+        ensureWritable();
+        liveBytes -= slotLength(slot);
+        setSlot(slot, 0, 0);
+        clearSlotTuple(slot);
+    }
+
+    @Override
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("tupledesc is mismatch ***** from SlottedHeapPage.insertTuple");
+        }
+        byte[] record = encode(t);
+        int slots = getNumSlots();
+        int slot = 0;
+        while (slot < slots && slotOffset(slot) != 0) {
+            slot++;
+        }
+        int newSlots = slot == slots ? slots + 1 : slots;
+        if (directoryEnd(newSlots) + liveBytes + record.length > pageSize) {
+            throw new DbException("page is full ***** from SlottedHeapPage.insertTuple");
+        }
+        ensureWritable();
+        if (recordStart() - record.length < directoryEnd(newSlots)) {
+            compact();
+        }
+        int offset = recordStart() - record.length;
+        System.arraycopy(record, 0, data, offset, record.length);
+        putU16(0, newSlots);
+        setSlot(slot, offset, record.length);
+        putU16(2, offset);
+        liveBytes += record.length;
+        t.setRecordId(new RecordId(pid, slot));
+        clearSlotTuple(slot);
+    }
+
+    /**
+     * Returns the number of tuples that are certain to still fit on this
+     * page: the free space divided by the size of the longest possible record
+     * and its directory entry. Shorter tuples may fit even when this is 0.
+     */
+    @Override
+    public int getNumEmptySlots() {
+        int free = pageSize - directoryEnd(getNumSlots()) - liveBytes;
+        return Math.max(0, free / (maxRecordSize + SLOT_SIZE));
+    }
+
+    @Override
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < getNumSlots() && slotOffset(i) != 0;
+    }
+
+    private synchronized Tuple slotTuple(byte[] bytes, int slotId, int offset) {
+        if (slotTuples == null || slotTuples.length <= slotId) {
+            slotTuples = Arrays.copyOf(slotTuples == null ? new Tuple[0] : slotTuples,
+                    Math.max(slotId + 1, getNumSlots()));
+        }
+        Tuple t = slotTuples[slotId];
+        if (t == null) {
+            t = decode(bytes, offset, slotId);
+            slotTuples[slotId] = t;
+        }
+        return t;
+    }
+
+    private synchronized void clearSlotTuple(int slotId) {
+        if (slotTuples != null && slotId < slotTuples.length) {
+            slotTuples[slotId] = null;
+        }
+    }
+
+    /**
+     * @return an iterator over the tuples on this page when it is called;
+     * later inserts and deletes do not affect it
+     */
+    @Override
+    public synchronized Iterator<Tuple> iterator() {
+        final byte[] snapshot = data;
+        shared = true;
+        final int slots = getNumSlots();
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                for (int i = from; i < slots; i++) {
+                    if (offsetIn(snapshot, i) != 0) {
+                        return i;
+                    }
+                }
+                return slots;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < slots;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = slotTuple(snapshot, next, offsetIn(snapshot, next));
+                next = advance(next + 1);
+                return t;
+            }
+        };
+    }
+
+    private static int offsetIn(byte[] bytes, int slot) {
+        int pos = HEADER_SIZE + slot * SLOT_SIZE;
+        return ((bytes[pos] & 0xff) << 8) | (bytes[pos + 1] & 0xff);
+    }
+}
@@ -89,6 +89,31 @@ public class Tuple implements Serializable {
         return null;
     }
 
+    /**
+     * Return the value of the ith field, which must be an IntField. Tuples
+     * read from a page return it without creating the IntField.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     */
+    public int getInt(int i) {
+        return ((IntField) getField(i)).getValue();
+    }
+
+    /**
+     * Return a copy of this tuple, with the same fields and RecordId, that
+     * holds nothing else: a tuple read from a page keeps the whole page in
+     * memory, its copy does not.
+     */
+    public Tuple copy() {
+        Tuple t = new Tuple(tupleDesc);
+        for (int i = 0; i < tupleDesc.numFields(); i++) {
+            t.setField(i, getField(i));
+        }
+        t.setRecordId(getRecordId());
+        return t;
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -0,0 +1,95 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Scan-resistant 2Q replacement (Johnson and Shasha). A page read for the
+ * first time goes into the FIFO queue A1in; hits there are ignored. Pages
+ * evicted from A1in are remembered, without their data, in the ghost
+ * queue A1out, and only a page that is read again while in A1out is
+ * admitted to the LRU-managed hot set Am. A sequential scan therefore
+ * cycles through A1in and leaves Am alone.
+ */
+public class TwoQEvictionPolicy implements EvictionPolicy {
+
+    private final int kin;
+    private final int kout;
+
+    /** A1in，按读入顺序 */
+    private final LinkedHashMap<PageId, Boolean> a1in = new LinkedHashMap<>();
+    /** Am，按访问顺序 */
+    private final LinkedHashMap<PageId, Boolean> am = new LinkedHashMap<>(16, 0.75f, true);
+    /** A1out，只记录 PageId */
+    private final LinkedHashMap<PageId, Boolean> a1out = new LinkedHashMap<PageId, Boolean>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<PageId, Boolean> eldest) {
+            return size() > kout;
+        }
+    };
+
+    /**
+     * @param capacity the number of pages the policy is expected to manage;
+     *                 A1in gets a quarter of it, and since ghosts are cheap A1out
+     *                 remembers as many pages as the capacity
+     */
+    public TwoQEvictionPolicy(int capacity) {
+        kin = Math.max(1, capacity / 4);
+        kout = Math.max(1, capacity);
+    }
+
+    @Override
+    public synchronized void pageAdded(PageId pid) {
+        if (a1out.remove(pid) != null) {
+            am.put(pid, Boolean.TRUE);
+        } else {
+            a1in.put(pid, Boolean.TRUE);
+        }
+    }
+
+    @Override
+    public synchronized void pageAccessed(PageId pid) {
+        am.get(pid);
+    }
+
+    @Override
+    public synchronized void pageRemoved(PageId pid) {
+        if (a1in.remove(pid) == null) {
+            am.remove(pid);
+        }
+    }
+
+    @Override
+    public synchronized PageId evict(Predicate<PageId> evictable) {
+        PageId victim = null;
+        if (a1in.size() > kin) {
+            victim = evictFirst(a1in, evictable);
+        }
+        if (victim == null) {
+            victim = evictFirst(am, evictable);
+        }
+        if (victim == null) {
+            victim = evictFirst(a1in, evictable);
+        }
+        return victim;
+    }
+
+    private PageId evictFirst(LinkedHashMap<PageId, Boolean> queue, Predicate<PageId> evictable) {
+        Iterator<PageId> it = queue.keySet().iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (evictable.test(pid)) {
+                it.remove();
+                if (queue == a1in) {
+                    a1out.put(pid, Boolean.TRUE);
+                }
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -1,113 +1,290 @@
 package simpledb.transaction;
 
-import simpledb.storage.Page;
 import simpledb.storage.PageId;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Vector;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * LockManager keeps the page-level shared / exclusive locks of the
+ * BufferPool. Every page that is locked (or waited on) has a
+ * {@link PageLock} holding the granted locks plus a FIFO queue of waiting
+ * requests. A request that conflicts with the granted locks, or with a
+ * request queued before it, sleeps on the page's monitor until a release
+ * makes it grantable, instead of spinning in the caller.
+ * <p>
+ * Lock upgrades (S -> X requested by a current S holder) are queued ahead
+ * of ordinary waiters, so an upgrader is never starved by new readers.
+ * <p>
+ * Deadlocks are detected with a {@link WaitsForGraph}: every blocked request
+ * records whom it waits on, and the request that closes a cycle aborts the
+ * youngest transaction on it.
+ *
+ * @Threadsafe
+ */
 public class LockManager {
-    class LockStatus{
-        private TransactionId tid;
-        private int lockType; // 1 为 X  0 为 S
+    public static final int SHARED = 0;
+    public static final int EXCLUSIVE = 1;
 
-        public LockStatus(TransactionId tid, int lockType) {
+    /** 一个事务对一个页面的加锁请求 */
+    private static class LockRequest {
+        final TransactionId tid;
+        final int lockType; // 1 为 X  0 为 S
+        final boolean upgrade;
+
+        LockRequest(TransactionId tid, int lockType, boolean upgrade) {
             this.tid = tid;
             this.lockType = lockType;
+            this.upgrade = upgrade;
         }
+    }
 
-        public TransactionId getTid() {
-            return tid;
-        }
+    /**
+     * Lock state of a single page. All fields are guarded by the PageLock's
+     * own monitor; waiters of the page wait() on it.
+     */
+    private static class PageLock {
+        /** 已经授予的锁 tid -> lockType */
+        final Map<TransactionId, Integer> holders = new HashMap<>();
+        /** 等待队列，升级请求排在普通请求之前 */
+        final LinkedList<LockRequest> waiters = new LinkedList<>();
+        /** 已经从 pagesLocks 中移除，拿到它的线程需要重新取 */
+        boolean retired = false;
 
-        public void setTid(TransactionId tid) {
-            this.tid = tid;
+        boolean isIdle() {
+            return holders.isEmpty() && waiters.isEmpty();
         }
 
-        public int getLockType() {
-            return lockType;
+        /**
+         * Return the transactions req is waiting on: conflicting holders and
+         * conflicting requests queued before it. req can be granted iff the
+         * result is empty.
+         */
+        Set<TransactionId> blockers(LockRequest req) {
+            Set<TransactionId> blockers = new HashSet<>();
+            for (Map.Entry<TransactionId, Integer> e : holders.entrySet()) {
+                if (e.getKey().equals(req.tid)) continue;
+                if (req.lockType == EXCLUSIVE || e.getValue() == EXCLUSIVE) blockers.add(e.getKey());
+            }
+            for (LockRequest ahead : waiters) {
+                if (ahead == req) break;
+                if (ahead.tid.equals(req.tid)) continue;
+                if (ahead.lockType == EXCLUSIVE || req.lockType == EXCLUSIVE) blockers.add(ahead.tid);
+            }
+            return blockers;
         }
 
-        public void setLockType(int lockType) {
-            this.lockType = lockType;
+        void enqueue(LockRequest req) {
+            if (req.upgrade) {
+                // 插到最后一个升级请求之后
+                ListIterator<LockRequest> it = waiters.listIterator();
+                while (it.hasNext()) {
+                    if (!it.next().upgrade) {
+                        it.previous();
+                        break;
+                    }
+                }
+                it.add(req);
+            } else {
+                waiters.addLast(req);
+            }
         }
     }
-    private volatile Map<PageId, Vector<LockStatus>> pagesLocks;
+
+    private final ConcurrentHashMap<PageId, PageLock> pagesLocks;
+
+    /** 每个事务持有锁的页面，用于事务结束时释放 */
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> txnPages;
+
+    private final WaitsForGraph waitsFor;
 
     public LockManager() {
-        pagesLocks = new HashMap<>();
+        pagesLocks = new ConcurrentHashMap<>();
+        txnPages = new ConcurrentHashMap<>();
+        waitsFor = new WaitsForGraph();
     }
-    public synchronized boolean acquireLock(TransactionId tid, PageId pid, int lockType){
-        if(!pagesLocks.containsKey(pid) || pagesLocks.get(pid).size() == 0){ // 无锁上锁
-            LockStatus lock = new LockStatus(tid, lockType);
-            Vector<LockStatus> pageLocks = new Vector<>();
-            pageLocks.add(lock);
-            pagesLocks.put(pid, pageLocks);
-            return true;
-        }else{ // 已经存在锁
-            int pageStatus = 0;
-            Vector<LockStatus> pageLockStatuses = pagesLocks.get(pid);
-            for(LockStatus lock : pageLockStatuses){
-                if(lock.lockType == 1){
-                    pageStatus = 1;
+
+    /**
+     * Acquire a lock on pid for tid, blocking until it is granted.
+     *
+     * @param tid the requesting transaction
+     * @param pid the page to lock
+     * @param lockType {@link #SHARED} or {@link #EXCLUSIVE}
+     * @throws TransactionAbortedException if tid was chosen as a deadlock victim
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public void acquireLock(TransactionId tid, PageId pid, int lockType)
+            throws TransactionAbortedException, InterruptedException {
+        acquireLock(tid, pid, lockType, Long.MAX_VALUE);
+    }
+
+    /**
+     * Acquire a lock on pid for tid, blocking until it is granted or until
+     * timeoutMillis has elapsed. While blocked, tid's edges in the waits-for
+     * graph are kept up to date; if waiting would close a cycle, the
+     * youngest transaction on it is aborted.
+     *
+     * @param tid the requesting transaction
+     * @param pid the page to lock
+     * @param lockType {@link #SHARED} or {@link #EXCLUSIVE}
+     * @param timeoutMillis how long to wait for a conflicting lock to be released
+     * @return true if the lock is held on return, false if the wait timed out
+     * @throws TransactionAbortedException if tid was chosen as a deadlock victim
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public boolean acquireLock(TransactionId tid, PageId pid, int lockType, long timeoutMillis)
+            throws TransactionAbortedException, InterruptedException {
+        final long start = System.nanoTime();
+        while (true) {
+            PageLock pl = pagesLocks.computeIfAbsent(pid, k -> new PageLock());
+            synchronized (pl) {
+                if (pl.retired) continue;
+                Integer held = pl.holders.get(tid);
+                if (held != null && (held == EXCLUSIVE || held == lockType)) {
+                    // 可重入，X 锁也覆盖 S 锁
+                    return true;
                 }
-                if(lock.tid.equals(tid)){ // 找到当前事务的锁
-                    if(lock.lockType == lockType){ //事务之前加的锁 和现在加的锁一样，可以加锁，类似于可重入锁
-                        return true;
-                    }else{
-                        if(lock.lockType == 1){ // 排他锁 > 共享锁 ， 所以若已经有了排他锁，则不需要再加共享锁
-                            return true;
-                        }else{
-                            if(pageLockStatuses.size() == 1){ //有了共享锁，但是只有一个事务在page上面加锁，则锁升级
-                                lock.lockType = 1;
-                                return true;
-                            }else{
-                                return false;
-                            }
+                LockRequest req = new LockRequest(tid, lockType, held != null);
+                pl.enqueue(req);
+                boolean granted = false;
+                boolean victim = false;
+                try {
+                    Set<TransactionId> blockers;
+                    while (!(blockers = pl.blockers(req)).isEmpty()) {
+                        if (tid.equals(waitsFor.setWaits(tid, blockers))) {
+                            victim = true;
+                            throw new TransactionAbortedException();
+                        }
+                        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis) - (System.nanoTime() - start);
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(pl, remaining);
+                    }
+                    pl.holders.put(tid, lockType);
+                    granted = true;
+                } catch (InterruptedException e) {
+                    if (!waitsFor.isVictim(tid)) {
+                        throw e;
+                    }
+                } finally {
+                    pl.waiters.remove(req);
+                    // 被选为牺牲者（可能是其他事务选的，并中断了本线程）
+                    if (waitsFor.clearWaits(tid)) {
+                        victim = true;
+                        Thread.interrupted();
+                        if (granted) {
+                            pl.holders.remove(tid);
+                            granted = false;
                         }
                     }
+                    if (granted) {
+                        txnPages.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+                    }
+                    // 队首变化后，后面兼容的请求可能可以授予了
+                    pl.notifyAll();
+                    retireIfIdle(pid, pl);
+                }
+                if (victim) {
+                    throw new TransactionAbortedException();
                 }
+                return true;
             }
-            // 如果没有当前事务的锁
-            if(pageStatus == 1){// 说明有事务在Page上加了X锁
-                return false;
-            }else{
-                if(lockType == 0){
-                    LockStatus lock = new LockStatus(tid, lockType);
-                    pageLockStatuses.add(lock);
-                    pagesLocks.put(pid, pageLockStatuses);
+        }
+    }
+
+    /**
+     * Acquire a lock on pid for tid only if it can be granted right away:
+     * no conflicting lock is held and no conflicting request is queued.
+     * Never waits, so tid does not enter the waits-for graph.
+     *
+     * @return true if the lock is held on return
+     */
+    public boolean tryAcquireLock(TransactionId tid, PageId pid, int lockType) {
+        while (true) {
+            PageLock pl = pagesLocks.computeIfAbsent(pid, k -> new PageLock());
+            synchronized (pl) {
+                if (pl.retired) continue;
+                Integer held = pl.holders.get(tid);
+                if (held != null && (held == EXCLUSIVE || held == lockType)) {
                     return true;
-                }else{
-                    return false;
                 }
+                LockRequest req = new LockRequest(tid, lockType, held != null);
+                pl.enqueue(req);
+                boolean granted = pl.blockers(req).isEmpty();
+                pl.waiters.remove(req);
+                if (granted) {
+                    pl.holders.put(tid, lockType);
+                    txnPages.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+                } else {
+                    retireIfIdle(pid, pl);
+                }
+                return granted;
             }
         }
     }
-    public synchronized boolean releaseLock(TransactionId tid, PageId pid){
-
-        Vector<LockStatus> lockStatuses = pagesLocks.get(pid);
-        for(LockStatus lock : lockStatuses){
-            if(lock.tid.equals(tid)){
-                lockStatuses.remove(lock);
-                if(lockStatuses.size() == 0){
-                    pagesLocks.remove(pid);
+
+    /**
+     * Release the lock tid holds on pid, waking up the page's waiters.
+     *
+     * @return true if tid held a lock on pid
+     */
+    public boolean releaseLock(TransactionId tid, PageId pid) {
+        PageLock pl = pagesLocks.get(pid);
+        if (pl == null) return false;
+        boolean released;
+        synchronized (pl) {
+            released = pl.holders.remove(tid) != null;
+            if (released) {
+                pl.notifyAll();
+                retireIfIdle(pid, pl);
+            }
+        }
+        Set<PageId> pages = txnPages.get(tid);
+        if (pages != null) {
+            pages.remove(pid);
+        }
+        return released;
+    }
+
+    /**
+     * Release every lock held by tid.
+     */
+    public void releaseAllLocks(TransactionId tid) {
+        Set<PageId> pages = txnPages.remove(tid);
+        if (pages == null) return;
+        for (PageId pid : pages) {
+            PageLock pl = pagesLocks.get(pid);
+            if (pl == null) continue;
+            synchronized (pl) {
+                if (pl.holders.remove(tid) != null) {
+                    pl.notifyAll();
+                    retireIfIdle(pid, pl);
                 }
-                return true;
             }
         }
-        return false;
     }
-    public synchronized boolean hasLock(TransactionId tid, PageId pid){
-        if(!pagesLocks.containsKey(pid) || pagesLocks.get(pid) == null){
-            return false;
+
+    public boolean hasLock(TransactionId tid, PageId pid) {
+        PageLock pl = pagesLocks.get(pid);
+        if (pl == null) return false;
+        synchronized (pl) {
+            return pl.holders.containsKey(tid);
         }
-        final Vector<LockStatus> lockStatuses = pagesLocks.get(pid);
-        for(LockStatus lock : lockStatuses){
-            if(lock.tid.equals(tid)){
-                return true;
-            }
+    }
+
+    /** Return the pages on which tid currently holds a lock. */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        Set<PageId> pages = txnPages.get(tid);
+        return pages == null ? Collections.emptySet() : new HashSet<>(pages);
+    }
+
+    /** Caller must hold pl's monitor. */
+    private void retireIfIdle(PageId pid, PageLock pl) {
+        if (pl.isIdle()) {
+            pl.retired = true;
+            pagesLocks.remove(pid, pl);
         }
-        return false;
     }
 }
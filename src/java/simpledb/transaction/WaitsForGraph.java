@@ -0,0 +1,137 @@
+package simpledb.transaction;
+
+import java.util.*;
+
+/**
+ * WaitsForGraph records which transactions each blocked transaction is
+ * waiting on. LockManager updates the outgoing edges of a transaction every
+ * time it (re)evaluates a blocked lock request, and checks for a cycle
+ * through that transaction right away, so a deadlock is found by the
+ * request that closes it.
+ * <p>
+ * When a cycle is found the youngest transaction on it (the one with the
+ * largest id, i.e. the one that has presumably done the least work) is
+ * chosen as the victim.
+ * <p>
+ * Several threads may work for one transaction, such as the workers of a
+ * parallel scan, and wait for locks at the same time. The edges of each
+ * waiting thread are kept apart, and those of the transaction are their
+ * union; every waiting thread of a victim is woken up.
+ *
+ * @Threadsafe
+ */
+public class WaitsForGraph {
+
+    /** waiter -> 它正在等待的线程 -> 这个线程在等待的事务 */
+    private final Map<TransactionId, Map<Thread, Set<TransactionId>>> edges = new HashMap<>();
+
+    /** 被选为牺牲者的事务 -> 被选中时在等待、还没有自己退出等待的线程 */
+    private final Map<TransactionId, Set<Thread>> victims = new HashMap<>();
+
+    /**
+     * Replace the outgoing edges of waiter in the calling thread, where it is
+     * blocked, with blockers and look for a deadlock through waiter. The
+     * waiting threads of the victim other than the calling one are
+     * interrupted so that they notice the abort.
+     *
+     * @return the victim of the deadlock waiter is part of, or null if there is none
+     */
+    public synchronized TransactionId setWaits(TransactionId waiter, Set<TransactionId> blockers) {
+        if (victims.containsKey(waiter)) {
+            return waiter;
+        }
+        edges.computeIfAbsent(waiter, k -> new HashMap<>()).put(Thread.currentThread(), new HashSet<>(blockers));
+        List<TransactionId> cycle = findCycle(waiter);
+        if (cycle == null) {
+            return null;
+        }
+        TransactionId victim = cycle.get(0);
+        for (TransactionId t : cycle) {
+            if (t.getId() > victim.getId()) {
+                victim = t;
+            }
+        }
+        // 牺牲者不再等待，环被打破
+        Set<Thread> victimThreads = edges.remove(victim).keySet();
+        victims.put(victim, new HashSet<>(victimThreads));
+        for (Thread t : victimThreads) {
+            if (t != Thread.currentThread()) {
+                t.interrupt();
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * Remove the outgoing edges of tid in the calling thread, because it
+     * stopped waiting there. If tid was chosen as a victim, the thread may
+     * carry the interrupt that was sent to wake it up; the caller is
+     * responsible for clearing it. tid stops being a victim once every
+     * thread that was waiting for it when it was chosen has stopped.
+     *
+     * @return true if tid had been chosen as a deadlock victim in the meantime
+     */
+    public synchronized boolean clearWaits(TransactionId tid) {
+        Map<Thread, Set<TransactionId>> threads = edges.get(tid);
+        if (threads != null) {
+            threads.remove(Thread.currentThread());
+            if (threads.isEmpty()) {
+                edges.remove(tid);
+            }
+        }
+        Set<Thread> waiting = victims.get(tid);
+        if (waiting == null) {
+            return false;
+        }
+        waiting.remove(Thread.currentThread());
+        if (waiting.isEmpty()) {
+            victims.remove(tid);
+        }
+        return true;
+    }
+
+    /** Return true if tid has been chosen as a deadlock victim and not yet cleared. */
+    public synchronized boolean isVictim(TransactionId tid) {
+        return victims.containsKey(tid);
+    }
+
+    /** Return a copy of the transactions tid is currently waiting on, in any thread. */
+    public synchronized Set<TransactionId> getWaits(TransactionId tid) {
+        return waitsOf(tid);
+    }
+
+    private Set<TransactionId> waitsOf(TransactionId tid) {
+        Map<Thread, Set<TransactionId>> threads = edges.get(tid);
+        if (threads == null) {
+            return Collections.emptySet();
+        }
+        Set<TransactionId> out = new HashSet<>();
+        for (Set<TransactionId> blockers : threads.values()) {
+            out.addAll(blockers);
+        }
+        return out;
+    }
+
+    /** Depth-first search for a path from start back to start. */
+    private List<TransactionId> findCycle(TransactionId start) {
+        Deque<TransactionId> path = new ArrayDeque<>();
+        Set<TransactionId> visited = new HashSet<>();
+        path.addLast(start);
+        if (dfs(start, start, path, visited)) {
+            return new ArrayList<>(path);
+        }
+        return null;
+    }
+
+    private boolean dfs(TransactionId cur, TransactionId start,
+                        Deque<TransactionId> path, Set<TransactionId> visited) {
+        for (TransactionId next : waitsOf(cur)) {
+            if (next.equals(start)) return true;
+            if (!visited.add(next)) continue;
+            path.addLast(next);
+            if (dfs(next, start, path, visited)) return true;
+            path.removeLast();
+        }
+        return false;
+    }
+}
@@ -8,13 +8,22 @@ import junit.framework.JUnit4TestAdapter;
 import org.junit.Before;
 import org.junit.Test;
 
+import simpledb.common.Database;
 import simpledb.common.Type;
 import simpledb.common.Utility;
 import simpledb.execution.Aggregate;
 import simpledb.execution.Aggregator;
 import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
 
 public class AggregateTest extends SimpleDbTestBase {
 
@@ -191,6 +200,110 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for Aggregate.getNext() computing several aggregates, among
+   * them a COUNT over a string field, grouped by a string and an int field
+   */
+  @Test public void severalAggregatesCompositeKey() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(3,
+        new Object[] { "a", 1, 2,
+                       "a", 1, 4,
+                       "a", 2, 6,
+                       "b", 1, 2,
+                       "b", 1, 4,
+                       "b", 1, 6,
+                       "a", 2, 7 });
+    Aggregate op = new Aggregate(scan, new int[] { 2, 2, 0 }, new int[] { 0, 1 },
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.MAX, Aggregator.Op.COUNT });
+    TupleDesc td = op.getTupleDesc();
+    assertEquals(5, td.numFields());
+    assertEquals(Type.STRING_TYPE, td.getFieldType(0));
+    for (int i = 1; i < 5; i++) {
+      assertEquals(Type.INT_TYPE, td.getFieldType(i));
+    }
+    assertEquals(0, op.groupField());
+    assertEquals(2, op.aggregateField());
+    assertEquals(Aggregator.Op.SUM, op.aggregateOp());
+
+    OpIterator expected = TestUtil.createTupleList(5,
+        new Object[] { "a", 1, 6, 4, 2,
+                       "a", 2, 13, 7, 2,
+                       "b", 1, 12, 6, 3 });
+    op.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+    op.rewind();
+    expected.rewind();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /**
+   * Unit test for Aggregate.getNext() with room for one group in memory
+   */
+  @Test public void spillsUnderBudget() throws Exception {
+    Aggregate op = new Aggregate(scan1, new int[] { 1 }, new int[] { 0 },
+        new Aggregator.Op[] { Aggregator.Op.SUM }, 1);
+    op.open();
+    sum.open();
+    TestUtil.matchAllTuples(sum, op);
+    op.rewind();
+    sum.rewind();
+    TestUtil.matchAllTuples(sum, op);
+    op.close();
+    assertTrue(op.getSpilledBytes() > 0);
+  }
+
+  /**
+   * Aggregates that are not all over int fields or COUNTs cannot be
+   * computed together
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void severalStringAggregates() {
+    new Aggregate(scan3, new int[] { 0, 1 }, new int[0],
+        new Aggregator.Op[] { Aggregator.Op.MAX, Aggregator.Op.SUM });
+  }
+
+  /**
+   * A query with several aggregates, COUNT(*) and two GROUP BY fields is
+   * parsed into one Aggregate operator
+   */
+  @Test public void parsedQuery() throws Exception {
+    List<List<Integer>> tuples = new ArrayList<>();
+    HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 500, 4, null, tuples, "c");
+    Database.getCatalog().addTable(hf, "agg_t");
+    Map<String, TableStats> stats = new HashMap<>();
+    stats.put("agg_t", new TableStats(hf.getId(), 1));
+
+    TransactionId tid = new TransactionId();
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+        "SELECT agg_t.c1, SUM(agg_t.c2), COUNT(*), MIN(agg_t.c2), agg_t.c0 FROM agg_t "
+            + "GROUP BY agg_t.c0, agg_t.c1;");
+    OpIterator plan = lp.physicalPlan(tid, stats, false);
+    assertTrue(((Operator) plan).getChildren()[0] instanceof Aggregate);
+
+    Map<List<Integer>, List<Integer>> expected = new HashMap<>();
+    for (List<Integer> t : tuples) {
+      List<Integer> group = Arrays.asList(t.get(1), t.get(0));
+      List<Integer> aggs = expected.get(group);
+      if (aggs == null) {
+        expected.put(group, new ArrayList<>(Arrays.asList(t.get(2), 1, t.get(2))));
+      } else {
+        aggs.set(0, aggs.get(0) + t.get(2));
+        aggs.set(1, aggs.get(1) + 1);
+        aggs.set(2, Math.min(aggs.get(2), t.get(2)));
+      }
+    }
+    Map<List<Integer>, List<Integer>> actual = new HashMap<>();
+    plan.open();
+    while (plan.hasNext()) {
+      List<Integer> t = SystemTestUtil.tupleToList(plan.next());
+      actual.put(Arrays.asList(t.get(0), t.get(4)), t.subList(1, 4));
+    }
+    plan.close();
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(expected, actual);
+  }
+
   /**
    * JUnit suite target
    */
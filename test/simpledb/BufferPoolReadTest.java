@@ -0,0 +1,183 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.ReadAhead;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolReadTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 8;
+
+    /**
+     * Several read-only transactions scan the same table concurrently
+     * through a pool smaller than the table. Every scan sees every tuple
+     * and the pool never grows past its capacity.
+     */
+    @Test public void concurrentScans() throws Exception {
+        final int rows = 504 * 40;
+        final int bufferPages = 16;
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, null, null);
+        BufferPool bp = Database.resetBufferPool(bufferPages);
+
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread t = new Thread(() -> {
+                TransactionId tid = new TransactionId();
+                try {
+                    for (int pass = 0; pass < 3; pass++) {
+                        DbFileIterator it = f.iterator(tid);
+                        it.open();
+                        int count = 0;
+                        while (it.hasNext()) {
+                            it.next();
+                            count++;
+                            assertTrue(bp.getNumCachedPages() <= bufferPages);
+                        }
+                        it.close();
+                        assertEquals(rows, count);
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                } finally {
+                    bp.transactionComplete(tid);
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+        assertTrue(bp.getNumCachedPages() <= bufferPages);
+    }
+
+    /**
+     * A full scan of a table much larger than the pool goes through a
+     * ScanRing and leaves the pages of a concurrently used hot table
+     * cached: the only misses are the scan's own, one per page. Without a
+     * ring, the same scan evicts the hot pages.
+     */
+    @Test public void scanRingKeepsHotPages() throws Exception {
+        final int bufferPages = BufferPool.DEFAULT_PAGES;
+        final int hotPages = 4;
+        final int bigPages = bufferPages * 3;
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * hotPages, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * bigPages, null, null);
+        assertEquals(bigPages, big.numPages());
+        BufferPool bp = Database.resetBufferPool(bufferPages);
+
+        TransactionId lookupTid = new TransactionId();
+        for (int i = 0; i < hotPages; i++) {
+            bp.getPage(lookupTid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        }
+
+        long missesBefore = bp.getMissCount();
+        AtomicBoolean done = new AtomicBoolean(false);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread scanner = new Thread(() -> {
+            TransactionId scanTid = new TransactionId();
+            try {
+                SeqScan scan = new SeqScan(scanTid, big.getId(), "");
+                scan.open();
+                int count = 0;
+                while (scan.hasNext()) {
+                    scan.next();
+                    count++;
+                }
+                scan.close();
+                assertEquals(504 * bigPages, count);
+            } catch (Throwable e) {
+                error.compareAndSet(null, e);
+            } finally {
+                bp.transactionComplete(scanTid);
+                done.set(true);
+            }
+        });
+        scanner.start();
+        do {
+            for (int i = 0; i < hotPages; i++) {
+                bp.getPage(lookupTid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+            }
+        } while (!done.get());
+        scanner.join();
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+        for (int i = 0; i < hotPages; i++) {
+            bp.getPage(lookupTid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        }
+        assertEquals(bigPages, bp.getMissCount() - missesBefore);
+
+        // the same scan without a ring pushes the hot pages out
+        TransactionId scanTid = new TransactionId();
+        DbFileIterator it = big.iterator(scanTid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        bp.transactionComplete(scanTid);
+        missesBefore = bp.getMissCount();
+        for (int i = 0; i < hotPages; i++) {
+            bp.getPage(lookupTid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        }
+        assertTrue(bp.getMissCount() > missesBefore);
+        bp.transactionComplete(lookupTid);
+    }
+
+    /**
+     * A sequential scan has the pages ahead of it prefetched, and every page
+     * is still read from disk exactly once. With a window of 0 nothing is
+     * prefetched.
+     */
+    @Test public void readAhead() throws Exception {
+        final int pages = 40;
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * pages, null, tuples);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        ReadAhead readAhead = bp.getReadAhead();
+        assertEquals(ReadAhead.DEFAULT_WINDOW, readAhead.getEffectiveWindow());
+
+        SystemTestUtil.matchTuples(f, tuples);
+        assertEquals(pages, bp.getMissCount());
+        assertTrue(readAhead.getPrefetchCount() > 0);
+        assertTrue(readAhead.getUsedCount() > 0);
+        assertTrue(readAhead.getUsedCount() <= readAhead.getPrefetchCount());
+
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.getReadAhead().setWindow(0);
+        SystemTestUtil.matchTuples(f, tuples);
+        assertEquals(pages, bp.getMissCount());
+        assertEquals(0, bp.getReadAhead().getPrefetchCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolReadTest.class);
+    }
+}
@@ -140,6 +140,51 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    // class to record the pages the buffer pool writes back
+    static class RecordingHeapFile extends HeapFile {
+
+        final List<List<Integer>> writes = new ArrayList<>();
+
+        public RecordingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void writePages(List<Page> pages) throws IOException {
+            List<Integer> pgNos = new ArrayList<>();
+            for (Page p : pages) {
+                pgNos.add(p.getId().getPageNumber());
+            }
+            writes.add(pgNos);
+            super.writePages(pages);
+        }
+    }
+
+    /**
+     * On commit, the dirty pages of a table are written back in a single
+     * writePages call, sorted by page number, and reach the disk.
+     */
+    @Test public void commitWritesSortedPages() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 10, 1000, null, null);
+        RecordingHeapFile hf = new RecordingHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        int[] dirty = {7, 2, 3, 9, 4};
+        for (int pgNo : dirty) {
+            HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(hf.getId(), pgNo), Permissions.READ_WRITE);
+            Database.getBufferPool().deleteTuple(tid, p.iterator().next());
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertEquals(1, hf.writes.size());
+        assertEquals(java.util.Arrays.asList(2, 3, 4, 7, 9), hf.writes.get(0));
+        for (int pgNo : dirty) {
+            HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pgNo));
+            assertEquals(1, p.getNumEmptySlots());
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,222 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.ColumnScan;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ColumnarHeapPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.LONG_TYPE},
+            new String[]{"id", "code", "qty"});
+
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int id) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField("C" + id, Type.STRING_LEN));
+        t.setField(2, new LongField(-id * 1_000_000_000L));
+        return t;
+    }
+
+    private static List<Tuple> contents(Iterator<Tuple> it) {
+        List<Tuple> tuples = new ArrayList<>();
+        it.forEachRemaining(tuples::add);
+        return tuples;
+    }
+
+    /**
+     * A page holds as many tuples as a row-format page, and they read back
+     * unchanged, with their RecordIds, from the page data.
+     */
+    @Test public void insertAndRead() throws Exception {
+        ColumnarHeapPage page = new ColumnarHeapPage(pid, HeapPage.createEmptyPageData());
+        int perPage = (BufferPool.getPageSize() * 8) / (TD.getSize() * 8 + 1);
+        assertEquals(perPage, page.getNumSlots());
+        assertEquals(perPage, page.getNumEmptySlots());
+        for (int i = 0; i < perPage; i++) {
+            page.insertTuple(tuple(i));
+        }
+        assertEquals(0, page.getNumEmptySlots());
+        try {
+            page.insertTuple(tuple(-1));
+            fail("expected DbException");
+        } catch (DbException ignored) {
+        }
+
+        ColumnarHeapPage reread = new ColumnarHeapPage(pid, page.getPageData());
+        List<Tuple> tuples = contents(reread.iterator());
+        assertEquals(perPage, tuples.size());
+        for (int i = 0; i < perPage; i++) {
+            assertTrue(TestUtil.compareTuples(tuple(i), tuples.get(i)));
+            assertEquals(new RecordId(pid, i), tuples.get(i).getRecordId());
+        }
+    }
+
+    /**
+     * The projected iterator returns the requested columns, in the requested
+     * order, of the used slots only.
+     */
+    @Test public void projectedIterator() throws Exception {
+        ColumnarHeapPage page = new ColumnarHeapPage(pid, HeapPage.createEmptyPageData());
+        List<Tuple> inserted = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Tuple t = tuple(i);
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        page.deleteTuple(inserted.get(3));
+
+        int[] columns = {2, 0};
+        TupleDesc projected = ColumnarHeapFile.projectTupleDesc(TD, columns);
+        assertEquals(Type.LONG_TYPE, projected.getFieldType(0));
+        assertEquals("id", projected.getFieldName(1));
+        List<Tuple> tuples = contents(page.iterator(projected, columns));
+        assertEquals(9, tuples.size());
+        int k = 0;
+        for (int i = 0; i < 10; i++) {
+            if (i == 3) continue;
+            Tuple t = tuples.get(k++);
+            assertEquals(new LongField(-i * 1_000_000_000L), t.getField(0));
+            assertEquals(new IntField(i), t.getField(1));
+        }
+    }
+
+    /**
+     * Deletes and inserts after setBeforeImage change neither the before
+     * image nor iterators and tuples handed out earlier.
+     */
+    @Test public void beforeImageAndSnapshots() throws Exception {
+        ColumnarHeapPage page = new ColumnarHeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 5; i++) {
+            page.insertTuple(tuple(i));
+        }
+        page.setBeforeImage();
+        byte[] before = page.getPageData();
+
+        Iterator<Tuple> it = page.iterator();
+        List<Tuple> tuples = contents(page.iterator());
+        page.deleteTuple(tuples.get(0));
+        Tuple replacement = tuple(100);
+        page.insertTuple(replacement);
+        assertEquals(new RecordId(pid, 0), replacement.getRecordId());
+
+        assertTrue(TestUtil.compareTuples(tuple(0), tuples.get(0)));
+        assertTrue(TestUtil.compareTuples(tuple(0), it.next()));
+        assertTrue(TestUtil.compareTuples(replacement, contents(page.iterator()).get(0)));
+        assertArrayEquals(before, page.getBeforeImage().getPageData());
+        page.deleteTuple(tuples.get(1));
+        try {
+            page.deleteTuple(tuples.get(1));
+            fail("expected DbException");
+        } catch (DbException ignored) {
+        }
+    }
+
+    /**
+     * A table declared "columnar" in a catalog file is a ColumnarHeapFile;
+     * tuples inserted through the buffer pool survive a reload, and
+     * SeqScan and ColumnScan read them. ColumnScan also works on a row
+     * table.
+     */
+    @Test public void columnarTableFromCatalog() throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"), SystemTestUtil.getUUID());
+        assertTrue(dir.mkdir());
+        File schema = new File(dir, "catalog.txt");
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write("wide (id int, code string, qty long) columnar\n");
+            w.write("narrow (id int, code string, qty long)\n");
+        }
+        assertTrue(new File(dir, "wide.dat").createNewFile());
+        assertTrue(new File(dir, "narrow.dat").createNewFile());
+        try {
+            Database.getCatalog().loadSchema(schema.getAbsolutePath());
+            int wide = Database.getCatalog().getTableId("wide");
+            int narrow = Database.getCatalog().getTableId("narrow");
+            assertTrue(Database.getCatalog().getDatabaseFile(wide) instanceof ColumnarHeapFile);
+
+            final int rows = 500;
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < rows; i++) {
+                Database.getBufferPool().insertTuple(tid, wide, tuple(i));
+                Database.getBufferPool().insertTuple(tid, narrow, tuple(i));
+            }
+            Database.getBufferPool().transactionComplete(tid);
+
+            Database.reset();
+            Database.getCatalog().loadSchema(schema.getAbsolutePath());
+            wide = Database.getCatalog().getTableId("wide");
+            narrow = Database.getCatalog().getTableId("narrow");
+            tid = new TransactionId();
+
+            Set<Integer> seen = new HashSet<>();
+            SeqScan scan = new SeqScan(tid, wide, "w");
+            scan.open();
+            while (scan.hasNext()) {
+                Tuple t = scan.next();
+                int id = ((IntField) t.getField(0)).getValue();
+                assertTrue(TestUtil.compareTuples(tuple(id), t));
+                assertTrue(seen.add(id));
+            }
+            scan.close();
+            assertEquals(rows, seen.size());
+
+            for (int table : new int[]{wide, narrow}) {
+                ColumnScan cs = new ColumnScan(tid, table, "t", new int[]{2, 1});
+                assertEquals("t.qty", cs.getTupleDesc().getFieldName(0));
+                long sum = 0;
+                int n = 0;
+                cs.open();
+                while (cs.hasNext()) {
+                    Tuple t = cs.next();
+                    assertEquals(2, t.getTupleDesc().numFields());
+                    long qty = ((LongField) t.getField(0)).getValue();
+                    assertEquals(new StringField("C" + (-qty / 1_000_000_000L), Type.STRING_LEN), t.getField(1));
+                    sum += qty;
+                    n++;
+                }
+                cs.close();
+                assertEquals(rows, n);
+                assertEquals(-1_000_000_000L * rows * (rows - 1) / 2, sum);
+            }
+            Database.getBufferPool().transactionComplete(tid);
+        } finally {
+            Database.reset();
+            for (File c : Objects.requireNonNull(dir.listFiles())) {
+                c.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnarHeapPageTest.class);
+    }
+}
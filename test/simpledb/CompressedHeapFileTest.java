@@ -0,0 +1,223 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[]{Type.INT_TYPE, Type.STRING_TYPE},
+            new String[]{"id", "city"});
+
+    private File file;
+
+    @Before public void createFile() throws Exception {
+        file = File.createTempFile("compressed", ".dat");
+        file.deleteOnExit();
+    }
+
+    @After public void deleteFile() {
+        file.delete();
+    }
+
+    private HeapFile open() {
+        HeapFile hf = new HeapFile(file, TD, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    private static Tuple tuple(int id, String city) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(city, Type.STRING_LEN));
+        return t;
+    }
+
+    /** Return a full page of tuples with ids from first on. */
+    private static HeapPage fullPage(HeapPageId pid, int first, boolean random) throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        Random r = new Random(first);
+        int id = first;
+        while (page.getNumEmptySlots() > 0) {
+            String city = "city" + (id % 3);
+            if (random) {
+                char[] c = new char[Type.STRING_LEN];
+                for (int i = 0; i < c.length; i++) {
+                    c[i] = (char) ('!' + r.nextInt(90));
+                }
+                city = new String(c);
+            }
+            page.insertTuple(tuple(random ? r.nextInt() : id, city));
+            id++;
+        }
+        return page;
+    }
+
+    /**
+     * Repetitive pages take a fraction of their size on disk, pages that do
+     * not compress take their size plus a header, and both read back
+     * unchanged after the file is reopened.
+     */
+    @Test public void writeAndReopen() throws Exception {
+        HeapFile hf = open();
+        assertTrue(hf.isCompressed());
+        assertEquals(0, hf.numPages());
+        final int pages = 8;
+        List<byte[]> written = new ArrayList<>();
+        List<Page> batch = new ArrayList<>();
+        for (int i = 0; i < pages; i++) {
+            HeapPage page = fullPage(new HeapPageId(hf.getId(), i), i * 1000, i == pages - 1);
+            written.add(page.getPageData());
+            batch.add(page);
+        }
+        hf.writePages(batch);
+        assertEquals(pages, hf.numPages());
+        assertTrue(file.length() < (long) pages * BufferPool.getPageSize() / 2);
+        assertTrue(file.length() > BufferPool.getPageSize());
+
+        Database.reset();
+        hf = open();
+        assertEquals(pages, hf.numPages());
+        for (int i = 0; i < pages; i++) {
+            HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            assertArrayEquals(written.get(i), page.getPageData());
+        }
+    }
+
+    /**
+     * A page that grows past its extent moves to the end of the file, and
+     * its latest version is the one read after reopening.
+     */
+    @Test public void rewriteRelocates() throws Exception {
+        HeapFile hf = open();
+        HeapPageId p0 = new HeapPageId(hf.getId(), 0);
+        HeapPageId p1 = new HeapPageId(hf.getId(), 1);
+        hf.writePage(new HeapPage(p0, HeapPage.createEmptyPageData()));
+        hf.writePage(new HeapPage(p1, HeapPage.createEmptyPageData()));
+        long small = file.length();
+
+        HeapPage grown = fullPage(p0, 0, true);
+        hf.writePage(grown);
+        assertTrue(file.length() > small + BufferPool.getPageSize() / 2);
+        HeapPage shrunk = new HeapPage(p1, HeapPage.createEmptyPageData());
+        shrunk.insertTuple(tuple(7, "city1"));
+        long before = file.length();
+        hf.writePage(shrunk);
+        assertEquals(before, file.length());
+
+        Database.reset();
+        hf = open();
+        assertEquals(2, hf.numPages());
+        assertArrayEquals(grown.getPageData(), hf.readPage(p0).getPageData());
+        assertArrayEquals(shrunk.getPageData(), hf.readPage(p1).getPageData());
+    }
+
+    /**
+     * A partly written extent at the end of the file is ignored, and the
+     * next page written replaces it.
+     */
+    @Test public void tornTailIgnored() throws Exception {
+        HeapFile hf = open();
+        HeapPage page = fullPage(new HeapPageId(hf.getId(), 0), 0, false);
+        hf.writePage(page);
+        long good = file.length();
+        hf.writePage(fullPage(new HeapPageId(hf.getId(), 1), 500, true));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(good + 100);
+        }
+
+        Database.reset();
+        hf = open();
+        assertEquals(1, hf.numPages());
+        assertArrayEquals(page.getPageData(), hf.readPage(new HeapPageId(hf.getId(), 0)).getPageData());
+        HeapPage again = fullPage(new HeapPageId(hf.getId(), 1), 900, false);
+        hf.writePage(again);
+        Database.reset();
+        hf = open();
+        assertEquals(2, hf.numPages());
+        assertArrayEquals(again.getPageData(), hf.readPage(new HeapPageId(hf.getId(), 1)).getPageData());
+    }
+
+    /**
+     * A table declared "compressed" in a catalog file is read and written
+     * through the buffer pool like any other, with any page layout.
+     */
+    @Test public void compressedTablesFromCatalog() throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"), SystemTestUtil.getUUID());
+        assertTrue(dir.mkdir());
+        File schema = new File(dir, "catalog.txt");
+        String[] tables = {"plain", "slotted", "columnar"};
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write("plain (id int, city string) compressed\n");
+            w.write("slotted (id int, city string) slotted compressed\n");
+            w.write("columnar (id int, city string) compressed columnar\n");
+        }
+        try {
+            Database.getCatalog().loadSchema(schema.getAbsolutePath());
+            final int rows = 1000;
+            for (String name : tables) {
+                int id = Database.getCatalog().getTableId(name);
+                assertTrue(((HeapFile) Database.getCatalog().getDatabaseFile(id)).isCompressed());
+                TransactionId tid = new TransactionId();
+                for (int i = 0; i < rows; i++) {
+                    Database.getBufferPool().insertTuple(tid, id, tuple(i, "city" + (i % 5)));
+                }
+                Database.getBufferPool().transactionComplete(tid);
+            }
+
+            Database.reset();
+            Database.getCatalog().loadSchema(schema.getAbsolutePath());
+            assertTrue(Database.getCatalog().getDatabaseFile(
+                    Database.getCatalog().getTableId("slotted")) instanceof SlottedHeapFile);
+            assertTrue(Database.getCatalog().getDatabaseFile(
+                    Database.getCatalog().getTableId("columnar")) instanceof ColumnarHeapFile);
+            TransactionId tid = new TransactionId();
+            for (String name : tables) {
+                HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+                assertTrue(hf.getFile().length() < (long) hf.numPages() * BufferPool.getPageSize() / 2);
+                Set<Integer> seen = new HashSet<>();
+                DbFileIterator it = hf.iterator(tid);
+                it.open();
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    int id = ((IntField) t.getField(0)).getValue();
+                    assertEquals(new StringField("city" + (id % 5), Type.STRING_LEN), t.getField(1));
+                    assertTrue(seen.add(id));
+                }
+                it.close();
+                assertEquals(rows, seen.size());
+            }
+            Database.getBufferPool().transactionComplete(tid);
+        } finally {
+            Database.reset();
+            for (File c : Objects.requireNonNull(dir.listFiles())) {
+                c.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,130 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Drive a policy as a cache of the given capacity would, and return the
+     * number of hits for the access pattern: rounds of repeated accesses to
+     * a small hot set, each followed by a scan over pages never seen before.
+     */
+    private static int hitsUnderScans(EvictionPolicy policy, int capacity, int scanLength) {
+        Set<PageId> resident = new HashSet<>();
+        int hits = 0;
+        int next = 100;
+        for (int round = 0; round < 20; round++) {
+            for (int rep = 0; rep < 3; rep++) {
+                for (int h = 0; h < 2; h++) {
+                    PageId hot = pid(h);
+                    if (resident.contains(hot)) {
+                        policy.pageAccessed(hot);
+                        hits++;
+                    } else {
+                        admit(policy, resident, capacity, hot);
+                    }
+                }
+            }
+            for (int i = 0; i < scanLength; i++) {
+                admit(policy, resident, capacity, pid(next++));
+            }
+        }
+        return hits;
+    }
+
+    private static void admit(EvictionPolicy policy, Set<PageId> resident, int capacity, PageId p) {
+        if (resident.size() == capacity) {
+            PageId victim = policy.evict(resident::contains);
+            assertNotNull(victim);
+            assertTrue(resident.remove(victim));
+        }
+        resident.add(p);
+        policy.pageAdded(p);
+    }
+
+    /**
+     * Unit test for LruEvictionPolicy: the least recently used page goes first.
+     */
+    @Test public void lru() {
+        EvictionPolicy policy = new LruEvictionPolicy();
+        policy.pageAdded(pid(1));
+        policy.pageAdded(pid(2));
+        policy.pageAdded(pid(3));
+        policy.pageAccessed(pid(1));
+        assertEquals(pid(2), policy.evict(p -> true));
+        assertEquals(pid(3), policy.evict(p -> true));
+        assertEquals(pid(1), policy.evict(p -> true));
+        assertNull(policy.evict(p -> true));
+    }
+
+    /**
+     * Unit test for ClockEvictionPolicy: a referenced page gets a second chance.
+     */
+    @Test public void clock() {
+        EvictionPolicy policy = new ClockEvictionPolicy();
+        policy.pageAdded(pid(1));
+        policy.pageAdded(pid(2));
+        policy.pageAdded(pid(3));
+        assertEquals(pid(1), policy.evict(p -> true));
+        policy.pageAccessed(pid(2));
+        assertEquals(pid(3), policy.evict(p -> true));
+        assertEquals(pid(2), policy.evict(p -> true));
+        assertNull(policy.evict(p -> true));
+    }
+
+    /**
+     * Pages the caller marks as not evictable (e.g. dirty ones) are skipped
+     * by every policy, and null is returned when nothing can go.
+     */
+    @Test public void skipsUnevictable() {
+        for (EvictionPolicy.Kind kind : EvictionPolicy.Kind.values()) {
+            EvictionPolicy policy = kind.create(4);
+            for (int i = 0; i < 4; i++) {
+                policy.pageAdded(pid(i));
+            }
+            assertEquals(kind.toString(), pid(2), policy.evict(p -> p.equals(pid(2))));
+            assertNull(kind.toString(), policy.evict(p -> false));
+            policy.pageRemoved(pid(0));
+            Set<PageId> left = new HashSet<>();
+            PageId victim;
+            while ((victim = policy.evict(p -> true)) != null) {
+                left.add(victim);
+            }
+            assertEquals(kind.toString(), 2, left.size());
+            assertFalse(left.contains(pid(0)));
+        }
+    }
+
+    /**
+     * 2Q keeps a re-referenced hot set across scans that flush LRU.
+     */
+    @Test public void twoQScanResistance() {
+        int capacity = 16;
+        int lruHits = hitsUnderScans(new LruEvictionPolicy(), capacity, capacity + 2);
+        int twoQHits = hitsUnderScans(new TwoQEvictionPolicy(capacity), capacity, capacity + 2);
+        // LRU loses both hot pages in every scan; 2Q keeps them once they have been re-read
+        assertEquals(20 * 4, lruHits);
+        assertTrue(twoQHits > 20 * 5);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
@@ -0,0 +1,142 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+    /** Return how many times each tuple of it is returned, as lists of ints. */
+    private static Map<List<Integer>, Integer> drain(OpIterator it) throws Exception {
+        Map<List<Integer>, Integer> counts = new HashMap<>();
+        while (it.hasNext()) {
+            counts.merge(SystemTestUtil.tupleToList(it.next()), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    /** The tuples of left joined with right on column 0 of each, counted. */
+    private static Map<List<Integer>, Integer> expected(List<List<Integer>> left, List<List<Integer>> right) {
+        Map<Integer, List<List<Integer>>> byKey = new HashMap<>();
+        for (List<Integer> t : left) {
+            byKey.computeIfAbsent(t.get(0), k -> new ArrayList<>()).add(t);
+        }
+        Map<List<Integer>, Integer> counts = new HashMap<>();
+        for (List<Integer> t2 : right) {
+            for (List<Integer> t1 : byKey.getOrDefault(t2.get(0), Collections.emptyList())) {
+                List<Integer> joined = new ArrayList<>(t1);
+                joined.addAll(t2);
+                counts.merge(joined, 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Whatever the memory budget, the join returns the same tuples, including
+     * after a rewind; it only writes to disk when the build side does not
+     * fit, and partitions again when a partition does not fit either.
+     */
+    @Test public void spillsUnderBudget() throws Exception {
+        List<List<Integer>> left = new ArrayList<>();
+        List<List<Integer>> right = new ArrayList<>();
+        HeapFile hf1 = SystemTestUtil.createRandomHeapFile(2, 6000, 3000, null, left);
+        HeapFile hf2 = SystemTestUtil.createRandomHeapFile(3, 5000, 3000, null, right);
+        Map<List<Integer>, Integer> expected = expected(left, right);
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+        long previous = -1;
+        for (int budget : new int[]{10000, 1000, 20}) {
+            HashEquiJoin join = new HashEquiJoin(p, new SeqScan(tid, hf1.getId()),
+                    new SeqScan(tid, hf2.getId()), budget);
+            join.open();
+            assertEquals("budget " + budget, expected, drain(join));
+            long spilled = join.getSpilledBytes();
+            if (budget >= left.size()) {
+                assertEquals(0, spilled);
+            } else {
+                assertTrue(spilled > 0);
+                // 再分区的层数越多，写出的字节越多
+                assertTrue(spilled > previous);
+            }
+            previous = spilled;
+            join.rewind();
+            assertEquals(expected, drain(join));
+            assertEquals(spilled, join.getSpilledBytes());
+            join.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A build side with more tuples of one join value than fit in memory is
+     * joined a chunk at a time once partitioning stops helping.
+     */
+    @Test public void skewedBuildSide() throws Exception {
+        List<List<Integer>> left = new ArrayList<>();
+        List<List<Integer>> right = new ArrayList<>();
+        HeapFile hf1 = SystemTestUtil.createRandomHeapFile(2, 3000, 3, null, left);
+        HeapFile hf2 = SystemTestUtil.createRandomHeapFile(1, 200, 6, null, right);
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, hf1.getId()), new SeqScan(tid, hf2.getId()), 100);
+        join.open();
+        assertEquals(expected(left, right), drain(join));
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Spilled strings read back equal to those written. */
+    @Test public void stringJoinField() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE});
+        List<Tuple> left = new ArrayList<>();
+        List<Tuple> right = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("key" + (i % 97), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            left.add(t);
+            if (i % 5 == 0) {
+                right.add(t);
+            }
+        }
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new TupleIterator(td, left), new TupleIterator(td, right), 20);
+        join.open();
+        int count = 0;
+        while (join.hasNext()) {
+            Tuple t = join.next();
+            assertEquals(t.getField(0), t.getField(2));
+            assertEquals(((IntField) t.getField(1)).getValue() % 97, ((IntField) t.getField(3)).getValue() % 97);
+            count++;
+        }
+        join.close();
+        // 每个右边的元组匹配左边同一个键的 5 或 6 个元组
+        int expected = 0;
+        for (Tuple r : right) {
+            expected += 500 / 97 + (((IntField) r.getField(1)).getValue() % 97 < 500 % 97 ? 1 : 0);
+        }
+        assertEquals(expected, count);
+        assertTrue(join.getSpilledBytes() > 0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
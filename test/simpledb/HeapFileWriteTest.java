@@ -7,12 +7,16 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
+import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
 
+import java.io.File;
 import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -90,6 +94,61 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * An insert goes straight to a page that a delete freed a slot on,
+     * without locking the full pages before it, also after the file is
+     * closed and opened again.
+     */
+    @Test public void insertUsesFreeSpaceMap() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        assertEquals(3, hf.numPages());
+        BufferPool bp = Database.getBufferPool();
+        HeapPageId first = new HeapPageId(hf.getId(), 0);
+        HeapPageId middle = new HeapPageId(hf.getId(), 1);
+
+        // 先把前两页插满，让空闲空间表知道它们已经满了
+        Tuple victim = ((HeapPage) bp.getPage(tid, middle, Permissions.READ_ONLY)).iterator().next();
+        hf.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(4, hf.numPages());
+        hf.deleteTuple(tid, victim);
+        bp.transactionComplete(tid);
+
+        TransactionId inserter = new TransactionId();
+        List<Page> modified = hf.insertTuple(inserter, Utility.getHeapTuple(2, 2));
+        assertEquals(middle, modified.get(0).getId());
+        assertFalse(bp.holdsLock(inserter, first));
+        bp.transactionComplete(inserter);
+
+        // 重新打开文件，空闲空间表从旁路文件加载
+        hf.deleteTuple(tid, ((HeapPage) bp.getPage(tid, middle, Permissions.READ_ONLY)).iterator().next());
+        bp.transactionComplete(tid);
+        hf.close();
+        HeapFile reopened = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(reopened, UUID.randomUUID().toString());
+        inserter = new TransactionId();
+        modified = reopened.insertTuple(inserter, Utility.getHeapTuple(3, 2));
+        assertEquals(middle, modified.get(0).getId());
+        assertFalse(bp.holdsLock(inserter, first));
+        bp.transactionComplete(inserter);
+        reopened.close();
+        new File(hf.getFile().getPath() + ".fsm").delete();
+    }
+
+    /**
+     * An insert does not wait for a page with room that another transaction
+     * has locked; it appends a new page instead.
+     */
+    @Test public void insertSkipsLockedPage() throws Exception {
+        empty.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(1, empty.numPages());
+
+        TransactionId other = new TransactionId();
+        List<Page> modified = empty.insertTuple(other, Utility.getHeapTuple(2, 2));
+        assertEquals(1, modified.get(0).getId().getPageNumber());
+        assertEquals(2, empty.numPages());
+        Database.getBufferPool().transactionComplete(other);
+    }
+
     /**
      * JUnit suite target
      */
@@ -14,6 +14,7 @@ import simpledb.common.DbException;
 import simpledb.common.Utility;
 import simpledb.storage.HeapPage;
 import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -131,6 +132,35 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Tuples read from a page keep their values when their slot is freed and
+     * reused, and neither the before image nor the data the page was built
+     * from changes when the page is written to.
+     */
+    @Test public void tuplesSurviveSlotReuse() throws Exception {
+        byte[] data = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        Tuple first = page.iterator().next();
+        int a = ((IntField) first.getField(0)).getValue();
+        int b = ((IntField) first.getField(1)).getValue();
+
+        page.deleteTuple(first);
+        Tuple replacement = Utility.getHeapTuple(new int[]{a + 1, b + 1});
+        page.insertTuple(replacement);
+        assertEquals(first.getRecordId(), replacement.getRecordId());
+
+        assertEquals(new IntField(a), first.getField(0));
+        assertEquals(new IntField(b), first.getField(1));
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, data);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        // 同一个 slot 现在读到的是新插入的 tuple
+        Iterator<Tuple> it = page.iterator();
+        Tuple reread = it.next();
+        assertTrue(TestUtil.compareTuples(replacement, reread));
+        assertArrayEquals(page.getPageData(), new HeapPage(pid, page.getPageData()).getPageData());
+    }
+
     /**
      * JUnit suite target
      */
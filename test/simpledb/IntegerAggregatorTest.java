@@ -1,8 +1,9 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
-import java.util.NoSuchElementException;
+import java.util.*;
 
 import junit.framework.JUnit4TestAdapter;
 
@@ -10,9 +11,15 @@ import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.common.Type;
+import simpledb.common.Utility;
 import simpledb.execution.Aggregator;
 import simpledb.execution.IntegerAggregator;
 import simpledb.execution.OpIterator;
+import simpledb.execution.TupleBatch;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
 
 public class IntegerAggregatorTest extends SimpleDbTestBase {
@@ -182,6 +189,242 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test several aggregates computed in one pass, over tuples and over a
+   * batch of the same tuples
+   */
+  @Test public void mergeSeveral() throws Exception {
+    Aggregator.Op[] ops = { Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.MAX,
+        Aggregator.Op.AVG, Aggregator.Op.COUNT };
+    OpIterator expected = TestUtil.createTupleList(6,
+        new int[] { 1, 12, 2, 6, 4, 3,
+                    3, 12, 2, 6, 4, 3,
+                    5, 7, 7, 7, 7, 1 });
+
+    scan1.open();
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, new int[] { 1, 1, 1, 1, 1 }, ops);
+    TupleBatch batch = new TupleBatch(scan1.getTupleDesc());
+    while (scan1.hasNext()) {
+      Tuple t = scan1.next();
+      agg.mergeTupleIntoGroup(t);
+      batch.add(t);
+    }
+    OpIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(expected, it);
+
+    agg = new IntegerAggregator(0, Type.INT_TYPE, new int[] { 1, 1, 1, 1, 1 }, ops);
+    agg.mergeBatchIntoGroup(batch);
+    it = agg.iterator();
+    it.open();
+    expected.rewind();
+    TestUtil.matchAllTuples(expected, it);
+  }
+
+  /**
+   * Test AVG and SUM over many groups and values, where sums go past the
+   * range of an int before they are divided
+   */
+  @Test public void manyGroups() throws Exception {
+    Random r = new Random(21);
+    Map<Integer, long[]> sums = new HashMap<>();
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE,
+        new int[] { 1, 1 }, new Aggregator.Op[] { Aggregator.Op.AVG, Aggregator.Op.COUNT });
+    TupleDesc td = Utility.getTupleDesc(2);
+    for (int i = 0; i < 200000; i++) {
+      Tuple t = new Tuple(td);
+      int g = r.nextInt(5000) - 2500;
+      int v = r.nextInt();
+      t.setField(0, new IntField(g));
+      t.setField(1, new IntField(v));
+      agg.mergeTupleIntoGroup(t);
+      long[] s = sums.computeIfAbsent(g, k -> new long[2]);
+      s[0] += v;
+      s[1]++;
+    }
+    OpIterator it = agg.iterator();
+    it.open();
+    int groups = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      long[] s = sums.get(((IntField) t.getField(0)).getValue());
+      assertEquals((int) (s[0] / s[1]), ((IntField) t.getField(1)).getValue());
+      assertEquals(s[1], ((IntField) t.getField(2)).getValue());
+      groups++;
+    }
+    assertEquals(sums.size(), groups);
+  }
+
+  /**
+   * Test aggregates grouped by two INT fields, which are packed into one
+   * key, and by a STRING and an INT field, merged one tuple at a time and in
+   * a batch
+   */
+  @Test public void compositeKey() throws Exception {
+    Aggregator.Op[] ops = { Aggregator.Op.SUM, Aggregator.Op.COUNT };
+    OpIterator ints = TestUtil.createTupleList(3,
+        new int[] { -1, 2, 5,
+                    -1, 2, 7,
+                    2, -1, 1,
+                    -1, -2, 4,
+                    2, -1, 3 });
+    OpIterator expected = TestUtil.createTupleList(4,
+        new int[] { -1, 2, 12, 2,
+                    2, -1, 4, 2,
+                    -1, -2, 4, 1 });
+    checkCompositeKey(ints, new Type[] { Type.INT_TYPE, Type.INT_TYPE }, ops, expected);
+
+    OpIterator strings = TestUtil.createTupleList(3,
+        new Object[] { "a", 1, 5,
+                       "a", 2, 7,
+                       "b", 1, 1,
+                       "a", 1, 4 });
+    expected = TestUtil.createTupleList(4,
+        new Object[] { "a", 1, 9, 2,
+                       "a", 2, 7, 1,
+                       "b", 1, 1, 1 });
+    checkCompositeKey(strings, new Type[] { Type.STRING_TYPE, Type.INT_TYPE }, ops, expected);
+  }
+
+  private void checkCompositeKey(OpIterator child, Type[] gbtypes, Aggregator.Op[] ops,
+      OpIterator expected) throws Exception {
+    child.open();
+    IntegerAggregator agg = new IntegerAggregator(new int[] { 0, 1 }, gbtypes, new int[] { 2, 2 }, ops);
+    TupleBatch batch = new TupleBatch(child.getTupleDesc());
+    while (child.hasNext()) {
+      Tuple t = child.next();
+      agg.mergeTupleIntoGroup(t);
+      batch.add(t);
+    }
+    OpIterator it = agg.iterator();
+    it.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, it);
+    assertEquals(gbtypes[1], it.getTupleDesc().getFieldType(1));
+    assertEquals(4, it.getTupleDesc().numFields());
+
+    agg = new IntegerAggregator(new int[] { 0, 1 }, gbtypes, new int[] { 2, 2 }, ops);
+    agg.mergeBatchIntoGroup(batch);
+    it = agg.iterator();
+    it.open();
+    expected.rewind();
+    TestUtil.matchAllTuples(expected, it);
+  }
+
+  /** Return the tuples of it as strings, sorted. */
+  private static List<String> drain(OpIterator it) throws Exception {
+    List<String> tuples = new ArrayList<>();
+    while (it.hasNext()) {
+      tuples.add(it.next().toString());
+    }
+    Collections.sort(tuples);
+    return tuples;
+  }
+
+  /** Aggregate tuples with a budget of memoryGroups, one at a time or as batches. */
+  private static IntegerAggregator aggregate(List<Tuple> tuples, int[] gbfields, Type[] gbtypes,
+      int[] afields, Aggregator.Op[] ops, int memoryGroups, boolean batched) {
+    IntegerAggregator agg = new IntegerAggregator(gbfields, gbtypes, afields, ops, memoryGroups);
+    TupleBatch batch = new TupleBatch(tuples.get(0).getTupleDesc());
+    for (Tuple t : tuples) {
+      if (!batched) {
+        agg.mergeTupleIntoGroup(t);
+        continue;
+      }
+      batch.add(t);
+      if (batch.isFull()) {
+        agg.mergeBatchIntoGroup(batch);
+        batch.clear();
+      }
+    }
+    if (batched) {
+      agg.mergeBatchIntoGroup(batch);
+    }
+    return agg;
+  }
+
+  /**
+   * Groups past the memory budget are spilled and aggregated from disk to
+   * the same results, again after a rewind, whatever the budget
+   */
+  @Test public void spillsUnderBudget() throws Exception {
+    Aggregator.Op[] ops = { Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.MAX,
+        Aggregator.Op.AVG, Aggregator.Op.COUNT };
+    int[] gbfields = { 0, 1 };
+    Type[] gbtypes = { Type.INT_TYPE, Type.INT_TYPE };
+    int[] afields = { 2, 2, 2, 2, 2 };
+    Random r = new Random(23);
+    TupleDesc td = Utility.getTupleDesc(3);
+    List<Tuple> tuples = new ArrayList<>();
+    for (int i = 0; i < 6000; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new IntField(r.nextInt(20)));
+      t.setField(1, new IntField(r.nextInt(50) - 25));
+      t.setField(2, new IntField(r.nextInt()));
+      tuples.add(t);
+    }
+    OpIterator it = aggregate(tuples, gbfields, gbtypes, afields, ops, Integer.MAX_VALUE, false).iterator();
+    it.open();
+    List<String> expected = drain(it);
+
+    for (int budget : new int[] { 1, 10, 300, 2000 }) {
+      for (boolean batched : new boolean[] { false, true }) {
+        IntegerAggregator agg = aggregate(tuples, gbfields, gbtypes, afields, ops, budget, batched);
+        it = agg.iterator();
+        it.open();
+        assertEquals(expected, drain(it));
+        it.rewind();
+        assertEquals(expected, drain(it));
+        it.close();
+        if (budget < expected.size()) {
+          assertTrue(agg.getSpilledBytes() > 0);
+        } else {
+          assertEquals(0, agg.getSpilledBytes());
+        }
+      }
+    }
+  }
+
+  /**
+   * Group values that all have the same hash code stay in one partition
+   * however often it is partitioned, and are aggregated by sorting it
+   */
+  @Test public void sortsCollidingGroups() throws Exception {
+    // "Aa" 和 "BB" 的 hashCode 相同，由它们拼成的等长字符串也都相同
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; i < 64; i++) {
+      StringBuilder key = new StringBuilder();
+      for (int b = 0; b < 6; b++) {
+        key.append((i >> b & 1) == 0 ? "Aa" : "BB");
+      }
+      keys.add(key.toString());
+    }
+    Random r = new Random(24);
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+    List<Tuple> tuples = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new StringField(keys.get(r.nextInt(keys.size())), Type.STRING_LEN));
+      t.setField(1, new IntField(r.nextInt(1000)));
+      tuples.add(t);
+    }
+    int[] gbfields = { 0 };
+    Type[] gbtypes = { Type.STRING_TYPE };
+    int[] afields = { 1, 1 };
+    Aggregator.Op[] ops = { Aggregator.Op.AVG, Aggregator.Op.COUNT };
+    OpIterator it = aggregate(tuples, gbfields, gbtypes, afields, ops, Integer.MAX_VALUE, false).iterator();
+    it.open();
+    List<String> expected = drain(it);
+    assertEquals(keys.size(), expected.size());
+
+    IntegerAggregator agg = aggregate(tuples, gbfields, gbtypes, afields, ops, 8, false);
+    it = agg.iterator();
+    it.open();
+    assertEquals(expected, drain(it));
+    it.close();
+    assertTrue(agg.getSpilledBytes() > 0);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,291 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    /** Time to let a waiter block before checking on it, in ms */
+    private static final int TIMEOUT = 100;
+
+    private LockManager lm;
+    private PageId pid;
+    private List<TransactionId> aborted;
+
+    @Before public void setUp() {
+        lm = new LockManager();
+        pid = new HeapPageId(1, 0);
+        aborted = new CopyOnWriteArrayList<>();
+    }
+
+    /** Thread that grabs a lock and records the order in which grants happen. */
+    private Thread grabber(TransactionId tid, int lockType, List<TransactionId> granted) {
+        return grabber(tid, pid, lockType, granted);
+    }
+
+    private Thread grabber(TransactionId tid, PageId pid, int lockType, List<TransactionId> granted) {
+        Thread t = new Thread(() -> {
+            try {
+                if (lm.acquireLock(tid, pid, lockType, 10000)) {
+                    granted.add(tid);
+                }
+            } catch (TransactionAbortedException e) {
+                aborted.add(tid);
+            } catch (InterruptedException ignored) {
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    /**
+     * A blocked waiter is woken up by the release, not by a timeout.
+     */
+    @Test public void waiterWokenOnRelease() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        List<TransactionId> granted = new CopyOnWriteArrayList<>();
+
+        assertTrue(lm.acquireLock(t1, pid, LockManager.EXCLUSIVE, 0));
+        Thread t = grabber(t2, LockManager.EXCLUSIVE, granted);
+        Thread.sleep(TIMEOUT);
+        assertTrue(granted.isEmpty());
+
+        lm.releaseLock(t1, pid);
+        t.join(TIMEOUT * 5);
+        assertEquals(1, granted.size());
+        assertTrue(lm.hasLock(t2, pid));
+        assertFalse(lm.hasLock(t1, pid));
+    }
+
+    /**
+     * A shared request arriving after a queued exclusive request waits behind it.
+     */
+    @Test public void fifoGrantOrder() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        List<TransactionId> granted = new CopyOnWriteArrayList<>();
+
+        assertTrue(lm.acquireLock(t1, pid, LockManager.SHARED, 0));
+        Thread w2 = grabber(t2, LockManager.EXCLUSIVE, granted);
+        Thread.sleep(TIMEOUT);
+        Thread w3 = grabber(t3, LockManager.SHARED, granted);
+        Thread.sleep(TIMEOUT);
+        assertTrue(granted.isEmpty());
+
+        lm.releaseAllLocks(t1);
+        w2.join(TIMEOUT * 5);
+        assertEquals(1, granted.size());
+        assertEquals(t2, granted.get(0));
+
+        lm.releaseAllLocks(t2);
+        w3.join(TIMEOUT * 5);
+        assertEquals(2, granted.size());
+        assertEquals(t3, granted.get(1));
+    }
+
+    /**
+     * An upgrade request is served before exclusive requests queued earlier.
+     */
+    @Test public void upgradeJumpsQueue() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        List<TransactionId> granted = new CopyOnWriteArrayList<>();
+
+        assertTrue(lm.acquireLock(t1, pid, LockManager.SHARED, 0));
+        assertTrue(lm.acquireLock(t2, pid, LockManager.SHARED, 0));
+        Thread w3 = grabber(t3, LockManager.EXCLUSIVE, granted);
+        Thread.sleep(TIMEOUT);
+        Thread w1 = grabber(t1, LockManager.EXCLUSIVE, granted);
+        Thread.sleep(TIMEOUT);
+        assertTrue(granted.isEmpty());
+
+        lm.releaseAllLocks(t2);
+        w1.join(TIMEOUT * 5);
+        assertEquals(1, granted.size());
+        assertEquals(t1, granted.get(0));
+
+        lm.releaseAllLocks(t1);
+        w3.join(TIMEOUT * 5);
+        assertEquals(t3, granted.get(1));
+    }
+
+    /**
+     * A request that cannot be granted in time gives up and leaves the queue.
+     */
+    @Test public void timeout() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+
+        assertTrue(lm.acquireLock(t1, pid, LockManager.SHARED, 0));
+        assertFalse(lm.acquireLock(t2, pid, LockManager.EXCLUSIVE, TIMEOUT));
+        assertFalse(lm.hasLock(t2, pid));
+        // the abandoned X request no longer blocks new readers
+        assertTrue(lm.acquireLock(t3, pid, LockManager.SHARED, 0));
+    }
+
+    /**
+     * Two transactions each wait for a page the other one holds: only the
+     * younger one is aborted, and the older one gets its lock once the
+     * victim's locks are released.
+     */
+    @Test public void deadlockAbortsYoungest() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        PageId pid2 = new HeapPageId(1, 1);
+        List<TransactionId> granted = new CopyOnWriteArrayList<>();
+
+        assertTrue(lm.acquireLock(t1, pid, LockManager.EXCLUSIVE, 0));
+        assertTrue(lm.acquireLock(t2, pid2, LockManager.EXCLUSIVE, 0));
+        Thread w1 = grabber(t1, pid2, LockManager.EXCLUSIVE, granted);
+        Thread.sleep(TIMEOUT);
+        Thread w2 = grabber(t2, pid, LockManager.EXCLUSIVE, granted);
+        w2.join(TIMEOUT * 5);
+        assertEquals(1, aborted.size());
+        assertEquals(t2, aborted.get(0));
+        assertTrue(granted.isEmpty());
+
+        lm.releaseAllLocks(t2);
+        w1.join(TIMEOUT * 5);
+        assertEquals(1, granted.size());
+        assertEquals(t1, granted.get(0));
+    }
+
+    /**
+     * The waiter that closes the cycle can pick an older, already blocked
+     * transaction as its victim; that transaction is woken up and aborted.
+     */
+    @Test public void deadlockWakesBlockedVictim() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        PageId pid2 = new HeapPageId(1, 1);
+        List<TransactionId> granted = new CopyOnWriteArrayList<>();
+
+        assertTrue(lm.acquireLock(t1, pid, LockManager.EXCLUSIVE, 0));
+        assertTrue(lm.acquireLock(t2, pid2, LockManager.EXCLUSIVE, 0));
+        Thread w2 = grabber(t2, pid, LockManager.EXCLUSIVE, granted);
+        Thread.sleep(TIMEOUT);
+        Thread w1 = grabber(t1, pid2, LockManager.EXCLUSIVE, granted);
+        w2.join(TIMEOUT * 5);
+        assertFalse(w2.isAlive());
+        assertEquals(1, aborted.size());
+        assertEquals(t2, aborted.get(0));
+
+        lm.releaseAllLocks(t2);
+        w1.join(TIMEOUT * 5);
+        assertEquals(1, granted.size());
+        assertEquals(t1, granted.get(0));
+    }
+
+    /**
+     * Two readers upgrading the same page deadlock; one of them survives.
+     */
+    @Test public void upgradeDeadlock() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        List<TransactionId> granted = new CopyOnWriteArrayList<>();
+
+        assertTrue(lm.acquireLock(t1, pid, LockManager.SHARED, 0));
+        assertTrue(lm.acquireLock(t2, pid, LockManager.SHARED, 0));
+        Thread w1 = grabber(t1, LockManager.EXCLUSIVE, granted);
+        Thread.sleep(TIMEOUT);
+        Thread w2 = grabber(t2, LockManager.EXCLUSIVE, granted);
+        w2.join(TIMEOUT * 5);
+        assertEquals(1, aborted.size());
+        assertEquals(t2, aborted.get(0));
+
+        lm.releaseAllLocks(t2);
+        w1.join(TIMEOUT * 5);
+        assertEquals(1, granted.size());
+        assertEquals(t1, granted.get(0));
+    }
+
+    /**
+     * A transaction waiting in two threads still waits in the other one when
+     * one of them gets its lock, so the cycle it closes later is found.
+     */
+    @Test public void waitsInSeveralThreads() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        PageId pid2 = new HeapPageId(1, 1);
+        PageId pid3 = new HeapPageId(1, 2);
+        List<TransactionId> granted = new CopyOnWriteArrayList<>();
+
+        assertTrue(lm.acquireLock(t1, pid3, LockManager.EXCLUSIVE, 0));
+        assertTrue(lm.acquireLock(t2, pid, LockManager.EXCLUSIVE, 0));
+        assertTrue(lm.acquireLock(t2, pid2, LockManager.EXCLUSIVE, 0));
+        Thread w1 = grabber(t1, pid, LockManager.SHARED, granted);
+        Thread w2 = grabber(t1, pid2, LockManager.SHARED, granted);
+        Thread.sleep(TIMEOUT);
+        lm.releaseLock(t2, pid);
+        w1.join(TIMEOUT * 5);
+        assertEquals(1, granted.size());
+
+        // t1 还在另一个线程里等 t2
+        Thread w3 = grabber(t2, pid3, LockManager.EXCLUSIVE, granted);
+        w3.join(TIMEOUT * 5);
+        assertFalse(w3.isAlive());
+        assertEquals(1, aborted.size());
+        assertEquals(t2, aborted.get(0));
+
+        lm.releaseAllLocks(t2);
+        w2.join(TIMEOUT * 5);
+        assertEquals(2, granted.size());
+    }
+
+    /**
+     * Every thread a victim is waiting in is woken up and aborted.
+     */
+    @Test public void deadlockWakesEveryVictimThread() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        PageId pid2 = new HeapPageId(1, 1);
+        PageId pid3 = new HeapPageId(1, 2);
+        List<TransactionId> granted = new CopyOnWriteArrayList<>();
+
+        assertTrue(lm.acquireLock(t1, pid, LockManager.EXCLUSIVE, 0));
+        assertTrue(lm.acquireLock(t1, pid2, LockManager.EXCLUSIVE, 0));
+        assertTrue(lm.acquireLock(t2, pid3, LockManager.EXCLUSIVE, 0));
+        Thread w1 = grabber(t2, pid, LockManager.SHARED, granted);
+        Thread w2 = grabber(t2, pid2, LockManager.SHARED, granted);
+        Thread.sleep(TIMEOUT);
+        Thread w3 = grabber(t1, pid3, LockManager.SHARED, granted);
+        w1.join(TIMEOUT * 5);
+        w2.join(TIMEOUT * 5);
+        assertFalse(w1.isAlive());
+        assertFalse(w2.isAlive());
+        assertEquals(2, aborted.size());
+        assertEquals(t2, aborted.get(0));
+        assertEquals(t2, aborted.get(1));
+
+        lm.releaseAllLocks(t2);
+        w3.join(TIMEOUT * 5);
+        assertEquals(1, granted.size());
+        assertEquals(t1, granted.get(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
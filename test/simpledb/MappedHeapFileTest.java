@@ -0,0 +1,135 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+
+    private List<List<Integer>> tuples;
+    private File file;
+    private MappedHeapFile mhf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<>();
+        file = SystemTestUtil.createRandomHeapFileUnopened(3, 504 * 3 + 10, 1000, null, tuples);
+        mhf = new MappedHeapFile(file, Utility.getTupleDesc(3));
+        Database.getCatalog().addTable(mhf, UUID.randomUUID().toString());
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        mhf.close();
+    }
+
+    /**
+     * A scan of a MappedHeapFile returns the same tuples as the file holds.
+     */
+    @Test public void scan() throws Exception {
+        assertTrue(mhf.numPages() > 1);
+        SystemTestUtil.matchTuples(mhf, tuples);
+    }
+
+    /**
+     * Pages read from the mapping are identical to pages read with channel I/O.
+     */
+    @Test public void readPageMatchesHeapFile() throws Exception {
+        HeapFile hf = new HeapFile(file, Utility.getTupleDesc(3));
+        for (int i = 0; i < mhf.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(mhf.getId(), i);
+            HeapPage mapped = (HeapPage) mhf.readPage(pid);
+            HeapPage copied = (HeapPage) hf.readPage(pid);
+            assertArrayEquals(copied.getPageData(), mapped.getPageData());
+            assertArrayEquals(copied.getPageData(), mapped.getBeforeImage().getPageData());
+        }
+        hf.close();
+    }
+
+    /**
+     * The mapping is read-only: inserts, deletes and page writes are refused.
+     */
+    @Test public void refusesWrites() throws Exception {
+        Page page = mhf.readPage(new HeapPageId(mhf.getId(), 0));
+        try {
+            mhf.insertTuple(tid, Utility.getHeapTuple(1, 3));
+            fail("expected DbException");
+        } catch (DbException ignored) {
+        }
+        Tuple t = ((HeapPage) page).iterator().next();
+        try {
+            mhf.deleteTuple(tid, t);
+            fail("expected DbException");
+        } catch (DbException ignored) {
+        }
+        try {
+            mhf.writePage(page);
+            fail("expected IOException");
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * A HeapPage built from a ByteBuffer parses string fields the same way
+     * as one built from a byte array.
+     */
+    @Test public void pageFromBufferWithStrings() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        File f = File.createTempFile("strings", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 5; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("value " + i, Type.STRING_LEN));
+            page.insertTuple(t);
+        }
+        byte[] data = page.getPageData();
+        HeapPage fromBuffer = new HeapPage(pid, ByteBuffer.wrap(data));
+        assertArrayEquals(data, fromBuffer.getPageData());
+        assertEquals(page.getNumEmptySlots(), fromBuffer.getNumEmptySlots());
+        assertEquals(new StringField("value 3", Type.STRING_LEN), findString(fromBuffer, 3));
+    }
+
+    private static Field findString(HeapPage page, int key) {
+        java.util.Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() == key) {
+                return t.getField(1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,200 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class NumericTypesTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[]{Type.INT_TYPE, Type.LONG_TYPE, Type.DOUBLE_TYPE, Type.DATE_TYPE},
+            new String[]{"id", "big", "price", "day"});
+
+    private static Tuple tuple(int id, long big, double price, String day) throws ParseException {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new LongField(big));
+        t.setField(2, new DoubleField(price));
+        t.setField(3, DateField.parse(day));
+        return t;
+    }
+
+    private static List<Tuple> drain(OpIterator it) throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * Each new type is 8 bytes on disk and reads back, from a stream, from a
+     * buffer and from its text form, to an equal field.
+     */
+    @Test public void roundTrip() throws Exception {
+        Field[] fields = {
+                new LongField(Long.MIN_VALUE), new DoubleField(-0.25),
+                DateField.parse("2024-02-29"), DateField.parse("1969-12-31 23:59:59.5")};
+        for (Field f : fields) {
+            assertEquals(8, f.getType().getLen());
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            f.serialize(new DataOutputStream(baos));
+            byte[] bytes = baos.toByteArray();
+            assertEquals(8, bytes.length);
+            assertEquals(f, f.getType().parse(new DataInputStream(new ByteArrayInputStream(bytes))));
+            assertEquals(f, f.getType().parse(ByteBuffer.wrap(bytes), 0));
+            assertEquals(f, f.getType().parse(f.toString()));
+        }
+        assertEquals("2024-02-29", DateField.parse("2024-02-29").toString());
+        assertEquals("2024-02-29 12:30:00", DateField.parse("2024-02-29T12:30").toString());
+        assertEquals(86400000L, DateField.parse("1970-01-02").getValue());
+        assertEquals(Type.DATE_TYPE, Type.forName("DATE"));
+        assertNull(Type.forName("decimal"));
+        try {
+            Type.DATE_TYPE.parse("2024-13-01");
+            fail("expected ParseException");
+        } catch (ParseException ignored) {
+        }
+        try {
+            Type.LONG_TYPE.parse("12x");
+            fail("expected ParseException");
+        } catch (ParseException ignored) {
+        }
+    }
+
+    /**
+     * Comparisons follow the numeric or chronological order of the values,
+     * not their text.
+     */
+    @Test public void compare() throws Exception {
+        assertTrue(new LongField(9).compare(Predicate.Op.LESS_THAN, new LongField(10)));
+        assertTrue(new LongField(1L << 40).compare(Predicate.Op.GREATER_THAN, new LongField(1L << 39)));
+        assertTrue(new DoubleField(2.5).compare(Predicate.Op.GREATER_THAN_OR_EQ, new DoubleField(2.5)));
+        assertTrue(new DoubleField(-1.0).compare(Predicate.Op.NOT_EQUALS, new DoubleField(1.0)));
+        assertTrue(new DoubleField(Double.NaN).compare(Predicate.Op.EQUALS, new DoubleField(Double.NaN)));
+        assertTrue(DateField.parse("0999-01-01")
+                .compare(Predicate.Op.LESS_THAN, DateField.parse("2000-01-01")));
+        assertTrue(DateField.parse("2000-01-01 00:00:01")
+                .compare(Predicate.Op.GREATER_THAN, DateField.parse("2000-01-01")));
+
+        Predicate p = new Predicate(3, Predicate.Op.GREATER_THAN_OR_EQ, DateField.parse("2024-01-01"));
+        assertTrue(p.filter(tuple(1, 1, 1, "2024-06-01")));
+        assertFalse(p.filter(tuple(1, 1, 1, "2023-12-31 23:59:59")));
+
+        JoinPredicate jp = new JoinPredicate(2, Predicate.Op.LESS_THAN, 2);
+        assertTrue(jp.filter(tuple(1, 1, 1.5, "2024-01-01"), tuple(2, 2, 10.0, "2024-01-01")));
+        assertFalse(jp.filter(tuple(1, 1, 10.0, "2024-01-01"), tuple(2, 2, 1.5, "2024-01-01")));
+    }
+
+    /**
+     * MIN, MAX, SUM, AVG and COUNT over the new types, grouped by an int.
+     */
+    @Test public void aggregate() throws Exception {
+        List<Tuple> rows = Arrays.asList(
+                tuple(1, 10, 1.5, "2024-01-03"),
+                tuple(1, 20, 2.0, "2024-01-01"),
+                tuple(2, 5, -1.0, "2024-03-01"),
+                tuple(1, 3_000_000_000L, 0.5, "2024-01-02"));
+
+        Aggregate sum = new Aggregate(new TupleIterator(TD, rows), 1, 0, Aggregator.Op.SUM);
+        assertEquals(Type.LONG_TYPE, sum.getTupleDesc().getFieldType(1));
+        Map<Field, Field> sums = new HashMap<>();
+        for (Tuple t : drain(sum)) {
+            sums.put(t.getField(0), t.getField(1));
+        }
+        assertEquals(new LongField(3_000_000_030L), sums.get(new IntField(1)));
+        assertEquals(new LongField(5), sums.get(new IntField(2)));
+
+        Aggregate avg = new Aggregate(new TupleIterator(TD, rows), 2, Aggregator.NO_GROUPING, Aggregator.Op.AVG);
+        assertEquals(Collections.singletonList(new DoubleField(0.75)), fieldsOf(drain(avg), 0));
+
+        Aggregate min = new Aggregate(new TupleIterator(TD, rows), 3, 0, Aggregator.Op.MIN);
+        assertEquals(Type.DATE_TYPE, min.getTupleDesc().getFieldType(1));
+        for (Tuple t : drain(min)) {
+            String expected = t.getField(0).equals(new IntField(1)) ? "2024-01-01" : "2024-03-01";
+            assertEquals(DateField.parse(expected), t.getField(1));
+        }
+
+        Aggregate count = new Aggregate(new TupleIterator(TD, rows), 3, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+        assertEquals(Type.INT_TYPE, count.getTupleDesc().getFieldType(0));
+        assertEquals(Collections.singletonList(new IntField(4)), fieldsOf(drain(count), 0));
+
+        try {
+            new Aggregate(new TupleIterator(TD, rows), 3, 0, Aggregator.Op.SUM);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    private static List<Field> fieldsOf(List<Tuple> tuples, int i) {
+        List<Field> fields = new ArrayList<>();
+        for (Tuple t : tuples) {
+            fields.add(t.getField(i));
+        }
+        return fields;
+    }
+
+    /**
+     * A text file with the new types converts to a heap file, and TableStats
+     * builds histograms that estimate range predicates on it.
+     */
+    @Test public void convertAndEstimate() throws Exception {
+        File txt = File.createTempFile("numeric", ".txt");
+        File dat = File.createTempFile("numeric", ".dat");
+        txt.deleteOnExit();
+        dat.deleteOnExit();
+        final int rows = 1000;
+        try (PrintWriter w = new PrintWriter(new FileWriter(txt))) {
+            for (int i = 0; i < rows; i++) {
+                w.println(i + "," + (i * 1_000_000_000L) + "," + (i / 4.0) + ","
+                        + new DateField(86_400_000L * i));
+            }
+        }
+        Type[] types = {Type.INT_TYPE, Type.LONG_TYPE, Type.DOUBLE_TYPE, Type.DATE_TYPE};
+        HeapFileEncoder.convert(txt, dat, BufferPool.getPageSize(), 4, types);
+        HeapFile hf = new HeapFile(dat, TD);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        List<Tuple> tuples = drain(new SeqScan(tid, hf.getId()));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(rows, tuples.size());
+        for (Tuple t : tuples) {
+            int i = ((IntField) t.getField(0)).getValue();
+            assertTrue(TestUtil.compareTuples(tuple(i, i * 1_000_000_000L, i / 4.0,
+                    new DateField(86_400_000L * i).toString()), t));
+        }
+
+        TableStats stats = new TableStats(hf.getId(), 1000);
+        assertEquals(0.25, stats.estimateSelectivity(1, Predicate.Op.LESS_THAN, new LongField(250_000_000_000L)), 0.05);
+        assertEquals(0.5, stats.estimateSelectivity(2, Predicate.Op.GREATER_THAN_OR_EQ, new DoubleField(125.0)), 0.05);
+        assertEquals(0.1, stats.estimateSelectivity(3, Predicate.Op.LESS_THAN_OR_EQ, new DateField(86_400_000L * 100)), 0.05);
+        assertEquals(0.0, stats.estimateSelectivity(3, Predicate.Op.GREATER_THAN, new DateField(86_400_000L * 5000)), 0.01);
+        assertTrue(stats.estimateSelectivity(1, Predicate.Op.EQUALS, new LongField(5_000_000_000L)) < 0.01);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(NumericTypesTest.class);
+    }
+}
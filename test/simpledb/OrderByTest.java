@@ -0,0 +1,126 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = Utility.getTupleDesc(2);
+
+    /** rows tuples {random key below keys, position} */
+    private static List<Tuple> randomTuples(int rows, int keys) {
+        Random r = new Random(rows);
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(r.nextInt(keys)));
+            t.setField(1, new IntField(i));
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    /** The tuples sorted on their key, equal keys in their original order. */
+    private static List<List<Integer>> sorted(List<Tuple> tuples, boolean asc) {
+        List<List<Integer>> lists = new ArrayList<>();
+        for (Tuple t : tuples) {
+            lists.add(SystemTestUtil.tupleToList(t));
+        }
+        Comparator<List<Integer>> byKey = Comparator.comparing(l -> l.get(0));
+        lists.sort(asc ? byKey : byKey.reversed());
+        return lists;
+    }
+
+    private static List<List<Integer>> drain(OpIterator it) throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        while (it.hasNext()) {
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        return rows;
+    }
+
+    /**
+     * The same stable order comes out whether the tuples fit in memory, need
+     * one merge of the runs or need several, and again after a rewind.
+     */
+    @Test public void externalSort() throws Exception {
+        List<Tuple> tuples = randomTuples(20000, 500);
+        for (boolean asc : new boolean[]{true, false}) {
+            List<List<Integer>> expected = sorted(tuples, asc);
+            for (int memory : new int[]{50000, 1000, 40}) {
+                OrderBy ob = new OrderBy(0, asc, new TupleIterator(TD, tuples), OrderBy.NO_LIMIT, memory);
+                ob.open();
+                assertEquals("memory " + memory, expected, drain(ob));
+                if (memory >= tuples.size()) {
+                    assertEquals(0, ob.getSpilledBytes());
+                } else {
+                    assertTrue(ob.getSpilledBytes() > 0);
+                }
+                ob.rewind();
+                assertEquals(expected, drain(ob));
+                ob.close();
+            }
+        }
+    }
+
+    /**
+     * With a limit the first tuples of the same order come out, from the
+     * top-k heap when the limit fits in memory and from the external sort
+     * otherwise.
+     */
+    @Test public void limit() throws Exception {
+        List<Tuple> tuples = randomTuples(5000, 100);
+        List<List<Integer>> expected = sorted(tuples, false);
+        for (int limit : new int[]{0, 1, 70, 5000, 6000}) {
+            for (int memory : new int[]{100, 10000}) {
+                OrderBy ob = new OrderBy(0, false, new TupleIterator(TD, tuples), limit, memory);
+                ob.open();
+                assertEquals("limit " + limit + " memory " + memory,
+                        expected.subList(0, Math.min(limit, expected.size())), drain(ob));
+                if (limit <= memory) {
+                    assertEquals(0, ob.getSpilledBytes());
+                }
+                ob.rewind();
+                assertEquals(Math.min(limit, expected.size()), drain(ob).size());
+                ob.close();
+            }
+        }
+    }
+
+    /** LIMIT is taken off the end of a statement before Zql parses it. */
+    @Test public void splitLimit() throws Exception {
+        String[] sql = {"SELECT * FROM t ORDER BY t.a LIMIT 10;"};
+        assertEquals(10, Parser.splitLimit(sql));
+        assertEquals("SELECT * FROM t ORDER BY t.a;", sql[0]);
+
+        sql = new String[]{"select *\nfrom t order by t.a desc\n  limit 0"};
+        assertEquals(0, Parser.splitLimit(sql));
+        assertEquals("select *\nfrom t order by t.a desc;", sql[0]);
+
+        sql = new String[]{"SELECT * FROM t;"};
+        assertEquals(OrderBy.NO_LIMIT, Parser.splitLimit(sql));
+        assertEquals("SELECT * FROM t;", sql[0]);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
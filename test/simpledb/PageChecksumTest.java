@@ -0,0 +1,186 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class PageChecksumTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = Utility.getTupleDesc(2);
+
+    private File file;
+
+    @Before public void createFile() throws Exception {
+        file = File.createTempFile("checksum", ".dat");
+        file.deleteOnExit();
+    }
+
+    @After public void deleteFile() {
+        file.delete();
+        PageChecksums.sideFile(file).delete();
+    }
+
+    private HeapFile open() {
+        HeapFile hf = new HeapFile(file, TD);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    /** Write pages full pages of tuples to a new heap file and return their data. */
+    private List<byte[]> writePages(HeapFile hf, int pages) throws Exception {
+        List<byte[]> written = new ArrayList<>();
+        List<Page> batch = new ArrayList<>();
+        for (int i = 0; i < pages; i++) {
+            HeapPage page = new HeapPage(new HeapPageId(hf.getId(), i), HeapPage.createEmptyPageData());
+            for (int j = 0; page.getNumEmptySlots() > 0; j++) {
+                page.insertTuple(Utility.getHeapTuple(new int[]{i, j}));
+            }
+            written.add(page.getPageData());
+            batch.add(page);
+        }
+        hf.writePages(batch);
+        return written;
+    }
+
+    /** Flip one bit of the byte at position in the file. */
+    private void flip(long position) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0x10);
+        }
+    }
+
+    /** The checksum is CRC32C. */
+    @Test public void crc32c() {
+        byte[] data = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0xE3069283, PageChecksums.crc32c(data, 0, data.length));
+        assertEquals(0, PageChecksums.crc32c(data, 0, 0));
+    }
+
+    /**
+     * Pages written read back unchanged after the file is reopened; a page
+     * with a flipped bit is reported through the buffer pool as a DbException
+     * naming the file and the page.
+     */
+    @Test public void flippedBitDetected() throws Exception {
+        HeapFile hf = open();
+        List<byte[]> written = writePages(hf, 3);
+
+        Database.reset();
+        hf = open();
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(written.get(i), hf.readPage(new HeapPageId(hf.getId(), i)).getPageData());
+        }
+        flip(BufferPool.getPageSize() + 100);
+
+        Database.reset();
+        hf = open();
+        try {
+            hf.readPage(new HeapPageId(hf.getId(), 1));
+            fail("expected PageCorruptedException");
+        } catch (PageCorruptedException e) {
+            assertEquals(1, e.getPageNumber());
+            assertEquals(file, e.getFile());
+        }
+        try {
+            Database.getBufferPool().getPage(new TransactionId(), new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+            assertTrue(e.getMessage().contains("page 1 of " + file));
+        }
+    }
+
+    /** A file that ends in the middle of a page is reported as corrupt. */
+    @Test public void shortReadDetected() throws Exception {
+        HeapFile hf = open();
+        writePages(hf, 2);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(BufferPool.getPageSize() + BufferPool.getPageSize() / 2);
+        }
+        Database.reset();
+        hf = open();
+        hf.readPage(new HeapPageId(hf.getId(), 0));
+        try {
+            hf.readPage(new HeapPageId(hf.getId(), 1));
+            fail("expected PageCorruptedException");
+        } catch (PageCorruptedException e) {
+            assertEquals(1, e.getPageNumber());
+        }
+    }
+
+    /**
+     * Pages of a file written by HeapFileEncoder have no checksum and are
+     * not checked until they are written through the HeapFile.
+     */
+    @Test public void encodedFilesUnchecked() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+        File encoded = hf.getFile();
+        try {
+            PageChecksums.Report report = hf.verify(2);
+            assertEquals(hf.numPages(), report.pages);
+            assertEquals(hf.numPages(), report.unchecked);
+            assertTrue(report.corrupt.isEmpty());
+
+            hf.writePage(hf.readPage(new HeapPageId(hf.getId(), 0)));
+            report = hf.verify(2);
+            assertEquals(hf.numPages() - 1, report.unchecked);
+            assertTrue(report.corrupt.isEmpty());
+        } finally {
+            hf.close();
+            PageChecksums.sideFile(encoded).delete();
+        }
+    }
+
+    /**
+     * verify reads every page in parallel and reports exactly the corrupt
+     * ones, including a partly written last page.
+     */
+    @Test public void verifyReportsCorruptPages() throws Exception {
+        HeapFile hf = open();
+        final int pages = 200;
+        writePages(hf, pages);
+        PageChecksums.Report report = hf.verify(4);
+        assertEquals(pages, report.pages);
+        assertEquals(0, report.unchecked);
+        assertTrue(report.corrupt.isEmpty());
+
+        flip(7L * BufferPool.getPageSize());
+        flip(150L * BufferPool.getPageSize() + BufferPool.getPageSize() - 1);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(file.length() - 10);
+        }
+        Database.reset();
+        hf = open();
+        report = hf.verify(4);
+        assertEquals(pages, report.pages);
+        assertEquals(Arrays.asList(7, 150, pages - 1), new ArrayList<>(report.corrupt.keySet()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageChecksumTest.class);
+    }
+}
@@ -0,0 +1,174 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ParallelAggregateTest extends SimpleDbTestBase {
+
+    private static final Aggregator.Op[] OPS = {Aggregator.Op.SUM, Aggregator.Op.AVG,
+            Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.COUNT};
+
+    /** Return how many times each tuple of it is returned, as lists of ints. */
+    private static Map<List<Integer>, Integer> drain(OpIterator it) throws Exception {
+        Map<List<Integer>, Integer> counts = new HashMap<>();
+        while (it.hasNext()) {
+            counts.merge(SystemTestUtil.tupleToList(it.next()), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    private static HeapFile createHeapFile(int columns, int rows, int maxValue) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(columns, rows, maxValue, null, null, "c");
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        return hf;
+    }
+
+    /** A scan of hf under a filter keeping the tuples with c2 > 50. */
+    private static OpIterator filteredScan(TransactionId tid, HeapFile hf) {
+        return new Filter(new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(50)),
+                new SeqScan(tid, hf.getId(), "t"));
+    }
+
+    /**
+     * Scans of ranges of pages that cover a heap file return each of its
+     * tuples once; ranges past the end of the file are empty.
+     */
+    @Test public void pageRanges() throws Exception {
+        HeapFile hf = createHeapFile(2, 3000, 1000);
+        int pages = hf.numPages();
+        assertTrue(pages > 3);
+        TransactionId tid = new TransactionId();
+        SeqScan whole = new SeqScan(tid, hf.getId(), "t");
+        whole.open();
+        Map<List<Integer>, Integer> expected = drain(whole);
+        whole.close();
+
+        Map<List<Integer>, Integer> actual = new HashMap<>();
+        int[] bounds = {0, 1, 1, pages / 2, pages, pages + 3};
+        for (int i = 0; i + 1 < bounds.length; i++) {
+            SeqScan range = new SeqScan(tid, hf.getId(), "t", bounds[i], bounds[i + 1]);
+            range.open();
+            drain(range).forEach((t, n) -> actual.merge(t, n, Integer::sum));
+            range.rewind();
+            assertEquals(bounds[i] == bounds[i + 1] || bounds[i] >= pages, !range.hasNext());
+            range.close();
+        }
+        assertEquals(expected, actual);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Every worker count computes the same groups as a plain Aggregate, with
+     * and without grouping, also when the workers spill their groups, and
+     * again after a rewind.
+     */
+    @Test public void matchesAggregate() throws Exception {
+        HeapFile hf = createHeapFile(3, 20000, 200);
+        TransactionId tid = new TransactionId();
+        int[][] groupings = {{}, {0}, {0, 1}};
+        int[] afields = {2, 1, 2, 0, 1};
+        for (int[] gfields : groupings) {
+            Aggregate agg = new Aggregate(filteredScan(tid, hf), afields, gfields, OPS);
+            agg.open();
+            Map<List<Integer>, Integer> expected = drain(agg);
+            agg.close();
+            for (int workers : new int[]{1, 2, 3, 7}) {
+                for (int memory : new int[]{Aggregate.GROUP_MEMORY, 20}) {
+                    ParallelAggregate par = new ParallelAggregate(filteredScan(tid, hf), afields, gfields,
+                            OPS, memory, workers);
+                    String what = Arrays.toString(gfields) + " workers=" + workers + " memory=" + memory;
+                    par.open();
+                    assertEquals(what, expected, drain(par));
+                    par.rewind();
+                    assertEquals(what, expected, drain(par));
+                    par.close();
+                }
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Only INT aggregates and COUNT over filtered heap file scans run in parallel. */
+    @Test public void canParallelize() throws Exception {
+        HeapFile hf = createHeapFile(3, 100, 200);
+        TransactionId tid = new TransactionId();
+        int[] afields = {2};
+        Aggregator.Op[] sum = {Aggregator.Op.SUM};
+        assertTrue(ParallelAggregate.canParallelize(new SeqScan(tid, hf.getId()), afields, sum));
+        assertTrue(ParallelAggregate.canParallelize(filteredScan(tid, hf), afields, sum));
+        assertTrue(ParallelAggregate.canParallelize(filteredScan(tid, hf), new int[]{2},
+                new Aggregator.Op[]{Aggregator.Op.COUNT}));
+        TupleDesc td = hf.getTupleDesc();
+        assertFalse(ParallelAggregate.canParallelize(new TupleIterator(td, new ArrayList<>()), afields, sum));
+        TupleDesc strings = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        assertFalse(ParallelAggregate.canParallelize(new TupleIterator(strings, new ArrayList<>()),
+                new int[]{1}, new Aggregator.Op[]{Aggregator.Op.MAX}));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The optimizer aggregates a big table with as many workers as it has
+     * tuples for, up to the parallelism it is given, and a small one on one
+     * thread.
+     */
+    @Test public void optimizer() throws Exception {
+        HeapFile hf = createHeapFile(3, 2 * ParallelAggregate.MIN_TUPLES_PER_WORKER + 1000, 100);
+        Database.getCatalog().addTable(hf, "par_t");
+        HeapFile small = createHeapFile(3, 1000, 100);
+        Database.getCatalog().addTable(small, "par_small");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("par_t", new TableStats(hf.getId(), 1));
+        stats.put("par_small", new TableStats(small.getId(), 1));
+
+        TransactionId tid = new TransactionId();
+        Map<List<Integer>, Integer> results = null;
+        for (int parallelism : new int[]{1, 4}) {
+            LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                    "SELECT par_t.c0, SUM(par_t.c1), COUNT(*) FROM par_t WHERE par_t.c2 > 10 GROUP BY par_t.c0;");
+            lp.setParallelism(parallelism);
+            OpIterator plan = lp.physicalPlan(tid, stats, false);
+            OpIterator agg = ((Operator) plan).getChildren()[0];
+            if (parallelism == 1) {
+                assertFalse(agg instanceof ParallelAggregate);
+            } else {
+                assertEquals(2, ((ParallelAggregate) agg).getWorkers());
+            }
+            plan.open();
+            Map<List<Integer>, Integer> r = drain(plan);
+            plan.close();
+            if (results != null) {
+                assertEquals(results, r);
+            }
+            results = r;
+        }
+
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT SUM(par_small.c1) FROM par_small;");
+        lp.setParallelism(4);
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertFalse(((Operator) plan).getChildren()[0] instanceof ParallelAggregate);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelAggregateTest.class);
+    }
+}
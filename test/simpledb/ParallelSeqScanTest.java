@@ -0,0 +1,193 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ParallelSeqScanTest extends SimpleDbTestBase {
+
+    private static final int[] WORKERS = {1, 2, 3, 8};
+
+    /** Return the tuples of it, as lists of ints, in order. */
+    private static List<List<Integer>> drain(OpIterator it) throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        while (it.hasNext()) {
+            tuples.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        return tuples;
+    }
+
+    /** Return the tuples of it, read a batch at a time, as lists of ints. */
+    private static List<List<Integer>> drainBatches(OpIterator it) throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        TupleBatch batch;
+        while ((batch = it.nextBatch()) != null) {
+            for (int i = 0; i < batch.getTupleCount(); i++) {
+                tuples.add(SystemTestUtil.tupleToList(batch.getTuple(i)));
+            }
+        }
+        return tuples;
+    }
+
+    private static Map<List<Integer>, Integer> counts(List<List<Integer>> tuples) {
+        Map<List<Integer>, Integer> counts = new HashMap<>();
+        for (List<Integer> t : tuples) {
+            counts.merge(t, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    private static HeapFile createHeapFile(int columns, int rows) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(columns, rows, 1000, null, null, "c");
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        return hf;
+    }
+
+    /**
+     * Every worker count returns the tuples of a SeqScan: in any order
+     * unless asked, and in the same order when asked, through next and
+     * through nextBatch, and again after a rewind in the middle.
+     */
+    @Test public void matchesSeqScan() throws Exception {
+        HeapFile hf = createHeapFile(3, 20000);
+        assertTrue(hf.numPages() > 3 * ParallelSeqScan.MORSEL_PAGES);
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, hf.getId(), "t");
+        ss.open();
+        List<List<Integer>> expected = drain(ss);
+        ss.close();
+
+        for (int workers : WORKERS) {
+            ParallelSeqScan scan = new ParallelSeqScan(tid, hf.getId(), "t", workers);
+            assertEquals(ss.getTupleDesc(), scan.getTupleDesc());
+            scan.open();
+            assertEquals(counts(expected), counts(drain(scan)));
+            scan.close();
+
+            scan = new ParallelSeqScan(tid, hf.getId(), "t", Collections.emptyList(), null, workers, true);
+            scan.open();
+            for (int i = 0; i < 1000; i++) {
+                scan.next();
+            }
+            scan.rewind();
+            assertEquals(expected, drain(scan));
+            scan.rewind();
+            assertEquals(expected, drainBatches(scan));
+            scan.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Predicates and the projection run in the workers and give what a
+     * Filter and a Project over a SeqScan give.
+     */
+    @Test public void filterAndProject() throws Exception {
+        HeapFile hf = createHeapFile(3, 20000);
+        TransactionId tid = new TransactionId();
+        Predicate p1 = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(300));
+        Predicate p2 = new Predicate(2, Predicate.Op.LESS_THAN_OR_EQ, new IntField(700));
+        OpIterator plan = new Project(Arrays.asList(2, 0), new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+                new Filter(p2, new Filter(p1, new SeqScan(tid, hf.getId(), "t"))));
+        plan.open();
+        List<List<Integer>> expected = drain(plan);
+        plan.close();
+
+        for (int workers : WORKERS) {
+            ParallelSeqScan scan = new ParallelSeqScan(tid, hf.getId(), "t", Arrays.asList(p1, p2),
+                    new int[]{2, 0}, workers, true);
+            assertEquals(plan.getTupleDesc(), scan.getTupleDesc());
+            scan.open();
+            assertEquals(expected, drainBatches(scan));
+            scan.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The workers take a shared lock on every page for the transaction of
+     * the scan, and wait for a page another transaction has locked.
+     */
+    @Test public void sharedLocks() throws Exception {
+        HeapFile hf = createHeapFile(2, 10000);
+        TransactionId writer = new TransactionId();
+        HeapPageId locked = new HeapPageId(hf.getId(), hf.numPages() / 2);
+        Database.getBufferPool().getPage(writer, locked, Permissions.READ_WRITE);
+
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, hf.getId(), "t", 4);
+        List<List<Integer>> result = Collections.synchronizedList(new ArrayList<>());
+        Thread reader = new Thread(() -> {
+            try {
+                scan.open();
+                result.addAll(drain(scan));
+                scan.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        reader.start();
+        reader.join(500);
+        assertTrue(reader.isAlive());
+        assertTrue(result.isEmpty());
+
+        Database.getBufferPool().transactionComplete(writer);
+        reader.join(10000);
+        assertFalse(reader.isAlive());
+        assertEquals(10000, result.size());
+        for (int pg = 0; pg < hf.numPages(); pg++) {
+            assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), pg)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An error in a worker is thrown by the scan, which can still be closed;
+     * a scan closed before the end can be scanned again.
+     */
+    @Test public void errorsAndEarlyClose() throws Exception {
+        HeapFile hf = createHeapFile(2, 10000);
+        TransactionId tid = new TransactionId();
+        // INT 列和字符串比较会在 worker 里出错
+        Predicate bad = new Predicate(0, Predicate.Op.EQUALS, new StringField("x", Type.STRING_LEN));
+        ParallelSeqScan scan = new ParallelSeqScan(tid, hf.getId(), "t", Collections.singletonList(bad),
+                null, 3, false);
+        scan.open();
+        try {
+            drain(scan);
+            fail("expected the error of the workers");
+        } catch (ClassCastException expected) {
+        }
+        scan.close();
+
+        scan = new ParallelSeqScan(tid, hf.getId(), "t", 3);
+        scan.open();
+        assertTrue(scan.hasNext());
+        scan.next();
+        scan.close();
+        scan.open();
+        assertEquals(10000, drain(scan).size());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelSeqScanTest.class);
+    }
+}
@@ -0,0 +1,204 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE},
+            new String[]{"id", "code", "qty"});
+
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int id, String code) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(code, Type.STRING_LEN));
+        t.setField(2, new IntField(-id));
+        return t;
+    }
+
+    private static List<Tuple> contents(HeapPage page) {
+        List<Tuple> tuples = new ArrayList<>();
+        page.iterator().forEachRemaining(tuples::add);
+        return tuples;
+    }
+
+    /**
+     * Short strings take only their length: a page holds many more tuples
+     * than the fixed layout, and they read back unchanged.
+     */
+    @Test public void insertAndRead() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        assertEquals(0, contents(page).size());
+        int fixedPerPage = (BufferPool.getPageSize() * 8) / (TD.getSize() * 8 + 1);
+
+        int n = 0;
+        while (true) {
+            try {
+                page.insertTuple(tuple(n, "C" + n));
+            } catch (DbException e) {
+                break;
+            }
+            n++;
+        }
+        assertTrue(n > 4 * fixedPerPage);
+        assertEquals(0, page.getNumEmptySlots());
+
+        SlottedHeapPage reread = new SlottedHeapPage(pid, page.getPageData());
+        List<Tuple> tuples = contents(reread);
+        assertEquals(n, tuples.size());
+        for (int i = 0; i < n; i++) {
+            assertTrue(TestUtil.compareTuples(tuple(i, "C" + i), tuples.get(i)));
+            assertEquals(new RecordId(pid, i), tuples.get(i).getRecordId());
+        }
+    }
+
+    /**
+     * As long as getNumEmptySlots() is positive, any tuple fits.
+     */
+    @Test public void emptySlotsAreConservative() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        char[] longest = new char[Type.STRING_LEN];
+        Arrays.fill(longest, 'x');
+        int inserted = 0;
+        while (page.getNumEmptySlots() > 0) {
+            page.insertTuple(tuple(inserted++, new String(longest)));
+        }
+        assertTrue(inserted > 0);
+        assertEquals(inserted, contents(page).size());
+    }
+
+    /**
+     * Deleted slots are reused and their space reclaimed, tuples keep their
+     * RecordIds, and the before image is not affected by the changes.
+     */
+    @Test public void deleteReuseAndCompact() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        int n = 0;
+        while (true) {
+            try {
+                page.insertTuple(tuple(n, "code-" + n));
+            } catch (DbException e) {
+                break;
+            }
+            n++;
+        }
+        page.setBeforeImage();
+        byte[] before = page.getPageData();
+
+        // 删除每隔一个 tuple，再插入更长的 tuple，需要整理页面才能放下
+        List<Tuple> tuples = contents(page);
+        for (int i = 0; i < n; i += 2) {
+            page.deleteTuple(tuples.get(i));
+        }
+        assertFalse(page.isSlotUsed(0));
+        assertTrue(page.isSlotUsed(1));
+        Tuple longer = tuple(-1, "a much longer code than before");
+        page.insertTuple(longer);
+        assertEquals(new RecordId(pid, 0), longer.getRecordId());
+        assertEquals(n, page.getNumSlots());
+
+        List<Tuple> after = contents(page);
+        assertTrue(TestUtil.compareTuples(longer, after.get(0)));
+        for (int i = 1; i < n; i += 2) {
+            Tuple t = after.get((i + 1) / 2);
+            assertTrue(TestUtil.compareTuples(tuple(i, "code-" + i), t));
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+
+        try {
+            page.deleteTuple(tuples.get(2));
+            fail("expected DbException");
+        } catch (DbException ignored) {
+        }
+        assertArrayEquals(before, page.getBeforeImage().getPageData());
+        assertEquals(n, contents(page.getBeforeImage()).size());
+    }
+
+    /**
+     * A table declared "slotted" in a catalog file is a SlottedHeapFile;
+     * tuples inserted through the buffer pool survive a flush and a
+     * reload of the catalog.
+     */
+    @Test public void slottedTableFromCatalog() throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"), SystemTestUtil.getUUID());
+        assertTrue(dir.mkdir());
+        File schema = new File(dir, "catalog.txt");
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write("codes (id int, code string, qty int) slotted\n");
+        }
+        File data = new File(dir, "codes.dat");
+        assertTrue(data.createNewFile());
+        try {
+            Database.getCatalog().loadSchema(schema.getAbsolutePath());
+            DbFile f = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("codes"));
+            assertTrue(f instanceof SlottedHeapFile);
+
+            final int rows = 1000;
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < rows; i++) {
+                Database.getBufferPool().insertTuple(tid, f.getId(), tuple(i, "K" + i));
+            }
+            Database.getBufferPool().transactionComplete(tid);
+            int fixedPerPage = (BufferPool.getPageSize() * 8) / (TD.getSize() * 8 + 1);
+            assertTrue(((HeapFile) f).numPages() < (rows + fixedPerPage - 1) / fixedPerPage);
+
+            Database.reset();
+            Database.getCatalog().loadSchema(schema.getAbsolutePath());
+            f = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("codes"));
+            tid = new TransactionId();
+            Set<Integer> seen = new HashSet<>();
+            DbFileIterator it = f.iterator(tid);
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                int id = ((IntField) t.getField(0)).getValue();
+                assertEquals(new StringField("K" + id, Type.STRING_LEN), t.getField(1));
+                assertTrue(seen.add(id));
+            }
+            it.close();
+            assertEquals(rows, seen.size());
+            Page first = Database.getBufferPool().getPage(tid, new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+            assertTrue(first instanceof SlottedHeapPage);
+            Database.getBufferPool().transactionComplete(tid);
+        } finally {
+            Database.reset();
+            for (File c : Objects.requireNonNull(dir.listFiles())) {
+                c.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -0,0 +1,188 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = {Predicate.Op.EQUALS,
+            Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+            Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ};
+
+    /** Return how many times each tuple of it is returned, as lists of ints. */
+    private static Map<List<Integer>, Integer> drain(OpIterator it) throws Exception {
+        Map<List<Integer>, Integer> counts = new HashMap<>();
+        while (it.hasNext()) {
+            counts.merge(SystemTestUtil.tupleToList(it.next()), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    /** The pairs of left and right that match op on column 0 of each, counted. */
+    private static Map<List<Integer>, Integer> expected(List<List<Integer>> left,
+            Predicate.Op op, List<List<Integer>> right) {
+        Map<List<Integer>, Integer> counts = new HashMap<>();
+        for (List<Integer> t1 : left) {
+            for (List<Integer> t2 : right) {
+                if (new IntField(t1.get(0)).compare(op, new IntField(t2.get(0)))) {
+                    List<Integer> joined = new ArrayList<>(t1);
+                    joined.addAll(t2);
+                    counts.merge(joined, 1, Integer::sum);
+                }
+            }
+        }
+        return counts;
+    }
+
+    /** A B+ tree file keyed on its first column, with columns named c0, c1, ... */
+    private static BTreeFile createBTreeFile(int columns, int rows, int maxValue,
+            List<List<Integer>> tuples) throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(columns, rows, maxValue, null, tuples, 0);
+        bf = BTreeUtility.openBTreeFile(columns, "c", bf.getFile(), 0);
+        Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+        return bf;
+    }
+
+    /**
+     * Scans of two B+ tree files come out in key order and are merged for
+     * every predicate, again after a rewind.
+     */
+    @Test public void mergesBTreeScans() throws Exception {
+        List<List<Integer>> left = new ArrayList<>();
+        List<List<Integer>> right = new ArrayList<>();
+        BTreeFile bf1 = createBTreeFile(2, 400, 300, left);
+        BTreeFile bf2 = createBTreeFile(3, 300, 300, right);
+        TransactionId tid = new TransactionId();
+        for (Predicate.Op op : OPS) {
+            SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, op, 0),
+                    new SeqScan(tid, bf1.getId()), new SeqScan(tid, bf2.getId()));
+            join.open();
+            Map<List<Integer>, Integer> expected = expected(left, op, right);
+            assertEquals(op.toString(), expected, drain(join));
+            join.rewind();
+            assertEquals(op.toString(), expected, drain(join));
+            join.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Runs of equal join values on both sides, and on one side only, are all
+     * joined; string join fields are compared as fields.
+     */
+    @Test public void duplicateKeys() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE});
+        List<Tuple> left = new ArrayList<>();
+        List<Tuple> right = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("key" + (i / 7), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            left.add(t);
+            if (i % 3 == 0) {
+                right.add(t);
+            }
+        }
+        SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new TupleIterator(td, left), new TupleIterator(td, right));
+        join.open();
+        int count = 0;
+        while (join.hasNext()) {
+            Tuple t = join.next();
+            assertEquals(t.getField(0), t.getField(2));
+            count++;
+        }
+        join.close();
+        int expected = 0;
+        for (Tuple l : left) {
+            for (Tuple r : right) {
+                if (l.getField(0).equals(r.getField(0))) {
+                    expected++;
+                }
+            }
+        }
+        assertEquals(expected, count);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void notEquals() {
+        TupleDesc td = Utility.getTupleDesc(1);
+        new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+                new TupleIterator(td, new ArrayList<>()), new TupleIterator(td, new ArrayList<>()));
+    }
+
+    /**
+     * The optimizer merges scans of B+ trees on their key without sorting
+     * them, sorts other inputs of range joins first, and estimates a merge of
+     * sorted inputs to cost less than a join of unsorted ones.
+     */
+    @Test public void optimizer() throws Exception {
+        BTreeFile bf1 = createBTreeFile(2, 100, 50, null);
+        BTreeFile bf2 = createBTreeFile(2, 100, 50, null);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 100, 50, null, null, "c");
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        TransactionId tid = new TransactionId();
+
+        LogicalJoinNode eq = new LogicalJoinNode("a", "b", "a.c0", "b.c0", Predicate.Op.EQUALS);
+        OpIterator j = JoinOptimizer.instantiateJoin(eq,
+                new SeqScan(tid, bf1.getId(), "a"), new SeqScan(tid, bf2.getId(), "b"));
+        assertTrue(j instanceof SortMergeJoin);
+        for (OpIterator child : ((SortMergeJoin) j).getChildren()) {
+            assertTrue(child instanceof SeqScan);
+        }
+
+        // 只有一边有序的等值连接还是 hash join
+        j = JoinOptimizer.instantiateJoin(eq,
+                new SeqScan(tid, bf1.getId(), "a"), new SeqScan(tid, hf.getId(), "b"));
+        assertTrue(j instanceof HashEquiJoin);
+
+        LogicalJoinNode lt = new LogicalJoinNode("a", "b", "a.c0", "b.c0", Predicate.Op.LESS_THAN);
+        j = JoinOptimizer.instantiateJoin(lt,
+                new SeqScan(tid, bf1.getId(), "a"), new SeqScan(tid, hf.getId(), "b"));
+        assertTrue(j instanceof SortMergeJoin);
+        OpIterator[] children = ((SortMergeJoin) j).getChildren();
+        assertTrue(children[0] instanceof SeqScan);
+        assertTrue(children[1] instanceof OrderBy);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(bf1.getId(), "a");
+        lp.addScan(bf2.getId(), "b");
+        lp.addScan(hf.getId(), "h");
+        JoinOptimizer jo = new JoinOptimizer(lp, new ArrayList<>());
+        double sorted = jo.estimateJoinCost(eq, 1000, 1000, 100, 100);
+        double unsorted = jo.estimateJoinCost(
+                new LogicalJoinNode("a", "h", "a.c0", "h.c0", Predicate.Op.EQUALS), 1000, 1000, 100, 100);
+        assertTrue(sorted > 200);
+        assertTrue(sorted < unsorted);
+        // 没有排序的范围连接要加上排序的代价
+        assertTrue(jo.estimateJoinCost(lt, 1000, 1000, 100, 100)
+                < jo.estimateJoinCost(lt, 1000, 1000, 100, 100, false, false));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
@@ -0,0 +1,228 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+
+    /** Return every tuple of it, read a batch at a time, as lists of ints. */
+    private static List<List<Integer>> drainBatches(OpIterator it) throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        it.open();
+        TupleBatch batch;
+        while ((batch = it.nextBatch()) != null) {
+            assertTrue(batch.getTupleCount() > 0);
+            assertTrue(batch.getTupleCount() <= batch.capacity());
+            for (int i = 0; i < batch.getTupleCount(); i++) {
+                rows.add(SystemTestUtil.tupleToList(batch.getTuple(i)));
+            }
+        }
+        it.close();
+        return rows;
+    }
+
+    /**
+     * The selection vector picks the rows of a batch, and a projection shares
+     * the vectors and the selection of the batch it comes from.
+     */
+    @Test public void selectionAndProjection() {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        TupleBatch batch = new TupleBatch(td, 4);
+        for (int i = 0; i < 4; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i * 10));
+            t.setField(1, new StringField("s" + i, Type.STRING_LEN));
+            batch.add(t);
+        }
+        assertTrue(batch.isFull());
+        assertTrue(batch.isInt(0));
+        assertFalse(batch.isInt(1));
+        assertEquals(4, batch.getTupleCount());
+
+        int[] sel = batch.selection();
+        sel[0] = 1;
+        sel[1] = 3;
+        batch.select(sel, 2);
+        assertEquals(2, batch.getTupleCount());
+        assertEquals(3, batch.row(1));
+        assertEquals(new IntField(30), batch.getTuple(1).getField(0));
+
+        TupleBatch projected = batch.project(new TupleDesc(new Type[]{Type.STRING_TYPE}), new int[]{1});
+        assertEquals(2, projected.getTupleCount());
+        assertEquals(new StringField("s1", Type.STRING_LEN), projected.getTuple(0).getField(0));
+
+        batch.clear();
+        assertEquals(0, batch.getTupleCount());
+    }
+
+    /**
+     * SeqScan, Filter and Project return the same tuples a batch at a time
+     * as one at a time, also through the adapters in both directions, and
+     * the batches of a SeqScan keep the RecordIds of the tuples.
+     */
+    @Test public void batchesMatchRows() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null, tuples);
+        TransactionId tid = new TransactionId();
+
+        List<List<Integer>> scanned = drainBatches(new SeqScan(tid, hf.getId()));
+        assertEquals(tuples.size(), scanned.size());
+        SystemTestUtil.matchTuples(new BatchAdapter(new SeqScan(tid, hf.getId())), tuples);
+
+        SeqScan ridScan = new SeqScan(tid, hf.getId());
+        ridScan.open();
+        TupleBatch first = ridScan.nextBatch();
+        assertEquals(new RecordId(new HeapPageId(hf.getId(), 0), 0), first.getTuple(0).getRecordId());
+        ridScan.close();
+
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate p1 = new Predicate(0, op, new IntField(50));
+            Predicate p2 = new Predicate(2, Predicate.Op.LESS_THAN, new IntField(70));
+            List<List<Integer>> expected = new ArrayList<>();
+            for (List<Integer> t : tuples) {
+                if (new IntField(t.get(0)).compare(op, new IntField(50)) && t.get(2) < 70) {
+                    expected.add(Arrays.asList(t.get(2), t.get(0)));
+                }
+            }
+            OpIterator plan = new Project(Arrays.asList(2, 0), new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+                    new Filter(p2, new Filter(p1, new SeqScan(tid, hf.getId()))));
+            List<List<Integer>> actual = drainBatches(plan);
+            assertEquals(expected.size(), actual.size());
+            SystemTestUtil.matchTuples(plan, expected);
+            SystemTestUtil.matchTuples(new BatchAdapter(plan), expected);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Aggregate reads its child a batch at a time, with or without a group
+     * by, over children with and without a native batch implementation.
+     */
+    @Test public void aggregateOverBatches() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 3000, 1000, null, tuples);
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(200));
+
+        for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.SUM, Aggregator.Op.COUNT, Aggregator.Op.AVG}) {
+            Map<Integer, List<Integer>> groups = new HashMap<>();
+            List<Integer> all = new ArrayList<>();
+            for (List<Integer> t : tuples) {
+                if (t.get(1) > 200) {
+                    groups.computeIfAbsent(t.get(0) % 5, k -> new ArrayList<>()).add(t.get(1));
+                    all.add(t.get(1));
+                }
+            }
+            List<List<Integer>> grouped = new ArrayList<>();
+            for (Map.Entry<Integer, List<Integer>> e : groups.entrySet()) {
+                grouped.add(Arrays.asList(e.getKey(), aggregate(op, e.getValue())));
+            }
+
+            Aggregate plain = new Aggregate(new Filter(p, new SeqScan(tid, hf.getId())), 1,
+                    Aggregator.NO_GROUPING, op);
+            SystemTestUtil.matchTuples(plain, Collections.singletonList(
+                    Collections.singletonList(aggregate(op, all))));
+
+            // 分组列由一个只有逐行接口的算子算出
+            OpIterator modulo = new Modulo(new Filter(p, new SeqScan(tid, hf.getId())), 5);
+            Aggregate byGroup = new Aggregate(modulo, 1, 0, op);
+            SystemTestUtil.matchTuples(byGroup, grouped);
+            assertEquals(grouped.size(), drainBatches(new Aggregate(new Modulo(
+                    new Filter(p, new SeqScan(tid, hf.getId())), 5), 1, 0, op)).size());
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static int aggregate(Aggregator.Op op, List<Integer> values) {
+        int sum = 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int v : values) {
+            sum += v;
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        switch (op) {
+            case MIN: return min;
+            case MAX: return max;
+            case SUM: return sum;
+            case COUNT: return values.size();
+            default: return sum / values.size();
+        }
+    }
+
+    /**
+     * Replaces the first field of each tuple by its value modulo m, one tuple
+     * at a time; it relies on the default nextBatch.
+     */
+    private static class Modulo extends Operator {
+        private static final long serialVersionUID = 1L;
+        private OpIterator child;
+        private final int m;
+
+        Modulo(OpIterator child, int m) {
+            this.child = child;
+            this.m = m;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (!child.hasNext()) {
+                return null;
+            }
+            Tuple t = child.next();
+            Tuple out = new Tuple(getTupleDesc());
+            out.setField(0, new IntField(((IntField) t.getField(0)).getValue() % m));
+            out.setField(1, t.getField(1));
+            return out;
+        }
+
+        public OpIterator[] getChildren() {
+            return new OpIterator[]{child};
+        }
+
+        public void setChildren(OpIterator[] children) {
+            child = children[0];
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleBatchTest.class);
+    }
+}